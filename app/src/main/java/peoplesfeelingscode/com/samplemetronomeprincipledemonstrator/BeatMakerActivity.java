@@ -10,7 +10,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 import peoplesfeelingscode.com.pfseq.PFSeq;
 import peoplesfeelingscode.com.pfseq.PFSeqActivity;
@@ -178,9 +180,11 @@ public class BeatMakerActivity extends PFSeqActivity {
             return false;
         }
 
-        PFSeqClip clip1 = new PFSeqClip(seq, audFile1);
-        PFSeqClip clip2 = new PFSeqClip(seq, audFile2);
-        PFSeqClip clip3 = new PFSeqClip(seq, audFile3);
+        // decoded on worker threads. items are played once their clip has loaded
+        List<PFSeqClip> clips = seq.getClipLoader().load(Arrays.asList(audFile1, audFile2, audFile3), null);
+        PFSeqClip clip1 = clips.get(0);
+        PFSeqClip clip2 = clips.get(1);
+        PFSeqClip clip3 = clips.get(2);
         PFSeqTimeOffset lengthOffset1 = PFSeqTimeOffset.make(0, PFSeqTimeOffset.MODE_FRACTIONAL, 0, 16, 1, false, 0);
         PFSeqLength length1 = new PFSeqLength(getSeq(), MODE_FRACTIONAL, lengthOffset1, 0);
         PFSeqTimeOffset lengthOffset2 = PFSeqTimeOffset.make(0, PFSeqTimeOffset.MODE_FRACTIONAL, 0, 8, 3, false, 0);
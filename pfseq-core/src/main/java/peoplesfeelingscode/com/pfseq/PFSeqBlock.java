@@ -0,0 +1,65 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+one reusable block of PCM in a PFSeqBlockRing. holds either rendered PCM, a count of frames of silence,
+or a list of segments.
+
+a segment is a view (array, offset, length) that is written as is, so clip PCM can go to the AudioTrack
+straight from PFSeqClip.getPcm() without being copied. segments are written in order and together make up
+lengthFrames. pcm is then used as scratch space, for the parts that had to be processed (like fades).
+
+with FLOAT_OUTPUT, rendered PCM is in floatPcm instead and there are no segments.
+ */
+
+class PFSeqBlock {
+    static final int MAX_SEGMENTS = 8;
+
+    short[] pcm;
+    short[] silence; // the ring's shared silence. never written to
+    float[] floatPcm; // null unless FLOAT_OUTPUT
+    int lengthFrames;
+    boolean isSilence; // if true, pcm isn't used and lengthFrames of silence are written
+    boolean blocking;
+    long postedNanotime; // for the write latency metric
+    Runnable writer; // posted to the track's work thread. made once so posting a write doesn't allocate
+
+    short[][] segmentSources;
+    int[] segmentOffsets; // shorts
+    int[] segmentLengths; // shorts
+    int segmentCount; // if 0, pcm is written
+
+    PFSeqBlock(int blockFrames, short[] silence, boolean floatOutput) {
+        this.pcm = new short[blockFrames * 2];
+        this.silence = silence;
+        if (floatOutput) {
+            this.floatPcm = new float[blockFrames * 2];
+        }
+        this.segmentSources = new short[MAX_SEGMENTS][];
+        this.segmentOffsets = new int[MAX_SEGMENTS];
+        this.segmentLengths = new int[MAX_SEGMENTS];
+    }
+
+    /*
+    adds a view to the end of the block. joins it to the last segment when they're contiguous.
+    returns false if there's no segment left, in which case nothing is added
+     */
+    boolean addSegment(short[] source, int offsetShorts, int lengthShorts) {
+        if (segmentCount > 0) {
+            int last = segmentCount - 1;
+            if (segmentSources[last] == source
+                    && (source == silence || segmentOffsets[last] + segmentLengths[last] == offsetShorts)) {
+                // silence is all the same, so any two silence segments are contiguous
+                segmentLengths[last] += lengthShorts;
+                return true;
+            }
+        }
+        if (segmentCount == MAX_SEGMENTS) {
+            return false;
+        }
+        segmentSources[segmentCount] = source;
+        segmentOffsets[segmentCount] = offsetShorts;
+        segmentLengths[segmentCount] = lengthShorts;
+        segmentCount++;
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+fixed pool of PCM blocks for writing to one AudioTrack. all blocks are allocated up front.
+blocks are acquired on the control thread and released on the track's work thread in the same order
+they were acquired (the work thread writes them in order), so the pool is a ring.
+ */
+
+public class PFSeqBlockRing {
+    private PFSeqBlock[] blocks;
+    private short[] silence; // never written to. source for writing silence
+    private float[] floatSilence; // same, for FLOAT_OUTPUT. null otherwise
+    private int acquiredCount; // only changed by the thread that acquires
+    private int nextIndex;
+    private AtomicInteger releasedCount;
+
+    PFSeqBlockRing(int size, int blockFrames, boolean floatOutput) {
+        this.silence = new short[blockFrames * 2];
+        if (floatOutput) {
+            this.floatSilence = new float[blockFrames * 2];
+        }
+        this.blocks = new PFSeqBlock[size];
+        for (int i = 0; i < size; i++) {
+            blocks[i] = new PFSeqBlock(blockFrames, silence, floatOutput);
+        }
+        this.releasedCount = new AtomicInteger(0);
+    }
+
+    /*
+    returns null if every block is still waiting to be written
+     */
+    PFSeqBlock acquire() {
+        if (acquiredCount - releasedCount.get() >= blocks.length) {
+            return null;
+        }
+
+        PFSeqBlock block = blocks[nextIndex];
+        nextIndex = (nextIndex + 1) % blocks.length;
+        acquiredCount++;
+        block.isSilence = false;
+        block.lengthFrames = 0;
+        block.segmentCount = 0;
+
+        return block;
+    }
+    void release() {
+        releasedCount.incrementAndGet();
+    }
+    void reset() {
+        // only safe when nothing is waiting to be written, like when the work thread has been stopped
+        acquiredCount = 0;
+        nextIndex = 0;
+        releasedCount.set(0);
+    }
+
+    int size() {
+        return blocks.length;
+    }
+    PFSeqBlock get(int index) {
+        return blocks[index];
+    }
+    short[] getSilence() {
+        return silence;
+    }
+    float[] getFloatSilence() {
+        return floatSilence;
+    }
+}
@@ -0,0 +1,397 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+ADAPTIVE_WRITE_AHEAD - if true, how far ahead the output is written is worked out while playing (see PFSeqWriteAhead),
+    between WRITE_AHEAD_FLOOR_MILLIS and MIN_MILLIS_AHEAD_TO_WRITE. it starts at MIN_MILLIS_AHEAD_TO_WRITE and
+    comes down while the device keeps up, so edits are heard sooner. see PFSeq.getWriteAheadMillis()
+BLOCK_RING_SIZE - how many reusable PCM blocks each AudioTrack has for writes. all are allocated when the
+    AudioTrack is, so nothing is allocated while playing. a write waits if every block is still being written.
+BUFFER_SIZE_BYTES - this affects the beginning of the play state. the buffer needs to be filled before
+    the audiotrack will play on some devices, so a 1 megabyte buffer can mean a 5 second wait before
+    content begins (because you need the audiotimestamp before you can measure precisely and you need
+    to play before you get the audiotimestamp and you need a full buffer before it will play). note that
+    this is the requested buffer size (the native layer decides) so actual buffer size may differ.
+CLIP_CACHE_BYTES - how much decoded PCM PFSeqClipCache keeps for reuse, in bytes. shared by the whole
+    process, the last sequencer set up decides. clips used by enabled piano roll items are kept even
+    when that's over budget.
+CONTROL_THREAD_POLLING_MILLIS - the longest the control thread sleeps while playing. it's woken when a track
+    needs its next block, when a write finishes and on stop, so this is only a watchdog, for noticing underruns
+    when nothing is due.
+DITHER - if true, triangular dither is added when the mix bus is converted to 16 bit output, so gains
+    and fades don't leave quantization distortion. costs about 1 us per 1024 frame block (see PFSeqPcm).
+    not used when FLOAT_OUTPUT is true.
+DISK_CLIP_CACHE - if true, decoded clips are also kept in the app's cache dir (see PFSeqDiskClipCache),
+    so after the first launch clips load without decoding.
+FADE_LENGTH_FRAMES - this is just meant to prevent clipping, when audio clips are abridged. adjust to
+    taste. making it too large could cause errors on some devices
+FLOAT_OUTPUT - if true, AudioTracks are PCM_FLOAT and the mix bus (see PFSeqPcm) is written without clipping,
+    so summed tracks keep their headroom. if false, output is 16 bit. clips are 16, 24 or 32 bit or float either way.
+FRAMES_TO_LEAVE_BEFORE_NEXT_ITEM - no longer used. items are placed on exact frames, so an abridged item
+    ends on the frame the next item starts and no gap needs to be left.
+ID - this is so you can identify which config you have loaded, if your app allows multiple.
+MAX_CLIP_FRAMES - longest clip that is kept on the heap (10 s). longer clips, up to MAX_STREAMING_CLIP_FRAMES,
+    are decoded to the app's cache dir and streamed from a memory-mapped file as they play.
+MAX_MIXED_TRACKS - track limit when MIXED_OUTPUT is true. used instead of MAX_TRACKS, which is low because
+    every track costs an AudioTrack and a work thread. in mixed mode a track only costs mixing time per block.
+MAX_STREAMING_CLIP_FRAMES - longest clip that can be loaded at all (an hour). see MAX_CLIP_FRAMES
+MAX_TRACKS - track limit when MIXED_OUTPUT is false
+MAX_VOICES - most items one track can play at once (see PFSeqTrack.setMaxVoices()). tracks have 1 unless set.
+    the mix bus has room for 256 full scale voices before it can wrap (see PFSeqPcm), across all tracks
+MIN_MILLIS_AHEAD_TO_WRITE - it's min because you can write a little further out, like if the sample
+    extends beyond that point in time. this is how far into the future we want to keep the AudioTrack's
+    buffer written for. with ADAPTIVE_WRITE_AHEAD, it's where the write-ahead starts and the most it grows to.
+MIN_WRITABLE_CONTENT_NANO - shortest clip that can be loaded. nanoseconds
+MIX_BLOCK_FRAMES - size of the blocks that piano roll items are rendered (and, when MIXED_OUTPUT is true, mixed)
+    into before being written. smaller blocks mean more writes, larger blocks mean more work per write.
+    should be much less than MIN_MILLIS_AHEAD_TO_WRITE.
+MIXED_OUTPUT - if true, the piano rolls of all tracks are mixed in software and written to one shared AudioTrack,
+    so there is one buffer, one timestamp mapping and one work thread no matter how many tracks there are.
+    if false, each track has its own AudioTrack and the tracks are synced to each other before content starts.
+NATIVE_OUTPUT - if true, output runs at the device's native sample rate instead of SAMPLE_RATE, and MIX_BLOCK_FRAMES
+    is rounded down to a whole number of the device's bursts. that saves the platform resampling every buffer and
+    lets the AudioTrack take the low latency path. clips are converted to the rate when they're loaded.
+    see PFSeq.getSampleRate()
+REPEATING - whether the piano roll loops or plays once
+SAMPLE_RATE - output sample rate when NATIVE_OUTPUT is false, or when the device doesn't report one.
+    BUFFER_SIZE_BYTES is for this rate, and is scaled to keep the same duration at the native rate
+SMALLEST_STOPGAP_SILENCE_MILLIS - used while syncing so we don't bother writing tiny amounts of silence
+STEAL_FADE_FRAMES - how long a voice takes to fade out when it's stolen for a new item, because all of a
+    track's voices are busy. short, so the stolen item doesn't ring on for long. adjust to taste
+SYNC_MARGIN_MILLIS - how far before MIN_MILLIS_AHEAD_TO_WRITE is it ok for the buffer to be in order
+    for us to say it's ok to take a break from writing to sync the tracks
+SYNC_POLLING_SLEEP_MILLIS - used in syncTracks runnable to throttle the while loop
+SYNC_TIME_OUT_MILLIS - used in syncTracks runnable to exit runnable and send error to activity if syncing
+    does not complete in the specified time
+TIME_SIG_LOWER - note value that represents one beat. binary sequence numbers. 4 is quarter note.
+    not necessarily used.
+TIME_SIG_UPPER - how many beats constitute a bar
+TIMESTAMP_POLLING_DELAY_MILLIS - how frequently to check if the AudioTimestamp has been returned
+    from the native layer. this is also how frequently to write silence, while waiting for nano to be mapped.
+    make sure this is less than the equivalent of your buffer size, by some margin
+TRACE_RECORDS - how many records the trace ring keeps (see PFSeqTrace), rounded up to a power of 2. 32 bytes each.
+    0 turns tracing off. dump with PFSeq.dumpTrace()
+UNDERRUN_RESYNC_TIME_OUT_MILLIS - after an underrun, how long to wait for an AudioTimestamp to measure the stall
+    with. if none comes, the track carries on without being put back in time (see PFSeqUnderrunEvent)
+WRITE_AHEAD_FLOOR_MILLIS - the least the write-ahead comes down to with ADAPTIVE_WRITE_AHEAD. should be more than
+    the equivalent of MIX_BLOCK_FRAMES
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqLog.LOG_EOL;
+import static peoplesfeelingscode.com.pfseq.PFSeqLog.LOG_TAG;
+import static peoplesfeelingscode.com.pfseq.PFSeqUnits.MILLIS_PER_SECOND;
+
+public class PFSeqConfig implements Serializable {
+    private static final String KEY_NOT_FOUND = "key not found - ";
+
+    // keys
+    public static final String ADAPTIVE_WRITE_AHEAD = "adaptive_write_ahead";
+    public static final String BLOCK_RING_SIZE = "block_ring_size";
+    public static final String BUFFER_SIZE_BYTES = "buffer_size_bites";
+    public static final String CLIP_CACHE_BYTES = "clip_cache_bytes";
+    public static final String CONTROL_THREAD_POLLING_MILLIS = "control_thread_polling_millis";
+    public static final String DISK_CLIP_CACHE = "disk_clip_cache";
+    public static final String DITHER = "dither";
+    public static final String FADE_LENGTH_FRAMES = "fade_length_frames";
+    public static final String FLOAT_OUTPUT = "float_output";
+    public static final String FRAMES_TO_LEAVE_BEFORE_NEXT_ITEM = "frames_to_leave_before_next_item";
+    public static final String ID = "id";
+    public static final String MAX_BPM = "max_bpm";
+    public static final String MAX_CLIP_FRAMES = "max_clip_frames";
+    public static final String MAX_MIXED_TRACKS = "max_mixed_tracks";
+    public static final String MAX_STREAMING_CLIP_FRAMES = "max_streaming_clip_frames";
+    public static final String MAX_TRACKS = "max_tracks";
+    public static final String MAX_VOICES = "max_voices";
+    public static final String MIN_BPM = "min_bpm";
+    public static final String MIN_MILLIS_AHEAD_TO_WRITE = "min_millis_ahead_to_write";
+    public static final String MIN_WRITABLE_CONTENT_NANO = "min_writable_audio_nano";
+    public static final String MIX_BLOCK_FRAMES = "mix_block_frames";
+    public static final String MIXED_OUTPUT = "mixed_output";
+    public static final String NATIVE_OUTPUT = "native_output";
+    public static final String ONGOING_NOTIF_ID = "ongoing_notif_id";
+    public static final String REPEATING = "repeating";
+    public static final String RUN_IN_FOREGROUND = "run_in_foreground";
+    public static final String SAMPLE_RATE = "sample_rate";
+    public static final String SMALLEST_STOPGAP_SILENCE_MILLIS = "smallest_stopgap_silence_millis";
+    public static final String STEAL_FADE_FRAMES = "steal_fade_frames";
+    public static final String SYNC_MARGIN_MILLIS = "sync_margin_millis";
+    public static final String SYNC_POLLING_SLEEP_MILLIS = "sync_polling_sleep_millis";
+    public static final String SYNC_TIME_OUT_MILLIS = "time_out_millis";
+    public static final String TEMPO = "tempo_bpm";
+    public static final String TIME_SIG_LOWER = "starting_time_sig_lower_numeral";
+    public static final String TIME_SIG_UPPER = "starting_time_sig_upper_numeral";
+    public static final String TIMESTAMP_POLLING_DELAY_MILLIS = "timestamp_polling_delay_millis";
+    public static final String TRACE_RECORDS = "trace_records";
+    public static final String UNDERRUN_RESYNC_TIME_OUT_MILLIS = "underrun_resync_time_out_millis";
+    public static final String WRITE_AHEAD_FLOOR_MILLIS = "write_ahead_floor_millis";
+
+    private boolean isValid;
+    // default config values
+    public static final HashMap<String, Integer> INT_DEFAULTS = new HashMap<String, Integer>() {{
+        put(BLOCK_RING_SIZE, 4);
+        put(BUFFER_SIZE_BYTES, 100000);
+        put(CLIP_CACHE_BYTES, 64 * 1024 * 1024);
+        put(CONTROL_THREAD_POLLING_MILLIS, 100);
+        put(FADE_LENGTH_FRAMES, 2000);
+        put(FRAMES_TO_LEAVE_BEFORE_NEXT_ITEM, 100);
+        put(MAX_BPM, 1000);
+        put(MAX_CLIP_FRAMES, 441000);
+        put(MAX_MIXED_TRACKS, 64);
+        put(MAX_STREAMING_CLIP_FRAMES, 3600 * 44100);
+        put(MAX_TRACKS, 4);
+        put(MAX_VOICES, 16);
+        put(MIN_BPM, 15);
+        put(MIN_MILLIS_AHEAD_TO_WRITE, 400);
+        put(MIN_WRITABLE_CONTENT_NANO, 5000);
+        put(MIX_BLOCK_FRAMES, 1024);
+        put(ONGOING_NOTIF_ID, -1);
+        put(SAMPLE_RATE, 44100);
+        put(SMALLEST_STOPGAP_SILENCE_MILLIS, 50);
+        put(STEAL_FADE_FRAMES, 256);
+        put(SYNC_MARGIN_MILLIS, 100);
+        put(SYNC_POLLING_SLEEP_MILLIS, 5);
+        put(SYNC_TIME_OUT_MILLIS, 4000);
+        put(TIME_SIG_LOWER, 4);
+        put(TIME_SIG_UPPER, 4);
+        put(TIMESTAMP_POLLING_DELAY_MILLIS, 50);
+        put(TRACE_RECORDS, 0);
+        put(UNDERRUN_RESYNC_TIME_OUT_MILLIS, 1000);
+        put(WRITE_AHEAD_FLOOR_MILLIS, 40);
+    }};
+    public static final HashMap<String, Boolean> BOOL_DEFAULTS = new HashMap<String, Boolean>() {{
+        put(ADAPTIVE_WRITE_AHEAD, false);
+        put(DISK_CLIP_CACHE, true);
+        put(DITHER, true);
+        put(FLOAT_OUTPUT, false);
+        put(MIXED_OUTPUT, false);
+        put(NATIVE_OUTPUT, true);
+        put(REPEATING, true);
+        put(RUN_IN_FOREGROUND, true);
+    }};
+    public static final HashMap<String, Double> DOUBLE_DEFAULTS = new HashMap<String, Double>() {{
+        put(TEMPO, 120.0);
+    }};
+    public static final HashMap<String, String> STRING_DEFAULTS = new HashMap<String, String>() {{
+        put(ID, "");
+    }};
+
+    private HashMap<String, Integer> _ints;
+    private HashMap<String, Boolean> _bools;
+    private HashMap<String, Double> _doubles;
+    private HashMap<String, String> _strings;
+
+    /*
+    pass constructor the values that you want different from the defaults, or null.
+     */
+    public PFSeqConfig(HashMap<String, Integer> intValues,
+                       HashMap<String, Boolean> boolValues,
+                       HashMap<String, Double> doubleValues,
+                       HashMap<String, String> stringValues) {
+
+        // initialize with defaults
+        this._ints = INT_DEFAULTS;
+        this._bools = BOOL_DEFAULTS;
+        this._doubles = DOUBLE_DEFAULTS;
+        this._strings = STRING_DEFAULTS;
+
+        // overwrite defaults with values passed to constructor
+        if (intValues != null) {
+            for (Map.Entry<String, Integer> entry : intValues.entrySet()) {
+                if (_ints.containsKey(entry.getKey())) {
+                    _ints.put(entry.getKey(), entry.getValue());
+                } else {
+                    PFSeqLog.d(LOG_TAG, KEY_NOT_FOUND + " key: " + entry.getKey());
+                }
+            }
+        }
+        if (boolValues != null) {
+            for (Map.Entry<String, Boolean> entry : boolValues.entrySet()) {
+                if (_bools.containsKey(entry.getKey())) {
+                    _bools.put(entry.getKey(), entry.getValue());
+                } else {
+                    PFSeqLog.d(LOG_TAG, KEY_NOT_FOUND + " key: " + entry.getKey());
+                }
+            }
+        }
+        if (doubleValues != null) {
+            for (Map.Entry<String, Double> entry : doubleValues.entrySet()) {
+                if (_doubles.containsKey(entry.getKey())) {
+                    _doubles.put(entry.getKey(), entry.getValue());
+                } else {
+                    PFSeqLog.d(LOG_TAG, KEY_NOT_FOUND + " key: " + entry.getKey());
+                }
+            }
+        }
+        if (stringValues != null) {
+            for (Map.Entry<String, String> entry : stringValues.entrySet()) {
+                if (_strings.containsKey(entry.getKey())) {
+                    _strings.put(entry.getKey(), entry.getValue());
+                } else {
+                    PFSeqLog.d(LOG_TAG, KEY_NOT_FOUND + " key: " + entry.getKey());
+                }
+            }
+        }
+
+        isValid = validate();
+
+        PFSeqLog.d(LOG_TAG, "Config values: " + LOG_EOL + printConfig() + LOG_EOL + (isValid ? "valid" : "not valid"));
+    }
+
+    private boolean validate() {
+        // assumes 2 channel
+        if (getInt(SAMPLE_RATE) < PFSeqResampler.MIN_SAMPLE_RATE || getInt(SAMPLE_RATE) > PFSeqResampler.MAX_SAMPLE_RATE) {
+            PFSeqLog.d(LOG_TAG, "sample rate not supported. sample rates from " + PFSeqResampler.MIN_SAMPLE_RATE + " to " + PFSeqResampler.MAX_SAMPLE_RATE + " are supported. sample rate: " + getInt(SAMPLE_RATE));
+            return false;
+        }
+        double framesPerMillis = getInt(SAMPLE_RATE) / MILLIS_PER_SECOND;
+        int bufferSizeBytes = getInt(BUFFER_SIZE_BYTES);
+        int bufferSizeFrames = bufferSizeBytes / (getBool(FLOAT_OUTPUT) ? 2 * 4 : 2 * 2);
+        int bufferSizeMillis = (int) (bufferSizeFrames / framesPerMillis);
+        if (getInt(TIMESTAMP_POLLING_DELAY_MILLIS) >= bufferSizeMillis) {
+            PFSeqLog.d(LOG_TAG, "TIMESTAMP_POLLING_DELAY_MILLIS should be less than equivalent of BUFFER_SIZE_BYTES. TIMESTAMP_POLLING_DELAY_MILLIS: " + getInt(TIMESTAMP_POLLING_DELAY_MILLIS) + " BUFFER_SIZE_BYTES: " + getInt(BUFFER_SIZE_BYTES) + " bufferSizeMillis: " + bufferSizeMillis);
+            return false;
+        }
+        if (getInt(MIN_MILLIS_AHEAD_TO_WRITE) >= bufferSizeMillis) {
+            PFSeqLog.d(LOG_TAG, "MIN_MILLIS_AHEAD_TO_WRITE should be less than equivalent of BUFFER_SIZE_BYTES. MIN_MILLIS_AHEAD_TO_WRITE: " + getInt(MIN_MILLIS_AHEAD_TO_WRITE) + " BUFFER_SIZE_BYTES: " + getInt(BUFFER_SIZE_BYTES) + " bufferSizeMillis: " + bufferSizeMillis);
+            return false;
+        }
+        int mixBlockMillis = (int) (getInt(MIX_BLOCK_FRAMES) / framesPerMillis);
+        if (getInt(MIX_BLOCK_FRAMES) <= 0 || mixBlockMillis >= getInt(MIN_MILLIS_AHEAD_TO_WRITE)) {
+            PFSeqLog.d(LOG_TAG, "MIX_BLOCK_FRAMES should be positive and less than equivalent of MIN_MILLIS_AHEAD_TO_WRITE. MIX_BLOCK_FRAMES: " + getInt(MIX_BLOCK_FRAMES) + " MIN_MILLIS_AHEAD_TO_WRITE: " + getInt(MIN_MILLIS_AHEAD_TO_WRITE));
+            return false;
+        }
+        if (getBool(ADAPTIVE_WRITE_AHEAD) && (getInt(WRITE_AHEAD_FLOOR_MILLIS) <= mixBlockMillis || getInt(WRITE_AHEAD_FLOOR_MILLIS) > getInt(MIN_MILLIS_AHEAD_TO_WRITE))) {
+            PFSeqLog.d(LOG_TAG, "WRITE_AHEAD_FLOOR_MILLIS should be more than equivalent of MIX_BLOCK_FRAMES and not more than MIN_MILLIS_AHEAD_TO_WRITE. WRITE_AHEAD_FLOOR_MILLIS: " + getInt(WRITE_AHEAD_FLOOR_MILLIS) + " MIX_BLOCK_FRAMES: " + getInt(MIX_BLOCK_FRAMES) + " MIN_MILLIS_AHEAD_TO_WRITE: " + getInt(MIN_MILLIS_AHEAD_TO_WRITE));
+            return false;
+        }
+        if (getInt(UNDERRUN_RESYNC_TIME_OUT_MILLIS) <= getInt(TIMESTAMP_POLLING_DELAY_MILLIS)) {
+            PFSeqLog.d(LOG_TAG, "UNDERRUN_RESYNC_TIME_OUT_MILLIS should be more than TIMESTAMP_POLLING_DELAY_MILLIS. UNDERRUN_RESYNC_TIME_OUT_MILLIS: " + getInt(UNDERRUN_RESYNC_TIME_OUT_MILLIS) + " TIMESTAMP_POLLING_DELAY_MILLIS: " + getInt(TIMESTAMP_POLLING_DELAY_MILLIS));
+            return false;
+        }
+        if (getInt(TRACE_RECORDS) < 0 || getInt(TRACE_RECORDS) > 1 << 24) {
+            PFSeqLog.d(LOG_TAG, "TRACE_RECORDS should be from 0 to " + (1 << 24) + ". TRACE_RECORDS: " + getInt(TRACE_RECORDS));
+            return false;
+        }
+        if (getInt(BLOCK_RING_SIZE) < 2) {
+            PFSeqLog.d(LOG_TAG, "BLOCK_RING_SIZE should be at least 2. BLOCK_RING_SIZE: " + getInt(BLOCK_RING_SIZE));
+            return false;
+        }
+        if (getInt(MAX_STREAMING_CLIP_FRAMES) < getInt(MAX_CLIP_FRAMES)) {
+            PFSeqLog.d(LOG_TAG, "MAX_STREAMING_CLIP_FRAMES should not be less than MAX_CLIP_FRAMES. MAX_STREAMING_CLIP_FRAMES: " + getInt(MAX_STREAMING_CLIP_FRAMES) + " MAX_CLIP_FRAMES: " + getInt(MAX_CLIP_FRAMES));
+            return false;
+        }
+        if (getInt(MAX_VOICES) < 1) {
+            PFSeqLog.d(LOG_TAG, "MAX_VOICES should be at least 1. MAX_VOICES: " + getInt(MAX_VOICES));
+            return false;
+        }
+        if (getInt(STEAL_FADE_FRAMES) <= 0) {
+            PFSeqLog.d(LOG_TAG, "STEAL_FADE_FRAMES should be positive. STEAL_FADE_FRAMES: " + getInt(STEAL_FADE_FRAMES));
+            return false;
+        }
+        if (getInt(CLIP_CACHE_BYTES) < 0) {
+            PFSeqLog.d(LOG_TAG, "CLIP_CACHE_BYTES should not be negative. CLIP_CACHE_BYTES: " + getInt(CLIP_CACHE_BYTES));
+            return false;
+        }
+        if (getInt(MIN_BPM) >= getInt(MAX_BPM)) {
+            PFSeqLog.d(LOG_TAG, "min bpm not lower than max bpm. min: " + getInt(MIN_BPM) + " max: " + getInt(MAX_BPM));
+            return false;
+        }
+        if (getInt(MIN_BPM) <= 0 || getInt(SAMPLE_RATE) * PFSeqUnits.SECONDS_PER_MINUTE / getInt(MIN_BPM) > PFSeqTempoClock.MAX_TIME_PER_BEAT) {
+            PFSeqLog.d(LOG_TAG, "min bpm too low for the tempo clock at this sample rate. min: " + getInt(MIN_BPM));
+            return false;
+        }
+        if (getInt(MIN_BPM) > getDouble(TEMPO)) {
+            PFSeqLog.d(LOG_TAG, "tempo lower than min bpm. min: " + getInt(MIN_BPM) + " tempo: " + getDouble(TEMPO));
+            return false;
+        }
+        if (getInt(MAX_BPM) < getDouble(TEMPO)) {
+            PFSeqLog.d(LOG_TAG, "tempo greater than max bpm. max: " + getInt(MAX_BPM) + " tempo: " + getDouble(TEMPO));
+            return false;
+        }
+        if (getInt(TIME_SIG_LOWER) <= 0 || getInt(TIME_SIG_LOWER) % 2 != 0) {
+            PFSeqLog.d(LOG_TAG, "failed to create time signature. upper numeral: " + getInt(TIME_SIG_UPPER) + " lower numeral: " + getInt(TIME_SIG_LOWER));
+            return false;
+        }
+        if (getBool(REPEATING) && getInt(TIME_SIG_UPPER) <= 0) {
+            PFSeqLog.d(LOG_TAG, "upper time sig numeral negative: " + getInt(TIME_SIG_UPPER));
+            return false;
+        }
+        if (getInt(ONGOING_NOTIF_ID) < 0 && getBool(RUN_IN_FOREGROUND)) {
+            PFSeqLog.d(LOG_TAG, "ONGOING_NOTIF_ID shouldn't be -1 if foreground is true. ONGOING_NOTIF_ID: " + getInt(ONGOING_NOTIF_ID));
+            return false;
+        }
+
+        return true;
+    }
+
+    public int getInt(String key) {
+        if (_ints.get(key) != null) {
+            return _ints.get(key);
+        } else {
+            PFSeqLog.d(LOG_TAG, KEY_NOT_FOUND + " key: " + key);
+            return -1;
+        }
+    }
+
+    public double getDouble(String key) {
+        if (_doubles.get(key) != null) {
+            return _doubles.get(key);
+        } else {
+            PFSeqLog.d(LOG_TAG, KEY_NOT_FOUND + " key: " + key);
+            return -1;
+        }
+    }
+
+    public boolean getBool(String key) {
+        if (_bools.get(key) != null) {
+            return _bools.get(key);
+        } else {
+            PFSeqLog.d(LOG_TAG, KEY_NOT_FOUND + " key: " + key);
+            return false;
+        }
+    }
+
+    public String getString(String key) {
+        if (_strings.get(key) != null) {
+            return _strings.get(key);
+        } else {
+            PFSeqLog.d(LOG_TAG, KEY_NOT_FOUND + " key: " + key);
+            return "";
+        }
+    }
+
+    public String printConfig() {
+        ArrayList<String> lines = new ArrayList<String>();
+
+        for (Map.Entry<String, Integer> entry : _ints.entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue() + LOG_EOL);
+        }
+        for (Map.Entry<String, Double> entry : _doubles.entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue() + LOG_EOL);
+        }
+        for (Map.Entry<String, Boolean> entry : _bools.entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue() + LOG_EOL);
+        }
+        for (Map.Entry<String, String> entry : _strings.entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue() + LOG_EOL);
+        }
+
+        Collections.sort(lines);
+
+        String theString = "";
+        for (String line : lines) {
+            theString += line;
+        }
+
+        return theString;
+    }
+
+    public boolean isValid() {
+        return isValid;
+    }
+}
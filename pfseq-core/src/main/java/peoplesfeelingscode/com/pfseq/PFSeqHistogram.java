@@ -0,0 +1,123 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+counts of values in fixed buckets, for the engine metrics (see PFSeqMetrics).
+recording is lock-free and doesn't allocate, so it can be done on the control and work threads. any thread
+can take a snapshot. a snapshot taken while values are recorded can be off by the values being recorded.
+bucket i counts values up to bounds[i]. the last bucket counts everything above the last bound.
+ */
+
+public final class PFSeqHistogram {
+    private final long[] bounds;
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong min;
+    private final AtomicLong max;
+
+    PFSeqHistogram(long[] bounds) {
+        this.bounds = bounds;
+        this.counts = new AtomicLongArray(bounds.length + 1);
+        this.count = new AtomicLong(0);
+        this.sum = new AtomicLong(0);
+        this.min = new AtomicLong(Long.MAX_VALUE);
+        this.max = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    void record(long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long old;
+        while (value < (old = min.get())) {
+            if (min.compareAndSet(old, value)) {
+                break;
+            }
+        }
+        while (value > (old = max.get())) {
+            if (max.compareAndSet(old, value)) {
+                break;
+            }
+        }
+    }
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+    public Snapshot snapshot() {
+        long[] snapshotCounts = new long[counts.length()];
+        for (int i = 0; i < snapshotCounts.length; i++) {
+            snapshotCounts[i] = counts.get(i);
+        }
+        return new Snapshot(bounds, snapshotCounts, count.get(), sum.get(), min.get(), max.get());
+    }
+
+    public static class Snapshot {
+        private long[] bounds;
+        private long[] counts;
+        private long count;
+        private long sum;
+        private long min;
+        private long max;
+
+        Snapshot(long[] bounds, long[] counts, long count, long sum, long min, long max) {
+            this.bounds = bounds;
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+        public long getMean() {
+            return count > 0 ? sum / count : 0;
+        }
+        public long getMin() {
+            // 0 if nothing was recorded
+            return count > 0 ? min : 0;
+        }
+        public long getMax() {
+            // 0 if nothing was recorded
+            return count > 0 ? max : 0;
+        }
+        /*
+        the bound of the bucket the fraction (0 to 1) of values are at or under. the max, if that's the last bucket
+         */
+        public long getPercentile(double fraction) {
+            long target = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += counts[i];
+                if (seen >= target && seen > 0) {
+                    return Math.min(bounds[i], getMax());
+                }
+            }
+            return getMax();
+        }
+        public int getBucketCount() {
+            return counts.length;
+        }
+        public long getBucketBound(int bucket) {
+            // Long.MAX_VALUE for the last bucket
+            return bucket < bounds.length ? bounds[bucket] : Long.MAX_VALUE;
+        }
+        public long getBucketValueCount(int bucket) {
+            return counts[bucket];
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.util.ArrayList;
+
+/*
+what the core (the tempo clock, schedules, mixer, scheduler and offline renderer) needs from the sequencer that owns it.
+PFSeq is one, on android. a plain JVM class can be one too, to run the core without a device: for tests,
+benchmarks and profiling.
+
+content frames count from content start, see PFSeqTempoClock. the rest is as PFSeq documents it
+ */
+
+public interface PFSeqHost {
+    PFSeqConfig getConfig();
+    PFSeqTempoClock getTempoClock();
+    int getSampleRate();
+    int getMixBlockFrames();
+    int bytesPerFrame();
+    int nanoToFrames(long durationNano);
+    long framesToNano(int frames);
+    long nanoToContentFrame(long nano);
+    boolean isPlaying();
+    boolean isRenderingOffline();
+    /*
+    for PFSeqOfflineRenderer. false if playing, not ready to play, or already rendering
+     */
+    boolean startOfflineRender();
+    void finishOfflineRender();
+    ArrayList<? extends PFSeqTrackBase> getTracks();
+    void sendMessageToActivity(PFSeqMessage message);
+    /*
+    runs runnable soon on a thread that isn't an audio thread, for reports that log and allocate (PFSeq posts
+    it to the main thread). can be called from the audio threads, so it shouldn't allocate
+     */
+    void postToMainThread(Runnable runnable);
+}
@@ -4,12 +4,12 @@ public class PFSeqLength {
     public static final int MODE_FRACTIONAL = 0;
     public static final int MODE_ABSOLUTE = 1;
 
-    private PFSeq seq;
+    private PFSeqHost seq;
     private PFSeqTimeOffset timeOffset;
     private int mode; // one of the PFSeqLength.MODE_ constants
     private long lengthAbsoluteNano;
 
-    public PFSeqLength(PFSeq seq, int mode, PFSeqTimeOffset timeOffset, long lengthAbsoluteNano) {
+    public PFSeqLength(PFSeqHost seq, int mode, PFSeqTimeOffset timeOffset, long lengthAbsoluteNano) {
         this.seq = seq;
         this.timeOffset = timeOffset;
         this.mode = mode;
@@ -17,15 +17,17 @@ public class PFSeqLength {
     }
 
     public long getLengthFrames() {
+        // fractional lengths depend on the tempo where they start. this is for one starting now
+        return getLengthFrames(seq.getTempoClock().isStarted() ? seq.nanoToContentFrame(System.nanoTime()) : 0);
+    }
+    long getLengthFrames(long startFrame) {
         switch (mode) {
             case MODE_ABSOLUTE:
                 return seq.nanoToFrames(lengthAbsoluteNano);
             case MODE_FRACTIONAL:
-                double nanosPerBeat = seq.getNanosecondsPerBeat().doubleValue();
-                int beats = timeOffset.getBeats();
-                long offsetFromBeatNano = (long) ( timeOffset.getPercent() * nanosPerBeat );
-                long lengthNano = (long) (beats * nanosPerBeat) + offsetFromBeatNano;
-                return seq.nanoToFrames(lengthNano);
+                long ticks = timeOffset.getBeats() * PFSeqUnits.TICKS_PER_BEAT + timeOffset.getPercentTicks();
+                // the tempo clock is in frames already, and follows tempo changes and ramps
+                return seq.getTempoClock().durationOfTicks(startFrame, ticks);
         }
 
         return -1;
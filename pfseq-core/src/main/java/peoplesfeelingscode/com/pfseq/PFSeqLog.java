@@ -0,0 +1,33 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+logging for the core, which can't use android's Log. PFSeq sets a logger that hands lines to Log.d when it's
+created. until a logger is set lines go nowhere, so the core runs as is in plain JUnit or on a desktop JVM
+ */
+
+public final class PFSeqLog {
+    public static final String LOG_TAG = "**pf seq**";
+    static final String LOG_EOL = "\n";
+
+    public interface Logger {
+        void d(String tag, String msg);
+    }
+
+    private static volatile Logger logger;
+
+    private PFSeqLog() {
+    }
+
+    /*
+    null turns logging off
+     */
+    public static void setLogger(Logger logger) {
+        PFSeqLog.logger = logger;
+    }
+    static void d(String tag, String msg) {
+        Logger current = logger;
+        if (current != null) {
+            current.d(tag, msg);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+engine metrics since play, to see how close to the edge a device runs. everything is a lock-free counter or a
+PFSeqHistogram, recorded on the control and work threads without allocating.
+
+poll PFSeq.getMetricsSnapshot(), or get one every so often on the main thread with PFSeq.setMetricsListener().
+
+per output track (the mix track, in mixed output mode):
+    headroom - how much written audio was left when each block was rendered. the write-ahead when all is well.
+        near 0 is close to an underrun, below 0 is late
+    write latency - from a write being posted to the work thread to the AudioTrack taking it
+    frames written, writes, underruns counted by the AudioTrack, and recoveries from them (see PFSeqUnderrunEvent)
+for the control thread:
+    wakeups, and lateness - how long after a deadline it woke
+ */
+
+public class PFSeqMetrics {
+    // adjust to taste. bucket bounds for the time histograms, 50 us to 1 s
+    static final long[] TIME_BOUNDS_NANOS = {
+            50000L, 100000L, 250000L, 500000L,
+            1000000L, 2000000L, 5000000L, 10000000L, 20000000L, 50000000L,
+            100000000L, 200000000L, 500000000L, 1000000000L
+    };
+
+    public interface Listener {
+        void onMetrics(Snapshot snapshot);
+    }
+
+    final AtomicLong schedulerWakeups;
+    final PFSeqHistogram schedulerLateness;
+    private volatile long startNanotime;
+
+    PFSeqMetrics() {
+        schedulerWakeups = new AtomicLong(0);
+        schedulerLateness = new PFSeqHistogram(TIME_BOUNDS_NANOS);
+        startNanotime = System.nanoTime();
+    }
+
+    void reset() {
+        schedulerWakeups.set(0);
+        schedulerLateness.reset();
+        startNanotime = System.nanoTime();
+    }
+    long getStartNanotime() {
+        return startNanotime;
+    }
+
+    /*
+    one output track's metrics. owned by the track
+     */
+    static class Track {
+        final PFSeqHistogram headroom;
+        final PFSeqHistogram writeLatency;
+        final AtomicLong framesWritten;
+        final AtomicLong writes;
+        final AtomicLong underruns;
+        final AtomicLong recoveries;
+
+        Track() {
+            headroom = new PFSeqHistogram(TIME_BOUNDS_NANOS);
+            writeLatency = new PFSeqHistogram(TIME_BOUNDS_NANOS);
+            framesWritten = new AtomicLong(0);
+            writes = new AtomicLong(0);
+            underruns = new AtomicLong(0);
+            recoveries = new AtomicLong(0);
+        }
+
+        void reset() {
+            headroom.reset();
+            writeLatency.reset();
+            framesWritten.set(0);
+            writes.set(0);
+            underruns.set(0);
+            recoveries.set(0);
+        }
+    }
+
+    /*
+    copies, so they can be kept and read on any thread
+     */
+    Snapshot snapshot(ArrayList<? extends PFSeqTrackBase> outputTracks) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.elapsedNanos = System.nanoTime() - startNanotime;
+        snapshot.schedulerWakeups = schedulerWakeups.get();
+        snapshot.schedulerLateness = schedulerLateness.snapshot();
+        for (int i = 0; i < outputTracks.size(); i++) {
+            PFSeqTrackBase track = outputTracks.get(i);
+            Track metrics = track.getMetrics();
+            TrackSnapshot trackSnapshot = new TrackSnapshot();
+            trackSnapshot.name = track.getName();
+            trackSnapshot.headroom = metrics.headroom.snapshot();
+            trackSnapshot.writeLatency = metrics.writeLatency.snapshot();
+            trackSnapshot.framesWritten = metrics.framesWritten.get();
+            trackSnapshot.writes = metrics.writes.get();
+            trackSnapshot.underruns = metrics.underruns.get();
+            trackSnapshot.recoveries = metrics.recoveries.get();
+            snapshot.tracks.add(trackSnapshot);
+        }
+        return snapshot;
+    }
+
+    public static class Snapshot {
+        private long elapsedNanos;
+        private long schedulerWakeups;
+        private PFSeqHistogram.Snapshot schedulerLateness;
+        private ArrayList<TrackSnapshot> tracks = new ArrayList<TrackSnapshot>();
+
+        public long getElapsedNanos() {
+            // since play
+            return elapsedNanos;
+        }
+        public long getSchedulerWakeups() {
+            return schedulerWakeups;
+        }
+        public PFSeqHistogram.Snapshot getSchedulerLateness() {
+            return schedulerLateness;
+        }
+        public ArrayList<TrackSnapshot> getTracks() {
+            return tracks;
+        }
+        /*
+        least headroom of any track, in nanoseconds. how close to an underrun it's been. 0 if none recorded
+         */
+        public long getMinHeadroomNanos() {
+            long min = Long.MAX_VALUE;
+            for (TrackSnapshot track : tracks) {
+                if (track.headroom.getCount() > 0 && track.headroom.getMin() < min) {
+                    min = track.headroom.getMin();
+                }
+            }
+            return min == Long.MAX_VALUE ? 0 : min;
+        }
+        @Override
+        public String toString() {
+            StringBuilder summary = new StringBuilder();
+            summary.append(elapsedNanos / (long) PFSeqUnits.NANO_PER_MILLIS).append(" ms")
+                    .append(" - scheduler wakeups: ").append(schedulerWakeups)
+                    .append(" lateness mean/p99/max: ").append(micros(schedulerLateness.getMean()))
+                    .append('/').append(micros(schedulerLateness.getPercentile(0.99)))
+                    .append('/').append(micros(schedulerLateness.getMax())).append(" us");
+            for (TrackSnapshot track : tracks) {
+                summary.append(PFSeqLog.LOG_EOL).append(track);
+            }
+            return summary.toString();
+        }
+    }
+    public static class TrackSnapshot {
+        private String name;
+        private PFSeqHistogram.Snapshot headroom;
+        private PFSeqHistogram.Snapshot writeLatency;
+        private long framesWritten;
+        private long writes;
+        private long underruns;
+        private long recoveries;
+
+        public String getName() {
+            return name;
+        }
+        public PFSeqHistogram.Snapshot getHeadroom() {
+            return headroom;
+        }
+        public PFSeqHistogram.Snapshot getWriteLatency() {
+            return writeLatency;
+        }
+        public long getFramesWritten() {
+            return framesWritten;
+        }
+        public long getWrites() {
+            return writes;
+        }
+        public long getUnderruns() {
+            return underruns;
+        }
+        public long getRecoveries() {
+            return recoveries;
+        }
+        @Override
+        public String toString() {
+            return "track " + name + " - headroom min/p1/mean: " + micros(headroom.getMin())
+                    + '/' + micros(headroom.getPercentile(0.01)) + '/' + micros(headroom.getMean()) + " us"
+                    + " write latency mean/p99/max: " + micros(writeLatency.getMean())
+                    + '/' + micros(writeLatency.getPercentile(0.99)) + '/' + micros(writeLatency.getMax()) + " us"
+                    + " frames written: " + framesWritten + " writes: " + writes
+                    + " underruns: " + underruns + " recoveries: " + recoveries;
+        }
+    }
+
+    private static long micros(long nanos) {
+        return nanos / (long) PFSeqUnits.NANO_PER_MICROS;
+    }
+}
@@ -0,0 +1,420 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.DITHER;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.FADE_LENGTH_FRAMES;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.FLOAT_OUTPUT;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.STEAL_FADE_FRAMES;
+
+/*
+renders piano rolls into fixed-size blocks of PCM for one AudioTrack.
+when MIXED_OUTPUT is true there is one mixer for all tracks, writing to the shared mix track.
+otherwise each track has a mixer of its own, for just that track.
+
+item velocity is applied here, as a gain, so items don't need copies of their clips.
+tracks are summed on a 32-bit mix bus with headroom (see PFSeqPcm), which is converted to PCM_FLOAT or
+dithered 16 bit once per block.
+
+by default each track plays one item at a time: an item is abridged (with a fade out) when the next item on the
+same track would start before it ends. everything is positioned in content frames (see PFSeqTempoClock),
+so an abridged item ends on the exact frame the next one starts.
+a track with more than one voice (see PFSeqTrack.setMaxVoices()) lets overlapping items ring together instead.
+when all its voices are busy the oldest is stolen: it's moved to a slot kept free for that and faded out
+over STEAL_FADE_FRAMES, and its voice plays the new item.
+
+nothing is allocated while rendering. blocks come from the output track's PFSeqBlockRing.
+when there is only one track with one voice and output is 16 bit there is nothing to sum, so the block is made of
+segments (see PFSeqBlock) that point into the clip's PCM. only fades and items with a velocity below 1 are processed, in the block's own pcm.
+streamed clips (see PFSeqClip.isStreaming()) are read from their mapped file one block's worth at a time.
+ */
+
+public class PFSeqMixer {
+    static final int GAIN_BITS = 16;
+    static final int UNITY_GAIN = 1 << GAIN_BITS;
+
+    private PFSeqHost seq;
+    private ArrayList<? extends PFSeqTrackBase> tracks;
+    private int blockFrames;
+    private int fadeLengthFrames;
+    private int stealFadeFrames;
+    private boolean floatOutput;
+    private boolean dither;
+    private int ditherSeed; // state of the dither generator, see PFSeqPcm.toShortOutput()
+    private int[] mixBuffer; // the mix bus. summed samples of all tracks, see PFSeqPcm
+    private Voice[][] voices; // per track, same order as tracks. the track's max voices, plus one to fade stolen voices out in
+    private long[] lastStartFrames; // per track, start of the last item started. Long.MIN_VALUE if none
+    private PFSeqTrackSchedule.Event nextEvent;
+    private PFSeqTrackSchedule.Event eventAfter;
+    private long scratchStartFrame; // when a block runs out of segments, the rest is put in its pcm from here. -1 if not
+    private short[] streamBuffer; // what's read of a streamed clip for one span of a block
+
+    /*
+    an item a track is currently playing, positioned in content frames
+     */
+    private static class Voice {
+        boolean active;
+        short[] pcm;
+        ShortBuffer stream; // if not null, read from this instead of pcm
+        long startFrame; // next item is searched for after this
+        int lengthFrames;
+        int fadeFrames;
+        int gain; // UNITY_GAIN is 1
+
+        void copyFrom(Voice other) {
+            active = other.active;
+            pcm = other.pcm;
+            stream = other.stream;
+            startFrame = other.startFrame;
+            lengthFrames = other.lengthFrames;
+            fadeFrames = other.fadeFrames;
+            gain = other.gain;
+        }
+        void stop() {
+            active = false;
+            pcm = null;
+            stream = null;
+        }
+    }
+
+    public PFSeqMixer(PFSeqHost seq, ArrayList<? extends PFSeqTrackBase> tracks) {
+        this.seq = seq;
+        this.tracks = tracks;
+        this.blockFrames = seq.getMixBlockFrames();
+        this.fadeLengthFrames = seq.getConfig().getInt(FADE_LENGTH_FRAMES);
+        this.stealFadeFrames = seq.getConfig().getInt(STEAL_FADE_FRAMES);
+        this.floatOutput = seq.getConfig().getBool(FLOAT_OUTPUT);
+        this.dither = seq.getConfig().getBool(DITHER);
+        this.ditherSeed = 1;
+        this.mixBuffer = new int[blockFrames * 2];
+        this.streamBuffer = new short[blockFrames * 2];
+        this.nextEvent = new PFSeqTrackSchedule.Event();
+        this.eventAfter = new PFSeqTrackSchedule.Event();
+    }
+
+    /*
+    call before content starts. tracks can't be added while playing, so voices can be made here
+     */
+    void reset() {
+        if (voices == null || voices.length != tracks.size()) {
+            voices = new Voice[tracks.size()][];
+            lastStartFrames = new long[tracks.size()];
+        }
+        for (int i = 0; i < voices.length; i++) {
+            // max voices can't change while playing either
+            int maxVoices = tracks.get(i).getMaxVoices();
+            int slots = maxVoices == 1 ? 1 : maxVoices + 1;
+            if (voices[i] == null || voices[i].length != slots) {
+                voices[i] = new Voice[slots];
+                for (int v = 0; v < slots; v++) {
+                    voices[i][v] = new Voice();
+                }
+            }
+            for (Voice voice : voices[i]) {
+                voice.stop();
+            }
+            lastStartFrames[i] = Long.MIN_VALUE;
+            tracks.get(i).resetVoiceMetrics();
+        }
+    }
+
+    /*
+    render one block, starting at blockStartFrame. frames are counted from content start
+     */
+    void renderBlock(PFSeqBlock block, long blockStartFrame) {
+        if (tracks.size() == 1 && !floatOutput && voices[0].length == 1) {
+            renderSegments(block, blockStartFrame);
+        } else {
+            mixBlock(block, blockStartFrame);
+        }
+    }
+    private void mixBlock(PFSeqBlock block, long blockStartFrame) {
+        long blockEndFrame = blockStartFrame + blockFrames;
+        Arrays.fill(mixBuffer, 0);
+
+        for (int i = 0; i < tracks.size(); i++) {
+            PFSeqTrackBase track = tracks.get(i);
+            Voice[] trackVoices = voices[i];
+            if (!anyActive(trackVoices) && track.getSchedule().size() == 0) {
+                track.setActiveVoices(0);
+                continue;
+            }
+
+            long frame = blockStartFrame; // everything before this is mixed
+            while (true) {
+                // items on the first frame of the block count, items that have already been started don't
+                long searchFrame = Math.max(blockStartFrame - 1, lastStartFrames[i]);
+                long nextStartFrame = Long.MAX_VALUE;
+                if (track.nextEventAfter(searchFrame, nextEvent)) {
+                    nextStartFrame = nextEvent.frame;
+                }
+                long untilFrame = Math.min(blockEndFrame, nextStartFrame);
+
+                // with one voice the current item plays until the next one starts. with more, until it ends
+                for (Voice voice : trackVoices) {
+                    if (voice.active) {
+                        mixVoice(voice, blockStartFrame, frame, untilFrame);
+                    }
+                }
+                frame = untilFrame;
+
+                if (nextStartFrame >= blockEndFrame) {
+                    break;
+                }
+                startVoice(trackVoices, track, nextEvent.item, nextStartFrame);
+                lastStartFrames[i] = nextStartFrame;
+            }
+            track.setActiveVoices(countActive(trackVoices, blockEndFrame));
+        }
+
+        if (floatOutput) {
+            PFSeqPcm.toFloatOutput(mixBuffer, block.floatPcm, mixBuffer.length);
+        } else {
+            ditherSeed = PFSeqPcm.toShortOutput(mixBuffer, block.pcm, mixBuffer.length, dither, ditherSeed);
+        }
+        block.lengthFrames = blockFrames;
+    }
+    private void renderSegments(PFSeqBlock block, long blockStartFrame) {
+        PFSeqTrackBase track = tracks.get(0);
+        Voice[] trackVoices = voices[0];
+        Voice voice = trackVoices[0];
+        long blockEndFrame = blockStartFrame + blockFrames;
+        long frame = blockStartFrame; // everything before this is in the block
+        scratchStartFrame = -1;
+
+        while (true) {
+            // same search as mixBlock()
+            long searchFrame = blockStartFrame - 1;
+            if (voice.active && voice.startFrame > searchFrame) {
+                searchFrame = voice.startFrame;
+            }
+            long nextStartFrame = Long.MAX_VALUE;
+            if (track.getSchedule().size() > 0 && track.nextEventAfter(searchFrame, nextEvent)) {
+                nextStartFrame = nextEvent.frame;
+            }
+            long untilFrame = Math.min(blockEndFrame, nextStartFrame);
+
+            if (voice.active) {
+                long voiceEndFrame = Math.min(untilFrame, voice.startFrame + voice.lengthFrames);
+                long unfadedEndFrame = Math.min(voiceEndFrame, voice.startFrame + voice.lengthFrames - voice.fadeFrames);
+                if (frame < unfadedEndFrame && voice.gain == UNITY_GAIN && voice.stream == null) {
+                    int blockOffset = (int) (frame - blockStartFrame) * 2;
+                    int voiceOffset = (int) (frame - voice.startFrame) * 2;
+                    int lengthShorts = (int) (unfadedEndFrame - frame) * 2;
+                    if (!addSegment(block, voice.pcm, voiceOffset, lengthShorts, frame)) {
+                        System.arraycopy(voice.pcm, voiceOffset, block.pcm, blockOffset, lengthShorts);
+                    }
+                    frame = unfadedEndFrame;
+                }
+                if (frame < voiceEndFrame) {
+                    processVoice(voice, block.pcm, blockStartFrame, frame, voiceEndFrame);
+                    int blockOffset = (int) (frame - blockStartFrame) * 2;
+                    addSegment(block, block.pcm, blockOffset, (int) (voiceEndFrame - frame) * 2, frame);
+                    frame = voiceEndFrame;
+                }
+            }
+            if (frame < untilFrame) {
+                int blockOffset = (int) (frame - blockStartFrame) * 2;
+                int lengthShorts = (int) (untilFrame - frame) * 2;
+                if (!addSegment(block, block.silence, 0, lengthShorts, frame)) {
+                    Arrays.fill(block.pcm, blockOffset, blockOffset + lengthShorts, (short) 0);
+                }
+                frame = untilFrame;
+            }
+
+            if (nextStartFrame >= blockEndFrame) {
+                break;
+            }
+            startVoice(trackVoices, track, nextEvent.item, nextStartFrame);
+        }
+        track.setActiveVoices(countActive(trackVoices, blockEndFrame));
+
+        if (scratchStartFrame >= 0) {
+            // the segment kept free for this
+            int blockOffset = (int) (scratchStartFrame - blockStartFrame) * 2;
+            block.addSegment(block.pcm, blockOffset, (int) (blockEndFrame - scratchStartFrame) * 2);
+        }
+        block.lengthFrames = blockFrames;
+    }
+    /*
+    returns false if the span has to go into block.pcm instead. one segment is kept free for that
+     */
+    private boolean addSegment(PFSeqBlock block, short[] source, int offsetShorts, int lengthShorts, long fromFrame) {
+        if (scratchStartFrame < 0 && block.segmentCount < PFSeqBlock.MAX_SEGMENTS - 1) {
+            return block.addSegment(source, offsetShorts, lengthShorts);
+        }
+        if (scratchStartFrame < 0) {
+            scratchStartFrame = fromFrame;
+        }
+        return false;
+    }
+    private void startVoice(Voice[] trackVoices, PFSeqTrackBase track, PFSeqScheduledItem item, long startFrame) {
+        boolean polyphonic = trackVoices.length > 1;
+        Voice voice = polyphonic ? allocateVoice(trackVoices, track, startFrame) : trackVoices[0];
+        voice.active = true;
+        voice.pcm = item.getClip().getPcm();
+        voice.stream = item.getClip().getStream();
+        voice.startFrame = startFrame;
+        voice.gain = (int) Math.round(item.getVelocity() * UNITY_GAIN);
+
+        // one voice is abridged by the next item. more are only ended by stealing, see allocateVoice()
+        int originalLengthFrames = item.getClip().getLengthFrames();
+        int neededLengthFrames = originalLengthFrames;
+        if (!polyphonic && track.nextEventAfter(startFrame, eventAfter)) {
+            long framesUntilItemAfter = eventAfter.frame - startFrame;
+            if (framesUntilItemAfter < neededLengthFrames) {
+                neededLengthFrames = (int) framesUntilItemAfter;
+            }
+        }
+        if (item.getLength() != null) {
+            long maxLengthFrames = item.getLength().getLengthFrames(startFrame);
+            if (maxLengthFrames < neededLengthFrames) {
+                neededLengthFrames = (int) maxLengthFrames;
+            }
+        }
+        voice.lengthFrames = neededLengthFrames;
+        voice.fadeFrames = 0;
+        if (neededLengthFrames < originalLengthFrames) {
+            voice.fadeFrames = Math.min(fadeLengthFrames, neededLengthFrames);
+        }
+        track.setActiveVoices(countActive(trackVoices, startFrame));
+    }
+    /*
+    a free voice, or else the oldest, stolen. a stolen item is moved to the last slot, which is kept free
+    for this, and fades out from startFrame. an item still fading out there is cut
+     */
+    private Voice allocateVoice(Voice[] trackVoices, PFSeqTrackBase track, long startFrame) {
+        int releaseSlot = trackVoices.length - 1;
+        Voice oldest = null;
+        for (int v = 0; v < releaseSlot; v++) {
+            Voice voice = trackVoices[v];
+            if (!voice.active) {
+                return voice;
+            }
+            if (oldest == null || voice.startFrame < oldest.startFrame) {
+                oldest = voice;
+            }
+        }
+
+        Voice released = trackVoices[releaseSlot];
+        released.copyFrom(oldest);
+        // unless it's already fading out, or ends before the fade would
+        int stealVoiceFrame = (int) (startFrame - released.startFrame);
+        int stealLengthFrames = stealVoiceFrame + stealFadeFrames;
+        if (stealVoiceFrame < released.lengthFrames - released.fadeFrames && stealLengthFrames < released.lengthFrames) {
+            released.lengthFrames = stealLengthFrames;
+            released.fadeFrames = stealFadeFrames;
+        }
+        track.countStolenVoice();
+        return oldest;
+    }
+    private static boolean anyActive(Voice[] trackVoices) {
+        for (Voice voice : trackVoices) {
+            if (voice.active) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /*
+    voices still playing at frame
+     */
+    private static int countActive(Voice[] trackVoices, long frame) {
+        int count = 0;
+        for (Voice voice : trackVoices) {
+            if (voice.active && voice.startFrame + voice.lengthFrames > frame) {
+                count++;
+            }
+        }
+        return count;
+    }
+    /*
+    mixes the voice from fromFrame, or its start, to untilFrame, or its end. the voice is freed once it has ended
+     */
+    private void mixVoice(Voice voice, long blockStartFrame, long fromFrame, long untilFrame) {
+        fromFrame = Math.max(fromFrame, voice.startFrame);
+        long voiceEndFrame = voice.startFrame + voice.lengthFrames;
+        long toFrame = Math.min(untilFrame, voiceEndFrame);
+        if (fromFrame < toFrame) {
+            mixVoiceSpan(voice, blockStartFrame, fromFrame, toFrame);
+        }
+        if (untilFrame >= voiceEndFrame) {
+            voice.stop();
+        }
+    }
+    private void mixVoiceSpan(Voice voice, long blockStartFrame, long fromFrame, long toFrame) {
+        int fadeStartFrame = voice.lengthFrames - voice.fadeFrames;
+        int mixIndex = (int) (fromFrame - blockStartFrame) * 2;
+        int voiceFrame = (int) (fromFrame - voice.startFrame);
+        int voiceEndFrame = (int) (toFrame - voice.startFrame);
+        int gain = voice.gain;
+        short[] source = voice.pcm;
+        int sourceIndex = voiceFrame * 2;
+        if (voice.stream != null) {
+            source = readStream(voice, voiceFrame, voiceEndFrame);
+            sourceIndex = 0;
+        }
+
+        // the part before the fade in one go
+        int unfadedEndFrame = Math.min(voiceEndFrame, fadeStartFrame);
+        if (voiceFrame < unfadedEndFrame) {
+            int lengthShorts = (unfadedEndFrame - voiceFrame) * 2;
+            PFSeqPcm.mix(source, sourceIndex, mixBuffer, mixIndex, lengthShorts, gain);
+            mixIndex += lengthShorts;
+            sourceIndex += lengthShorts;
+            voiceFrame = unfadedEndFrame;
+        }
+
+        for (; voiceFrame < voiceEndFrame; voiceFrame++) {
+            // starts at (below) 1 and goes to 0, same as processVoice()
+            PFSeqPcm.mixFrame(source, sourceIndex, mixBuffer, mixIndex, (int) ((long) gain * (voice.lengthFrames - 1 - voiceFrame) / voice.fadeFrames));
+            mixIndex += 2;
+            sourceIndex += 2;
+        }
+    }
+
+    /*
+    like mixVoice() but writes into pcm instead of adding to the mix buffer
+     */
+    private void processVoice(Voice voice, short[] pcm, long blockStartFrame, long fromFrame, long toFrame) {
+        int fadeStartFrame = voice.lengthFrames - voice.fadeFrames;
+        int pcmIndex = (int) (fromFrame - blockStartFrame) * 2;
+        int voiceFrame = (int) (fromFrame - voice.startFrame);
+        int voiceEndFrame = (int) (toFrame - voice.startFrame);
+        int gain = voice.gain;
+        double positionInFade;
+        short[] source = voice.pcm;
+        int sourceIndex = voiceFrame * 2;
+        if (voice.stream != null) {
+            source = readStream(voice, voiceFrame, voiceEndFrame);
+            sourceIndex = 0;
+        }
+
+        for (; voiceFrame < voiceEndFrame; voiceFrame++) {
+            if (voiceFrame < fadeStartFrame) {
+                pcm[pcmIndex] = (short) ((source[sourceIndex] * gain) >> GAIN_BITS);
+                pcm[pcmIndex + 1] = (short) ((source[sourceIndex + 1] * gain) >> GAIN_BITS);
+            } else {
+                positionInFade = (double) (voice.lengthFrames - 1 - voiceFrame) / voice.fadeFrames;
+                pcm[pcmIndex] = (short) (((source[sourceIndex] * gain) >> GAIN_BITS) * positionInFade);
+                pcm[pcmIndex + 1] = (short) (((source[sourceIndex + 1] * gain) >> GAIN_BITS) * positionInFade);
+            }
+            pcmIndex += 2;
+            sourceIndex += 2;
+        }
+    }
+    /*
+    reads frames of a streamed voice into streamBuffer. spans are never longer than a block
+     */
+    private short[] readStream(Voice voice, int fromVoiceFrame, int toVoiceFrame) {
+        voice.stream.position(fromVoiceFrame * 2);
+        voice.stream.get(streamBuffer, 0, (toVoiceFrame - fromVoiceFrame) * 2);
+        return streamBuffer;
+    }
+
+    public int getBlockFrames() {
+        return blockFrames;
+    }
+}
@@ -0,0 +1,21 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+drains in real time, in bursts of PERIOD_FRAMES, and throws the PCM away. a PFSeqSimulatedSink with no jitter,
+for running the engine where there's no audio output, or when only its timing matters.
+ */
+
+public class PFSeqNullSink extends PFSeqSimulatedSink {
+    static final int PERIOD_FRAMES = 256; // adjust to taste. about what device mixers read at a time
+
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PFSeqOutputSink make(int sampleRate, boolean floatOutput, int bufferSizeFrames) {
+            return new PFSeqNullSink(sampleRate, floatOutput, bufferSizeFrames);
+        }
+    };
+
+    public PFSeqNullSink(int sampleRate, boolean floatOutput, int bufferSizeFrames) {
+        super(sampleRate, floatOutput, bufferSizeFrames, PERIOD_FRAMES, 1, 0, 0);
+    }
+}
@@ -0,0 +1,269 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqLog.LOG_TAG;
+import static peoplesfeelingscode.com.pfseq.PFSeqUnits.TICKS_PER_BEAT;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.FLOAT_OUTPUT;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TIME_SIG_UPPER;
+
+/*
+renders the sequencer's tracks as fast as the cpu goes, without AudioTracks or waiting, for bouncing loops,
+timing tests and benchmarks. the same mixer and schedules as playback are used, so a render is what play()
+would have played from tempo start: all tracks mixed, at the tempo and tempo changes the clock has, with
+the config's sample rate, block size, FLOAT_OUTPUT and DITHER.
+
+the sequencer can't play or be set up again while rendering, and a render can't start while it's playing.
+the tempo clock is started at frame 0 for the render and stopped after, as play() and stop() do. tempo
+changes made while rendering land wherever the render has got to, so make them before.
+
+renders are stereo, interleaved: short[] or, with FLOAT_OUTPUT, float[]. or a WAV file, 16 bit PCM or
+32 bit float. the lengths are whole bars from tempo start (TIME_SIG_UPPER beats each, through the tempo map).
+blocking, so call from a thread of your own.
+ */
+
+public class PFSeqOfflineRenderer {
+    private static final long MAX_WAV_DATA_BYTES = Integer.MAX_VALUE - 64; // header sizes are 32 bit, kept below 2^31 with the header
+    private static final int WAV_FORMAT_PCM = 1;
+    private static final int WAV_FORMAT_FLOAT = 3;
+
+    private PFSeqHost seq;
+    private long lastRenderFrames;
+    private long lastRenderNanos;
+
+    private interface Output {
+        void write(PFSeqBlock block, int lengthFrames) throws IOException;
+    }
+
+    public PFSeqOfflineRenderer(PFSeqHost seq) {
+        this.seq = seq;
+    }
+
+    /*
+    bars of 16 bit PCM. null if FLOAT_OUTPUT is set, the sequencer can't render now, or it doesn't fit an array
+     */
+    public short[] renderPcm(int bars) {
+        if (seq.getConfig() == null || seq.getConfig().getBool(FLOAT_OUTPUT)) {
+            PFSeqLog.d(LOG_TAG, "couldn't render 16 bit PCM. FLOAT_OUTPUT is set, use renderFloatPcm()");
+            return null;
+        }
+        if (!begin(bars)) {
+            return null;
+        }
+        try {
+            long frames = framesOfBars(bars);
+            if (frames > Integer.MAX_VALUE / 2) {
+                PFSeqLog.d(LOG_TAG, "couldn't render " + bars + " bars. " + frames + " frames don't fit an array");
+                return null;
+            }
+            final ShortBuffer pcm = ShortBuffer.wrap(new short[(int) frames * 2]);
+            render(frames, new Output() {
+                @Override
+                public void write(PFSeqBlock block, int lengthFrames) {
+                    putShorts(block, lengthFrames, pcm);
+                }
+            });
+            return pcm.array();
+        } catch (IOException e) {
+            // only writing files throws
+            return null;
+        } finally {
+            end();
+        }
+    }
+    /*
+    bars of float PCM. null unless FLOAT_OUTPUT is set, or if the sequencer can't render now, or it doesn't fit an array
+     */
+    public float[] renderFloatPcm(int bars) {
+        if (seq.getConfig() == null || !seq.getConfig().getBool(FLOAT_OUTPUT)) {
+            PFSeqLog.d(LOG_TAG, "couldn't render float PCM. FLOAT_OUTPUT isn't set, use renderPcm()");
+            return null;
+        }
+        if (!begin(bars)) {
+            return null;
+        }
+        try {
+            long frames = framesOfBars(bars);
+            if (frames > Integer.MAX_VALUE / 2) {
+                PFSeqLog.d(LOG_TAG, "couldn't render " + bars + " bars. " + frames + " frames don't fit an array");
+                return null;
+            }
+            final FloatBuffer pcm = FloatBuffer.wrap(new float[(int) frames * 2]);
+            render(frames, new Output() {
+                @Override
+                public void write(PFSeqBlock block, int lengthFrames) {
+                    pcm.put(block.floatPcm, 0, lengthFrames * 2);
+                }
+            });
+            return pcm.array();
+        } catch (IOException e) {
+            // only writing files throws
+            return null;
+        } finally {
+            end();
+        }
+    }
+    /*
+    bars to a WAV file, 16 bit PCM or, with FLOAT_OUTPUT, 32 bit float. only one block is held in memory,
+    so renders can be longer than renderPcm() allows. false if it couldn't render or write. the file is
+    deleted then
+     */
+    public boolean renderToWav(int bars, File file) {
+        if (!begin(bars)) {
+            return false;
+        }
+        try {
+            long frames = framesOfBars(bars);
+            final boolean floatOutput = seq.getConfig().getBool(FLOAT_OUTPUT);
+            int bytesPerFrame = seq.bytesPerFrame();
+            if (frames * bytesPerFrame > MAX_WAV_DATA_BYTES) {
+                PFSeqLog.d(LOG_TAG, "couldn't render " + bars + " bars. " + frames + " frames are too long for a WAV file");
+                return false;
+            }
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); final FileChannel channel = raf.getChannel()) {
+                raf.setLength(0);
+                ByteBuffer header = wavHeader(floatOutput, seq.getSampleRate(), frames);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+
+                final ByteBuffer bytes = ByteBuffer.allocate(seq.getMixBlockFrames() * bytesPerFrame).order(ByteOrder.LITTLE_ENDIAN);
+                render(frames, new Output() {
+                    @Override
+                    public void write(PFSeqBlock block, int lengthFrames) throws IOException {
+                        bytes.clear();
+                        if (floatOutput) {
+                            bytes.asFloatBuffer().put(block.floatPcm, 0, lengthFrames * 2);
+                        } else {
+                            putShorts(block, lengthFrames, bytes.asShortBuffer());
+                        }
+                        bytes.limit(lengthFrames * 2 * (floatOutput ? 4 : 2));
+                        while (bytes.hasRemaining()) {
+                            channel.write(bytes);
+                        }
+                    }
+                });
+            } catch (Exception e) {
+                PFSeqLog.d(LOG_TAG, "failed to render to " + file.getName() + ": " + e.getMessage());
+                file.delete();
+                return false;
+            }
+            return true;
+        } finally {
+            end();
+        }
+    }
+
+    /*
+    frames in the last render, and how long it took. frames divided by the sample rate, over the time,
+    is how many times faster than real time it went
+     */
+    public long getLastRenderFrames() {
+        return lastRenderFrames;
+    }
+    public long getLastRenderNanos() {
+        return lastRenderNanos;
+    }
+
+    private boolean begin(int bars) {
+        if (bars <= 0) {
+            PFSeqLog.d(LOG_TAG, "couldn't render " + bars + " bars");
+            return false;
+        }
+        if (!seq.startOfflineRender()) {
+            PFSeqLog.d(LOG_TAG, "couldn't render. not set up, tracks not ready, playing or already rendering");
+            return false;
+        }
+        lastRenderFrames = 0;
+        lastRenderNanos = System.nanoTime();
+        PFSeqTempoClock clock = seq.getTempoClock();
+        clock.stop();
+        clock.start(0);
+        return true;
+    }
+    private void end() {
+        lastRenderNanos = System.nanoTime() - lastRenderNanos;
+        seq.getTempoClock().stop();
+        seq.finishOfflineRender();
+    }
+    private long framesOfBars(int bars) {
+        // adjust to taste
+        long barTicks = seq.getConfig().getInt(TIME_SIG_UPPER) * TICKS_PER_BEAT;
+        return seq.getTempoClock().timeOfTicks(bars * barTicks);
+    }
+    /*
+    a mixer of its own over all tracks, so playback's mixers (and their voices) aren't touched. blocks go
+    straight from one to the next, as if every write had gone through at once
+     */
+    private void render(long frames, Output output) throws IOException {
+        int blockFrames = seq.getMixBlockFrames();
+        boolean floatOutput = seq.getConfig().getBool(FLOAT_OUTPUT);
+        PFSeqMixer mixer = new PFSeqMixer(seq, seq.getTracks());
+        mixer.reset();
+        PFSeqBlock block = new PFSeqBlock(blockFrames, new short[blockFrames * 2], floatOutput);
+
+        for (long frame = 0; frame < frames; frame += blockFrames) {
+            block.segmentCount = 0;
+            mixer.renderBlock(block, frame);
+            // the last block is cut at the end of the last bar
+            output.write(block, (int) Math.min(block.lengthFrames, frames - frame));
+        }
+        lastRenderFrames = frames;
+    }
+    /*
+    the block's first lengthFrames frames, from its segments if it has any
+     */
+    private static void putShorts(PFSeqBlock block, int lengthFrames, ShortBuffer dest) {
+        int remainingShorts = lengthFrames * 2;
+        if (block.segmentCount == 0) {
+            dest.put(block.pcm, 0, remainingShorts);
+            return;
+        }
+        for (int i = 0; i < block.segmentCount && remainingShorts > 0; i++) {
+            int lengthShorts = Math.min(block.segmentLengths[i], remainingShorts);
+            dest.put(block.segmentSources[i], block.segmentOffsets[i], lengthShorts);
+            remainingShorts -= lengthShorts;
+        }
+    }
+    /*
+    RIFF header for stereo PCM or float. float files have the fact chunk the format asks for
+     */
+    static ByteBuffer wavHeader(boolean floatOutput, int sampleRate, long frames) {
+        int bytesPerSample = floatOutput ? 4 : 2;
+        int dataBytes = (int) (frames * 2 * bytesPerSample);
+        int fmtBytes = floatOutput ? 18 : 16;
+        int factBytes = floatOutput ? 8 + 4 : 0;
+        ByteBuffer header = ByteBuffer.allocate(12 + 8 + fmtBytes + factBytes + 8).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[]{'R', 'I', 'F', 'F'});
+        header.putInt(header.capacity() - 8 + dataBytes);
+        header.put(new byte[]{'W', 'A', 'V', 'E'});
+
+        header.put(new byte[]{'f', 'm', 't', ' '});
+        header.putInt(fmtBytes);
+        header.putShort((short) (floatOutput ? WAV_FORMAT_FLOAT : WAV_FORMAT_PCM));
+        header.putShort((short) 2);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * 2 * bytesPerSample);
+        header.putShort((short) (2 * bytesPerSample));
+        header.putShort((short) (bytesPerSample * 8));
+        if (floatOutput) {
+            header.putShort((short) 0);
+            header.put(new byte[]{'f', 'a', 'c', 't'});
+            header.putInt(4);
+            header.putInt((int) frames);
+        }
+
+        header.put(new byte[]{'d', 'a', 't', 'a'});
+        header.putInt(dataBytes);
+        header.flip();
+        return header;
+    }
+}
@@ -0,0 +1,98 @@
+package peoplesfeelingscode.com.pfseq;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqUnits.NANO_PER_SECOND;
+
+/*
+where an output track's PCM goes. PFSeqTrack only talks to this, so it doesn't care what's on the other end:
+
+    PFSeqAudioTrackSink - an AudioTrack. the default
+    PFSeqSimulatedSink - a model of one: a buffer drained at a configurable rate, in bursts that can be late
+    PFSeqNullSink - drains in real time and throws the PCM away
+    PFSeqWavFileSink - drains in real time and keeps the PCM in a WAV file
+
+sinks are made by a Factory, set with PFSeq.setOutputSinkFactory(). a track makes a new sink when it's
+initialized and again after each stop, as it did with AudioTracks.
+
+what the engine needs from a sink is what it needs from an AudioTrack: writes that take what fits, blocking or
+not, a timestamp pairing a frame that was played with the nanotime it was played at, a count of underruns, and
+to be told once the first frame has been played (see setStartListener()). write and timestamp are only called
+from the track's work and control threads, the listener can be called on any thread.
+ */
+
+public abstract class PFSeqOutputSink {
+    // same values as AudioTrack's
+    public static final int PLAYSTATE_STOPPED = 1;
+    public static final int PLAYSTATE_PAUSED = 2;
+    public static final int PLAYSTATE_PLAYING = 3;
+    public static final int ERROR = -1;
+    public static final int ERROR_INVALID_OPERATION = -3; // a write() that doesn't match the format
+
+    public interface Factory {
+        /*
+        bufferSizeFrames is asked for. the sink's own getBufferSizeFrames() is what it got
+         */
+        PFSeqOutputSink make(int sampleRate, boolean floatOutput, int bufferSizeFrames);
+    }
+
+    /*
+    frame framePosition of the stream was played at nanoTime (System.nanoTime())
+     */
+    public static class Timestamp {
+        public long framePosition;
+        public long nanoTime;
+    }
+
+    private volatile Runnable startListener;
+    private Timestamp latencyTimestamp = new Timestamp();
+
+    /*
+    writes take what fits. blocking ones wait until everything does. they return how many shorts (or floats)
+    were taken, or below 0 for an error
+     */
+    public abstract int write(short[] pcm, int offsetShorts, int sizeShorts, boolean blocking);
+    public abstract int write(float[] pcm, int offsetSamples, int sizeSamples, boolean blocking);
+    public abstract void play();
+    public abstract void stop();
+    public abstract void release();
+    public abstract int getPlayState();
+    /*
+    false if there's no timestamp yet
+     */
+    public abstract boolean getTimestamp(Timestamp timestamp);
+    public abstract int getUnderrunCount();
+    public abstract int getBufferSizeFrames();
+    public abstract int getSampleRate();
+    /*
+    frames taken by write() since the sink was made
+     */
+    public abstract long getFramesWritten();
+
+    /*
+    how long until a frame written now is played, from the last timestamp. -1 if there isn't one
+     */
+    public long getLatencyNanos() {
+        synchronized (latencyTimestamp) {
+            if (!getTimestamp(latencyTimestamp)) {
+                return -1;
+            }
+            // adjust to taste
+            double nanosPerFrame = NANO_PER_SECOND / getSampleRate();
+            double playingFrame = latencyTimestamp.framePosition + (System.nanoTime() - latencyTimestamp.nanoTime) / nanosPerFrame;
+            return Math.max(0, (long) ((getFramesWritten() - playingFrame) * nanosPerFrame));
+        }
+    }
+
+    /*
+    listener is run once, after play(), when the first frame has been played
+     */
+    public void setStartListener(Runnable listener) {
+        this.startListener = listener;
+    }
+    protected void notifyStarted() {
+        Runnable listener = startListener;
+        startListener = null;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+a track with an output of its own, that PFSeqScheduler renders blocks for and posts them to. PFSeqTrack is one,
+writing to its sink (see PFSeqOutputSink) on a work thread of its own. in mixed output mode only the mix track's
+output is used.
+
+frames written are counted on the output's stream, from when it started. content frame 0 is written to
+getContentStartFrame() of them. the abstract methods are only called from the scheduler's thread
+ */
+
+public abstract class PFSeqOutputTrack extends PFSeqTrackBase {
+    private PFSeqMixer mixer; // renders the blocks. set by the host
+    private int shortfallCause; // what was seen running late since the last recovery. PFSeqUnderrunEvent.CAUSE_DEVICE if nothing
+
+    // underrun recovery, see PFSeqScheduler.checkUnderruns(). only used by the scheduler's thread
+    long recoveryStartNanotime; // 0 if not recovering
+    long recoveryCheckedNanotime; // stalls are measured from timestamps after this
+    long recoveryStallNanos;
+    int recoveryUnderruns;
+    int recoveryCause;
+
+    PFSeqOutputTrack(PFSeqHost host, String name) {
+        super(host, name);
+        this.shortfallCause = PFSeqUnderrunEvent.CAUSE_DEVICE;
+    }
+
+    /*
+    false once the output has stopped. the scheduler stops with it
+     */
+    abstract boolean isOutputRunning();
+    /*
+    true from a write being posted until it's been written
+     */
+    abstract boolean isWriteLocked();
+    /*
+    nanotime the frame after what's been written will be played at. only called while not write-locked
+     */
+    abstract long soonestWritableNanotime();
+    abstract int getTotalFramesWritten();
+    abstract int getContentStartFrame();
+    abstract PFSeqBlockRing getBlockRing();
+    /*
+    block must have been acquired from this track's block ring. it's released once written, and write-locks
+    the track until then
+     */
+    abstract boolean postWrite(PFSeqBlock block, boolean blocking);
+    /*
+    underruns since this was last called
+     */
+    abstract int takeNewUnderruns();
+    /*
+    how far behind its mapping to nanotime the output is playing, from a timestamp taken after
+    notBeforeNanotime. Long.MIN_VALUE if there isn't one yet
+     */
+    abstract long measureStallNanos(long notBeforeNanotime);
+    /*
+    moves the frame clock on after a stall, so content is written where it's heard in time.
+    only called while not write-locked
+     */
+    abstract void resync(long stallNanos);
+
+    /*
+    call when the output starts
+     */
+    void resetRecovery() {
+        shortfallCause = PFSeqUnderrunEvent.CAUSE_DEVICE;
+        recoveryStartNanotime = 0;
+    }
+    void noteShortfall(int cause) {
+        // the first thing seen late is the likeliest cause
+        if (shortfallCause == PFSeqUnderrunEvent.CAUSE_DEVICE) {
+            shortfallCause = cause;
+        }
+    }
+    int takeShortfallCause() {
+        int cause = shortfallCause;
+        shortfallCause = PFSeqUnderrunEvent.CAUSE_DEVICE;
+        return cause;
+    }
+
+    // accessors
+    PFSeqMixer getMixer() {
+        return mixer;
+    }
+    void setMixer(PFSeqMixer mixer) {
+        this.mixer = mixer;
+    }
+}
@@ -0,0 +1,25 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.nio.ShortBuffer;
+
+/*
+stereo 16 bit PCM at the sequencer's sample rate, as the mixer plays it. PFSeqClip is one, decoded from a file
+on android. a source is either in an array or streamed from a buffer (see getStream())
+ */
+
+public abstract class PFSeqPcmSource {
+    /*
+    interleaved. empty if the source is streamed
+     */
+    public abstract short[] getPcm();
+    public abstract int getLengthFrames();
+    /*
+    sources that aren't are left out of schedules
+     */
+    public abstract boolean isLoadedSuccessfully();
+    /*
+    null unless the PCM is read from here instead of getPcm(). only read on the control thread, the position is
+    moved by whoever reads
+     */
+    abstract ShortBuffer getStream();
+}
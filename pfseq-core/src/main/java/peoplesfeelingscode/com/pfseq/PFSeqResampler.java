@@ -0,0 +1,123 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+converts clips to the engine's sample rate once, when they're loaded, so nothing is resampled while playing.
+
+band-limited interpolation with a Kaiser-windowed sinc. the filter is tabulated at TABLE_STEPS points per
+zero crossing and read with linear interpolation, so any pair of rates works without a table per ratio.
+when converting down, the cutoff moves down with the output rate, so nothing above the new Nyquist frequency
+folds back. positions are worked out in integer math from the output frame, so there is no drift over
+long clips.
+ */
+
+final class PFSeqResampler {
+    static final int MIN_SAMPLE_RATE = 8000;
+    static final int MAX_SAMPLE_RATE = 192000;
+
+    // adjust to taste. more zero crossings is a steeper filter and slower loading
+    static final int ZERO_CROSSINGS = 32;
+    static final int TABLE_STEPS = 512;
+    static final double KAISER_BETA = 9.0;
+    static final double ROLLOFF = 0.945; // cutoff, as a fraction of the lower Nyquist frequency
+
+    private static final float[] TABLE = makeTable();
+
+    private PFSeqResampler() {
+    }
+
+    /*
+    pcm is interleaved. returns a new array at toRate, or pcm itself if the rates are the same
+     */
+    static short[] resample(short[] pcm, int channels, int fromRate, int toRate) {
+        if (fromRate == toRate) {
+            return pcm;
+        }
+
+        int inFrames = pcm.length / channels;
+        long outFramesLong = ((long) inFrames * toRate + fromRate - 1) / fromRate;
+        if (outFramesLong * channels > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("resampled clip too long");
+        }
+        int outFrames = (int) outFramesLong;
+        short[] out = new short[outFrames * channels];
+
+        // below 1 when converting down. the filter is stretched by 1 / cutoff input frames
+        double cutoff = ROLLOFF * Math.min(1.0, toRate / (double) fromRate);
+        double tableStepsPerFrame = TABLE_STEPS * cutoff;
+        int halfWidth = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+        double[] sums = new double[channels];
+
+        for (int outFrame = 0; outFrame < outFrames; outFrame++) {
+            // input position outFrame * fromRate / toRate, as a whole frame and a fraction
+            long position = (long) outFrame * fromRate;
+            int center = (int) (position / toRate);
+            double fraction = (position % toRate) / (double) toRate;
+
+            for (int c = 0; c < channels; c++) {
+                sums[c] = 0;
+            }
+
+            int first = Math.max(0, center - halfWidth + 1);
+            int last = Math.min(inFrames - 1, center + halfWidth);
+            for (int inFrame = first; inFrame <= last; inFrame++) {
+                double distance = Math.abs(inFrame - center - fraction);
+                double tablePosition = distance * tableStepsPerFrame;
+                int index = (int) tablePosition;
+                if (index >= TABLE.length - 1) {
+                    continue;
+                }
+                double weight = TABLE[index] + (tablePosition - index) * (TABLE[index + 1] - TABLE[index]);
+                int sampleIndex = inFrame * channels;
+                for (int c = 0; c < channels; c++) {
+                    sums[c] += pcm[sampleIndex + c] * weight;
+                }
+            }
+
+            int outIndex = outFrame * channels;
+            for (int c = 0; c < channels; c++) {
+                long sample = Math.round(sums[c] * cutoff);
+                if (sample > Short.MAX_VALUE) {
+                    sample = Short.MAX_VALUE;
+                } else if (sample < Short.MIN_VALUE) {
+                    sample = Short.MIN_VALUE;
+                }
+                out[outIndex + c] = (short) sample;
+            }
+        }
+
+        return out;
+    }
+
+    /*
+    sinc(x) * kaiser(x / ZERO_CROSSINGS), for x from 0 to ZERO_CROSSINGS in steps of 1 / TABLE_STEPS
+     */
+    private static float[] makeTable() {
+        float[] table = new float[ZERO_CROSSINGS * TABLE_STEPS + 1];
+        double besselOfBeta = bessel0(KAISER_BETA);
+        table[0] = 1;
+        for (int i = 1; i < table.length; i++) {
+            double x = i / (double) TABLE_STEPS;
+            double sinc = Math.sin(Math.PI * x) / (Math.PI * x);
+            double ratio = x / ZERO_CROSSINGS;
+            double window = bessel0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - ratio * ratio))) / besselOfBeta;
+            table[i] = (float) (sinc * window);
+        }
+        return table;
+    }
+    /*
+    zeroth order modified Bessel function of the first kind, for the Kaiser window
+     */
+    private static double bessel0(double x) {
+        double sum = 1;
+        double term = 1;
+        double halfX = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+}
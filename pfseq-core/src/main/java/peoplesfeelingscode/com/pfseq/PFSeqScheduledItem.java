@@ -0,0 +1,17 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+an item on a track, as the schedule and mixer see it: what to play, where in the bar, for how long and how loud.
+PFSeqPianoRollItem is one
+ */
+
+public interface PFSeqScheduledItem {
+    PFSeqPcmSource getClip();
+    PFSeqTimeOffset getTimeOffset();
+    /*
+    null plays the whole clip, unless the next item abridges it
+     */
+    PFSeqLength getLength();
+    double getVelocity();
+    boolean isEnabled();
+}
@@ -0,0 +1,301 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.CONTROL_THREAD_POLLING_MILLIS;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TIMESTAMP_POLLING_DELAY_MILLIS;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.UNDERRUN_RESYNC_TIME_OUT_MILLIS;
+import static peoplesfeelingscode.com.pfseq.PFSeqLog.LOG_TAG;
+import static peoplesfeelingscode.com.pfseq.PFSeqMessage.MESSAGE_TYPE_ALERT;
+import static peoplesfeelingscode.com.pfseq.PFSeqUnits.NANO_PER_MILLIS;
+
+/*
+the control thread's content writing loop: decides when each output track needs its next block, renders it
+with the track's mixer and posts it, and recovers tracks from underruns. PFSeq runs it on its control thread
+once the tracks are synced. a host without android can run it on a thread of its own, with output tracks
+(see PFSeqOutputTrack) of its own.
+
+getting the outputs started and mapped to nanotime, and synced to content start, is left to the host.
+writeContent() assumes every output track has silence written up to content start, and the tempo clock is
+started.
+ */
+
+public class PFSeqScheduler {
+    static final int MAX_UNDERRUN_EVENTS = 32; // most recent kept, see getUnderrunEvents()
+    static final long RESYNC_TOLERANCE_NANOS = 2000000; // adjust to taste. stalls shorter than this are left, timestamps jitter about this much
+
+    private PFSeqHost seq;
+    private ArrayList<? extends PFSeqOutputTrack> outputTracks;
+    private PFSeqMetrics metrics;
+    private PFSeqTrace trace;
+    private PFSeqWriteAhead writeAhead; // how far ahead content is written
+    private volatile Thread thread; // the one running writeContent()
+    private volatile boolean waitingForWrite; // the loop needs a write to finish before it can go on
+    private volatile long renderedUntilFrame; // content frame after the last block rendered, on any output track
+    private PFSeqUnderrunEvent[] underrunEvents; // ring of the last MAX_UNDERRUN_EVENTS. guarded by itself
+    private int underrunEventCount; // since reset
+    private int reportedUnderrunEventCount; // by underrunReporter. guarded by underrunEvents
+
+    /*
+    logs and messages the underrun events recorded since it last ran. the loop posts it to the host's main thread
+    (see PFSeqHost.postToMainThread()), so strings and messages aren't built on the control thread
+     */
+    private final Runnable underrunReporter = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<PFSeqUnderrunEvent> events = new ArrayList<PFSeqUnderrunEvent>();
+            synchronized (underrunEvents) {
+                int first = Math.max(reportedUnderrunEventCount, underrunEventCount - underrunEvents.length);
+                for (int i = first; i < underrunEventCount; i++) {
+                    events.add(underrunEvents[i % underrunEvents.length].copy());
+                }
+                reportedUnderrunEventCount = underrunEventCount;
+            }
+            for (PFSeqUnderrunEvent event : events) {
+                String text = "recovered from underrun. " + event + (event.getStallNanos() < 0 ? ". got no timestamp to resync with" : "");
+                PFSeqLog.d(LOG_TAG, text);
+                seq.sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, text));
+            }
+        }
+    };
+
+    PFSeqScheduler(PFSeqHost seq, ArrayList<? extends PFSeqOutputTrack> outputTracks, PFSeqMetrics metrics, PFSeqTrace trace, PFSeqWriteAhead writeAhead) {
+        this.seq = seq;
+        this.outputTracks = outputTracks;
+        this.metrics = metrics;
+        this.trace = trace;
+        this.writeAhead = writeAhead;
+        this.underrunEvents = new PFSeqUnderrunEvent[MAX_UNDERRUN_EVENTS];
+        for (int i = 0; i < underrunEvents.length; i++) {
+            underrunEvents[i] = new PFSeqUnderrunEvent();
+        }
+    }
+
+    /*
+    call on play, after the metrics are reset
+     */
+    void reset() {
+        writeAhead.reset(metrics.getStartNanotime());
+        renderedUntilFrame = 0;
+        synchronized (underrunEvents) {
+            underrunEventCount = 0;
+            reportedUnderrunEventCount = 0;
+        }
+    }
+
+    /*
+    wheels and deals blocks of PCM rendered from the tracks' schedules, until the host stops playing or an
+    output stops. nanotime only decides when to write. what is written is worked out in content frames.
+
+    there is no polling interval. a track needs its next block when what it has written runs out
+    the write-ahead from now (see PFSeqWriteAhead), and that time is known once a block is posted, so the thread
+    parks until the soonest of those deadlines. if a write is still going at its deadline, it's woken when the
+    write finishes (see writeFinished()). CONTROL_THREAD_POLLING_MILLIS only bounds how long it parks, so
+    underruns are still noticed when nothing is due.
+    underruns don't stop it. the track that underran is put back in time and it carries on (see checkUnderruns()).
+     */
+    void writeContent() {
+        PFSeqLog.d(LOG_TAG, "contentWriting started");
+        thread = Thread.currentThread();
+
+        long watchdogNanos = seq.getConfig().getInt(CONTROL_THREAD_POLLING_MILLIS) * (long) NANO_PER_MILLIS;
+        long blockNanos = seq.framesToNano(seq.getMixBlockFrames());
+        // when what each track has written runs out, worked out when its last block was posted
+        long[] writtenUntilNanos = new long[outputTracks.size()];
+        // nothing is allocated from here on. rendering is checked by PFSeqAllocationTest
+
+        outerloop:
+        while (true) {
+            long now = System.nanoTime();
+            long deadline = now + watchdogNanos;
+            long nanoAheadToWrite = writeAhead.getWriteAheadNanos();
+            waitingForWrite = false;
+
+            // indexed loop, an iterator would be garbage every iteration
+            for (int i = 0; i < outputTracks.size(); i++) {
+                PFSeqOutputTrack track = outputTracks.get(i);
+                if (!seq.isPlaying() || !track.isOutputRunning()) {
+                    break outerloop;
+                }
+                deadline = checkUnderruns(track, now, deadline);
+                // don't write to tracks that already have stuff to write
+                if (track.isWriteLocked()) {
+                    if (writtenUntilNanos[i] - blockNanos < now) {
+                        // what was written before this block has run out
+                        track.noteShortfall(PFSeqUnderrunEvent.CAUSE_WRITE);
+                    }
+                    deadline = trackDeadline(track, writtenUntilNanos[i] - nanoAheadToWrite, now, deadline);
+                    continue;
+                }
+
+                writtenUntilNanos[i] = track.soonestWritableNanotime();
+                long neededNano = writtenUntilNanos[i] - nanoAheadToWrite;
+                if (neededNano > now) {
+                    // not yet
+                    deadline = Math.min(deadline, neededNano);
+                    continue;
+                }
+
+                PFSeqBlock block = track.getBlockRing().acquire();
+                if (block == null) {
+                    // every block is still waiting to be written
+                    deadline = trackDeadline(track, now, now, deadline);
+                    continue;
+                }
+                long blockStartFrame = track.getTotalFramesWritten() - track.getContentStartFrame();
+                track.getMixer().renderBlock(block, blockStartFrame);
+                if (blockStartFrame + block.lengthFrames > renderedUntilFrame) {
+                    renderedUntilFrame = blockStartFrame + block.lengthFrames;
+                }
+                if (writtenUntilNanos[i] < now) {
+                    track.noteShortfall(PFSeqUnderrunEvent.CAUSE_CONTROL_THREAD);
+                }
+                track.getMetrics().headroom.record(writtenUntilNanos[i] - now);
+                trace.record(PFSeqTrace.TYPE_BLOCK_RENDERED, track.getTraceId(), blockStartFrame, block.lengthFrames, writtenUntilNanos[i] - now);
+                writeAhead.observe(now, writtenUntilNanos[i]);
+                nanoAheadToWrite = writeAhead.getWriteAheadNanos();
+                writtenUntilNanos[i] += seq.framesToNano(block.lengthFrames);
+                track.postWrite(block, true);
+                deadline = trackDeadline(track, writtenUntilNanos[i] - nanoAheadToWrite, now, deadline);
+            }
+
+            parkUntil(deadline);
+        }
+        PFSeqLog.d(LOG_TAG, "contentWriting done");
+    }
+    /*
+    underrun recovery. an output stops while it has nothing to play, so once it plays again everything after is
+    late by however long it stalled. that's measured from a new timestamp and the track's frame clock is moved on
+    by as much (see PFSeqOutputTrack.resync()), so the next block is back in time with the musical timeline.
+    it's measured again until a timestamp shows it's in time, in case it stalled more.
+    returns the deadline for the loop, sooner while recovering
+     */
+    private long checkUnderruns(PFSeqOutputTrack track, long now, long deadline) {
+        int newUnderruns = track.takeNewUnderruns();
+        if (newUnderruns > 0) {
+            track.getMetrics().underruns.addAndGet(newUnderruns);
+            writeAhead.underrun(now);
+            if (track.recoveryStartNanotime == 0) {
+                track.recoveryStartNanotime = now;
+                track.recoveryCause = track.takeShortfallCause();
+                track.recoveryStallNanos = 0;
+                track.recoveryUnderruns = 0;
+            }
+            track.recoveryUnderruns += newUnderruns;
+            track.recoveryCheckedNanotime = now;
+            trace.record(PFSeqTrace.TYPE_UNDERRUN, track.getTraceId(), 0, newUnderruns, 0);
+        }
+        if (track.recoveryStartNanotime == 0) {
+            return deadline;
+        }
+
+        // the frame clock is only changed between writes
+        if (!track.isWriteLocked()) {
+            long stallNanos = track.measureStallNanos(track.recoveryCheckedNanotime);
+            if (stallNanos >= RESYNC_TOLERANCE_NANOS) {
+                track.resync(stallNanos);
+                track.recoveryStallNanos += stallNanos;
+                track.recoveryCheckedNanotime = now;
+            } else if (stallNanos != Long.MIN_VALUE) {
+                // in time
+                recordUnderrunEvent(track, track.recoveryStallNanos, now);
+                return deadline;
+            } else if (now - track.recoveryStartNanotime > seq.getConfig().getInt(UNDERRUN_RESYNC_TIME_OUT_MILLIS) * (long) NANO_PER_MILLIS) {
+                recordUnderrunEvent(track, track.recoveryStallNanos > 0 ? track.recoveryStallNanos : -1, now);
+                return deadline;
+            }
+        }
+
+        return Math.min(deadline, now + seq.getConfig().getInt(TIMESTAMP_POLLING_DELAY_MILLIS) * (long) NANO_PER_MILLIS);
+    }
+    /*
+    -1 for stallNanos if no timestamp came to measure it
+     */
+    private void recordUnderrunEvent(PFSeqOutputTrack track, long stallNanos, long now) {
+        synchronized (underrunEvents) {
+            PFSeqUnderrunEvent event = underrunEvents[underrunEventCount % underrunEvents.length];
+            event.set(track.getName(), track.recoveryCause, track.recoveryUnderruns, track.recoveryStartNanotime, stallNanos, now - track.recoveryStartNanotime);
+            underrunEventCount++;
+        }
+        trace.record(PFSeqTrace.TYPE_RECOVERED, track.getTraceId(), 0, track.recoveryUnderruns, stallNanos);
+        track.recoveryStartNanotime = 0;
+        track.getMetrics().recoveries.incrementAndGet();
+        // anything seen late while recovering was the underrun catching up
+        track.takeShortfallCause();
+        seq.postToMainThread(underrunReporter);
+    }
+    /*
+    the deadline for the loop, given a track that's writing and needs its next block at neededNano.
+    if that's already passed, it waits for the write to finish instead
+     */
+    private long trackDeadline(PFSeqOutputTrack track, long neededNano, long now, long deadline) {
+        if (neededNano > now) {
+            return Math.min(deadline, neededNano);
+        }
+        waitingForWrite = true;
+        trace.record(PFSeqTrace.TYPE_WRITE_WAIT, track.getTraceId(), track.getTotalFramesWritten(), 0, now - neededNano);
+        if (!track.isWriteLocked()) {
+            // finished before it could see waitingForWrite
+            return now;
+        }
+        return deadline;
+    }
+    /*
+    parks the calling thread until deadlineNano, or until it's unparked. how late it wakes for a deadline
+    is the scheduler's lateness
+     */
+    void parkUntil(long deadlineNano) {
+        long parkNanos = deadlineNano - System.nanoTime();
+        if (parkNanos <= 0) {
+            return;
+        }
+        LockSupport.parkNanos(parkNanos);
+
+        metrics.schedulerWakeups.incrementAndGet();
+        long latenessNanos = System.nanoTime() - deadlineNano;
+        // negative if it was woken before the deadline
+        trace.record(PFSeqTrace.TYPE_WAKEUP, -1, 0, 0, latenessNanos);
+        if (latenessNanos >= 0) {
+            metrics.schedulerLateness.record(latenessNanos);
+        }
+    }
+    /*
+    called by output tracks after each write, on any thread
+     */
+    void writeFinished() {
+        Thread waiting = thread;
+        if (waitingForWrite && waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    /*
+    the soonest content frame a tempo change can take effect on. blocks up to renderedUntilFrame are rendered,
+    and the next may be rendering now
+     */
+    long firstUnrenderedFrame(long playingFrame) {
+        return Math.max(playingFrame, renderedUntilFrame + seq.getMixBlockFrames());
+    }
+    /*
+    the last MAX_UNDERRUN_EVENTS recoveries from underruns since reset, oldest first
+     */
+    ArrayList<PFSeqUnderrunEvent> getUnderrunEvents() {
+        ArrayList<PFSeqUnderrunEvent> events = new ArrayList<PFSeqUnderrunEvent>();
+        synchronized (underrunEvents) {
+            int first = Math.max(0, underrunEventCount - underrunEvents.length);
+            for (int i = first; i < underrunEventCount; i++) {
+                events.add(underrunEvents[i % underrunEvents.length].copy());
+            }
+        }
+        return events;
+    }
+    int getUnderrunEventCount() {
+        synchronized (underrunEvents) {
+            return underrunEventCount;
+        }
+    }
+    PFSeqWriteAhead getWriteAhead() {
+        return writeAhead;
+    }
+}
@@ -0,0 +1,242 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqUnits.NANO_PER_SECOND;
+
+/*
+a model of an AudioTrack, so the engine's timing can be run and measured without a device (see PFSeqOutputSink).
+written PCM goes into a buffer of bufferSizeFrames. once playing, a simulated mixer takes periodFrames from it
+each period, the way a device's mixer reads a burst at a time:
+
+    period        = periodFrames / (sample rate * drainRate)
+    burst k       is read at  play time + k * period  +  jitter, uniform in [-jitterNanos, jitterNanos]
+    timestamps    pair the first frame of the last burst read with its time without jitter
+
+drainRate other than 1 is a device clock that runs fast or slow against nanotime. jitter is a mixer thread
+that wakes early or late. bursts never drift, however late any one is.
+
+a burst that finds less than periodFrames buffered plays what's there and counts an underrun, once until a full
+burst is read again. while starved the frame position stands still, so the timestamps show the stall, as a
+real AudioTrack's do. nothing runs on its own: the buffer is drained whenever the sink is used, up to now.
+
+blocking writes wait for bursts to make room. before play() there are none, so they take what fits and return.
+the start listener is run by play(). timestamps come after the first burst is read.
+ */
+
+public class PFSeqSimulatedSink extends PFSeqOutputSink {
+    private int sampleRate;
+    private boolean floatOutput;
+    private int bufferSizeFrames;
+    private int periodFrames;
+    private double periodNanos;
+    private long jitterNanos;
+    private Random random;
+
+    // guarded by this
+    private int playState;
+    private long bufferedFrames;
+    private long framesWritten;
+    private long framesPlayed;
+    private long startNanotime;
+    private long bursts; // read since play
+    private long nextBurstNanotime;
+    private boolean hasTimestamp;
+    private long timestampFrame;
+    private long timestampNanotime;
+    private boolean starved;
+    private int underruns;
+
+    public static Factory factory(final int periodFrames, final double drainRate, final long jitterNanos, final long seed) {
+        return new Factory() {
+            private long made;
+
+            @Override
+            public synchronized PFSeqOutputSink make(int sampleRate, boolean floatOutput, int bufferSizeFrames) {
+                // each sink its own jitter, the same each run
+                return new PFSeqSimulatedSink(sampleRate, floatOutput, bufferSizeFrames, periodFrames, drainRate, jitterNanos, seed + made++);
+            }
+        };
+    }
+
+    public PFSeqSimulatedSink(int sampleRate, boolean floatOutput, int bufferSizeFrames, int periodFrames,
+                              double drainRate, long jitterNanos, long seed) {
+        this.sampleRate = sampleRate;
+        this.floatOutput = floatOutput;
+        this.bufferSizeFrames = bufferSizeFrames;
+        this.periodFrames = periodFrames;
+        // adjust to taste
+        this.periodNanos = periodFrames * NANO_PER_SECOND / (sampleRate * drainRate);
+        this.jitterNanos = Math.min(jitterNanos, (long) (periodNanos / 2)); // so bursts stay in order
+        this.random = new Random(seed);
+        this.playState = PLAYSTATE_STOPPED;
+    }
+
+    @Override
+    public int write(short[] pcm, int offsetShorts, int sizeShorts, boolean blocking) {
+        if (floatOutput) {
+            return ERROR_INVALID_OPERATION;
+        }
+        int writtenShorts = 0;
+        while (true) {
+            int frames = take((sizeShorts - writtenShorts) / 2);
+            if (frames > 0) {
+                if (!onWrite(pcm, offsetShorts + writtenShorts, frames * 2)) {
+                    return ERROR;
+                }
+                writtenShorts += frames * 2;
+            }
+            if (writtenShorts == sizeShorts || !blocking || !waitForRoom()) {
+                return writtenShorts;
+            }
+        }
+    }
+    @Override
+    public int write(float[] pcm, int offsetSamples, int sizeSamples, boolean blocking) {
+        if (!floatOutput) {
+            return ERROR_INVALID_OPERATION;
+        }
+        int writtenSamples = 0;
+        while (true) {
+            int frames = take((sizeSamples - writtenSamples) / 2);
+            if (frames > 0) {
+                if (!onWrite(pcm, offsetSamples + writtenSamples, frames * 2)) {
+                    return ERROR;
+                }
+                writtenSamples += frames * 2;
+            }
+            if (writtenSamples == sizeSamples || !blocking || !waitForRoom()) {
+                return writtenSamples;
+            }
+        }
+    }
+    /*
+    what was taken by write(), in order. false fails the write. PFSeqWavFileSink keeps it, others don't
+     */
+    protected boolean onWrite(short[] pcm, int offsetShorts, int sizeShorts) {
+        return true;
+    }
+    protected boolean onWrite(float[] pcm, int offsetSamples, int sizeSamples) {
+        return true;
+    }
+    @Override
+    public void play() {
+        synchronized (this) {
+            if (playState == PLAYSTATE_PLAYING) {
+                return;
+            }
+            playState = PLAYSTATE_PLAYING;
+            startNanotime = System.nanoTime();
+            bursts = 0;
+            nextBurstNanotime = startNanotime;
+        }
+        notifyStarted();
+    }
+    @Override
+    public synchronized void stop() {
+        playState = PLAYSTATE_STOPPED;
+        bufferedFrames = 0;
+        hasTimestamp = false;
+    }
+    @Override
+    public void release() {
+        stop();
+    }
+    @Override
+    public synchronized int getPlayState() {
+        return playState;
+    }
+    @Override
+    public synchronized boolean getTimestamp(Timestamp timestamp) {
+        drain(System.nanoTime());
+        if (!hasTimestamp) {
+            return false;
+        }
+        timestamp.framePosition = timestampFrame;
+        timestamp.nanoTime = timestampNanotime;
+        return true;
+    }
+    @Override
+    public synchronized int getUnderrunCount() {
+        drain(System.nanoTime());
+        return underruns;
+    }
+    @Override
+    public int getBufferSizeFrames() {
+        return bufferSizeFrames;
+    }
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    @Override
+    public synchronized long getFramesWritten() {
+        return framesWritten;
+    }
+    public synchronized long getFramesPlayed() {
+        drain(System.nanoTime());
+        return framesPlayed;
+    }
+    public synchronized long getBufferedFrames() {
+        drain(System.nanoTime());
+        return bufferedFrames;
+    }
+
+    /*
+    reads the bursts due by now
+     */
+    private void drain(long now) {
+        if (playState != PLAYSTATE_PLAYING) {
+            return;
+        }
+        while (nextBurstNanotime <= now) {
+            // adjust to taste
+            long burstNanotime = startNanotime + (long) (bursts * periodNanos);
+            int frames = (int) Math.min(periodFrames, bufferedFrames);
+            if (frames > 0) {
+                hasTimestamp = true;
+                timestampFrame = framesPlayed;
+                timestampNanotime = burstNanotime;
+                bufferedFrames -= frames;
+                framesPlayed += frames;
+            }
+            if (frames < periodFrames) {
+                if (!starved) {
+                    underruns++;
+                }
+                starved = true;
+            } else {
+                starved = false;
+            }
+
+            bursts++;
+            long jitter = jitterNanos == 0 ? 0 : (long) ((random.nextDouble() * 2 - 1) * jitterNanos);
+            nextBurstNanotime = startNanotime + (long) (bursts * periodNanos) + jitter;
+        }
+    }
+    private synchronized int take(int frames) {
+        drain(System.nanoTime());
+        int taken = (int) Math.min(frames, bufferSizeFrames - bufferedFrames);
+        bufferedFrames += taken;
+        framesWritten += taken;
+        return taken;
+    }
+    /*
+    parks until the next burst. false if there won't be one, because it's not playing
+     */
+    private boolean waitForRoom() {
+        long wakeNanotime;
+        synchronized (this) {
+            if (playState != PLAYSTATE_PLAYING) {
+                return false;
+            }
+            wakeNanotime = nextBurstNanotime;
+        }
+        long now;
+        while ((now = System.nanoTime()) < wakeNanotime) {
+            LockSupport.parkNanos(wakeNanotime - now);
+        }
+        return true;
+    }
+}
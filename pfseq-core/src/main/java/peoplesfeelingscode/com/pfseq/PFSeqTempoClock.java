@@ -0,0 +1,422 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.util.ArrayList;
+
+/*
+maps time to musical position (beats and ticks, see PFSeqUnits.TICKS_PER_BEAT) and back, through a tempo map.
+time is a long in frames of the output stream, counted from content start (see PFSeq.nanoToContentFrame).
+items land on exact frames, so there is no rounding through nanotime on the way to the AudioTrack.
+
+the tempo map starts at the tempo set with setBpm(). tempo changes can be scheduled at any tick, either
+straight to a new tempo or ramping to it over a number of beats. the map is compiled into segments:
+constant tempo, or a ramp. each segment starts at a tick and at a time in 64-bit fixed point, with
+FRACTION_BITS bits after the point, worked out once when the map changes. lookups find the segment with
+a binary search and work from its start, so nothing accumulates from one segment to the next.
+
+in a constant segment every lookup is a few long multiplications and divisions:
+
+    timeOfBeat(beats)  =  segment start  +  beats * timePerBeatFixed >> FRACTION_BITS
+
+positions within a beat are converted with WITHIN_BEAT_FRACTION_BITS of the fraction, which keeps the
+products below 2^63 as long as a beat is no longer than MAX_TIME_PER_BEAT frames (about 1 bpm at 44.1kHz).
+the error that causes is far below a frame and doesn't accumulate. times more than 2^31 frames
+(about 12 hours at 48kHz) after start are out of range.
+
+ramps change tempo smoothly over time, linearly or exponentially, and have closed forms both ways. with
+v0 and v1 the tempo in beats per frame at either end, and T the ramp's length in frames:
+
+    linear:       beats(t) = v0 t + a t^2 / 2                 a = (v1 - v0) / T      T = 2 beats / (v0 + v1)
+    exponential:  beats(t) = v0 (e^(k t) - 1) / k             k = ln(v1 / v0) / T    T = beats ln(v1 / v0) / (v1 - v0)
+
+these are in doubles, relative to the segment's start, so the error is far below a frame within a ramp
+and the ramp still ends on its fixed-point boundary.
+
+nothing is allocated by lookups. the map is published as a new snapshot when it changes, so the control
+thread can read it while the UI thread schedules changes.
+
+changing tempo while playing adds a change to the map each time. what's before the frame being heard is
+never looked up again, so the changes before it are folded into where the map starts (see fold()), and
+the map doesn't grow however often the tempo is changed.
+ */
+
+public class PFSeqTempoClock {
+    static final int FRACTION_BITS = 32;
+    static final int WITHIN_BEAT_FRACTION_BITS = 12;
+    static final long MAX_TIME_PER_BEAT = Long.MAX_VALUE / PFSeqUnits.TICKS_PER_BEAT >> WITHIN_BEAT_FRACTION_BITS;
+    static final double FIXED_ONE = 1L << FRACTION_BITS;
+
+    // tempo change curves
+    public static final int RAMP_NONE = 0; // straight to the new tempo
+    public static final int RAMP_LINEAR = 1;
+    public static final int RAMP_EXPONENTIAL = 2;
+
+    private long timePerMinute;
+    private double bpm; // last set with setBpm(). the map starts at this tempo when the clock is started
+    private long timePerBeatFixed; // at bpm
+    private double startBpm; // the tempo the map starts at
+    private long startTicks; // where the map starts. 0 unless changes before it have been folded
+    private long startTimeFixed; // since startTime
+    private long startTime;
+    private volatile boolean isStarted; // read without the lock by the UI thread, see PFSeq.scheduleTempoRamp()
+    private ArrayList<Change> changes; // sorted by ticks. only touched while synchronized
+    private volatile Segment[] segments; // compiled from startBpm and changes. sorted by startTicks and startTimeFixed
+
+    private static class Change {
+        long ticks;
+        double bpm;
+        int ramp; // one of the RAMP_ constants
+        long lengthTicks; // ramps only
+        boolean immediate; // from setBpm(bpm, now, heard), dropped when the clock is started again
+    }
+
+    private static class Segment {
+        long startTicks;
+        long startTimeFixed; // since startTime
+        double bpm; // at start
+        long timePerBeatFixed; // at bpm
+        long timePerBeatWithinBeat; // timePerBeatFixed with WITHIN_BEAT_FRACTION_BITS of the fraction
+        int ramp;
+        long lengthTicks; // ramps only
+        double lengthTime; // ramps only. frames
+        double startRate; // ramps only. beats per frame at start
+        double shape; // ramps only. a for linear, k for exponential, see above
+    }
+
+    PFSeqTempoClock(long timePerMinute, double bpm) {
+        this.timePerMinute = timePerMinute;
+        this.changes = new ArrayList<Change>();
+        setBpm(bpm);
+    }
+
+    /*
+    the time at which beat 0 starts. changes made with setBpm(bpm, now, heard) are dropped,
+    the last one is the starting tempo from now on. scheduled changes are kept
+     */
+    synchronized void start(long startTime) {
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            if (changes.get(i).immediate) {
+                changes.remove(i);
+            }
+        }
+        this.startTime = startTime;
+        this.startBpm = bpm;
+        this.startTicks = 0;
+        this.startTimeFixed = 0;
+        this.isStarted = true;
+        compile();
+    }
+    synchronized void stop() {
+        this.isStarted = false;
+    }
+
+    synchronized void setBpm(double bpm) {
+        this.bpm = bpm;
+        this.startBpm = bpm;
+        // adjust to taste
+        this.timePerBeatFixed = timePerBeatFixed(bpm);
+        compile();
+    }
+    /*
+    changes tempo at time now, keeping the musical position there. while started, that's a change in
+    the map at now's position, so what's already been worked out before now stays as it was.
+    scheduled changes after now still happen, on their beats. heard is the time being played, before now.
+    changes before it are folded into where the map starts
+     */
+    synchronized void setBpm(double bpm, long now, long heard) {
+        if (!isStarted) {
+            setBpm(bpm);
+            return;
+        }
+
+        Change change = new Change();
+        change.ticks = ticksSince(now);
+        change.bpm = bpm;
+        change.ramp = RAMP_NONE;
+        change.immediate = true;
+        this.bpm = bpm;
+        this.timePerBeatFixed = timePerBeatFixed(bpm);
+        fold(heard);
+        addChange(change);
+    }
+    /*
+    changes tempo to bpm at ticks since start, straight away or ramping over lengthTicks
+     */
+    synchronized void scheduleChange(long ticks, double bpm, int ramp, long lengthTicks) {
+        Change change = new Change();
+        change.ticks = ticks;
+        change.bpm = bpm;
+        change.ramp = lengthTicks > 0 ? ramp : RAMP_NONE;
+        change.lengthTicks = lengthTicks;
+        addChange(change);
+    }
+    /*
+    drops scheduled changes at or after ticks since start
+     */
+    synchronized void clearChanges(long fromTicks) {
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            if (changes.get(i).ticks >= fromTicks) {
+                changes.remove(i);
+            }
+        }
+        compile();
+    }
+    private void addChange(Change change) {
+        int i = changes.size();
+        // a later change at the same tick replaces the earlier one
+        while (i > 0 && changes.get(i - 1).ticks >= change.ticks) {
+            i--;
+        }
+        if (i < changes.size() && changes.get(i).ticks == change.ticks) {
+            changes.set(i, change);
+        } else {
+            changes.add(i, change);
+        }
+        compile();
+    }
+
+    /*
+    makes the last tempo change at or before time, if it was made with setBpm(bpm, now, heard), where the map
+    starts, and drops the changes before it. the map from there on is compiled the same as before, positions
+    before it are worked out at its tempo
+     */
+    private void fold(long time) {
+        long ticks = ticksSince(time);
+        int last = -1;
+        for (int i = 0; i < changes.size() && changes.get(i).ticks <= ticks; i++) {
+            if (changes.get(i).immediate) {
+                last = i;
+            }
+        }
+        if (last < 0) {
+            return;
+        }
+
+        Change change = changes.get(last);
+        Segment[] current = segments;
+        Segment segment = current[segmentAtTicks(current, change.ticks)];
+        startTicks = segment.startTicks;
+        startTimeFixed = segment.startTimeFixed;
+        startBpm = segment.bpm;
+        changes.subList(0, last + 1).clear();
+    }
+
+    /*
+    whole beats elapsed since start at time. rounds toward negative infinity
+     */
+    int beatsSince(long time) {
+        return (int) Math.floorDiv(ticksSince(time), PFSeqUnits.TICKS_PER_BEAT);
+    }
+    long timeOfBeat(long beats) {
+        return timeOfTicks(beats * PFSeqUnits.TICKS_PER_BEAT);
+    }
+    /*
+    ticks elapsed since start at time. rounds toward negative infinity
+     */
+    long ticksSince(long time) {
+        Segment[] current = segments;
+        long fixed = (time - startTime) << FRACTION_BITS;
+        Segment segment = current[segmentAtTime(current, fixed)];
+        long sinceSegmentFixed = fixed - segment.startTimeFixed;
+
+        if (segment.ramp == RAMP_NONE || sinceSegmentFixed < 0) {
+            long beats = Math.floorDiv(sinceSegmentFixed, segment.timePerBeatFixed);
+            long intoBeatFixed = sinceSegmentFixed - beats * segment.timePerBeatFixed;
+            long intoBeatTicks = (intoBeatFixed >> (FRACTION_BITS - WITHIN_BEAT_FRACTION_BITS)) * PFSeqUnits.TICKS_PER_BEAT / segment.timePerBeatWithinBeat;
+            return segment.startTicks + beats * PFSeqUnits.TICKS_PER_BEAT + Math.min(intoBeatTicks, PFSeqUnits.TICKS_PER_BEAT - 1);
+        }
+
+        double beats = rampBeats(segment, sinceSegmentFixed / FIXED_ONE);
+        long ticks = (long) Math.floor(beats * PFSeqUnits.TICKS_PER_BEAT);
+        return segment.startTicks + Math.max(0, Math.min(ticks, segment.lengthTicks - 1));
+    }
+    /*
+    rounds to the nearest frame. positions that fall exactly on a frame stay on it
+     */
+    long timeOfTicks(long ticksSinceStart) {
+        Segment[] current = segments;
+        long fixed = timeFixedOfTicks(current[segmentAtTicks(current, ticksSinceStart)], ticksSinceStart);
+        // fractions are added before rounding, so a position is rounded once
+        return startTime + ((fixed + (1L << (FRACTION_BITS - 1))) >> FRACTION_BITS);
+    }
+    /*
+    frames from fromTime until ticks later
+     */
+    long durationOfTicks(long fromTime, long ticks) {
+        return timeOfTicks(ticksSince(fromTime) + ticks) - fromTime;
+    }
+    /*
+    tempo at time
+     */
+    double bpmAt(long time) {
+        Segment[] current = segments;
+        long fixed = (time - startTime) << FRACTION_BITS;
+        Segment segment = current[segmentAtTime(current, fixed)];
+        double t = (fixed - segment.startTimeFixed) / FIXED_ONE;
+        if (segment.ramp == RAMP_NONE || t < 0) {
+            return segment.bpm;
+        }
+        double rate = segment.ramp == RAMP_LINEAR
+                ? segment.startRate + segment.shape * t
+                : segment.startRate * Math.exp(segment.shape * t);
+        return rate * timePerMinute;
+    }
+
+    /*
+    rebuilds the segments from startBpm and changes, and publishes them
+     */
+    private void compile() {
+        ArrayList<Segment> compiled = new ArrayList<Segment>();
+        compiled.add(constantSegment(startTicks, startTimeFixed, startBpm));
+
+        for (Change change : changes) {
+            // a change during a ramp cuts it short. a change at a tick the base tempo starts on replaces it,
+            // but the base is kept for positions before start
+            while (compiled.size() > 1 && compiled.get(compiled.size() - 1).startTicks >= change.ticks) {
+                compiled.remove(compiled.size() - 1);
+            }
+            Segment previous = compiled.get(compiled.size() - 1);
+            long startTimeFixed = timeFixedOfTicks(previous, change.ticks);
+            double fromBpm = bpmOfTicks(previous, change.ticks);
+
+            if (change.ramp == RAMP_NONE || fromBpm == change.bpm) {
+                compiled.add(constantSegment(change.ticks, startTimeFixed, change.bpm));
+                continue;
+            }
+
+            Segment ramp = new Segment();
+            ramp.startTicks = change.ticks;
+            ramp.startTimeFixed = startTimeFixed;
+            ramp.bpm = fromBpm;
+            ramp.timePerBeatFixed = timePerBeatFixed(fromBpm);
+            ramp.timePerBeatWithinBeat = ramp.timePerBeatFixed >> (FRACTION_BITS - WITHIN_BEAT_FRACTION_BITS);
+            ramp.ramp = change.ramp;
+            ramp.lengthTicks = change.lengthTicks;
+
+            // adjust to taste
+            double beats = change.lengthTicks / (double) PFSeqUnits.TICKS_PER_BEAT;
+            double v0 = fromBpm / timePerMinute;
+            double v1 = change.bpm / timePerMinute;
+            ramp.startRate = v0;
+            if (change.ramp == RAMP_LINEAR) {
+                ramp.lengthTime = 2 * beats / (v0 + v1);
+                ramp.shape = (v1 - v0) / ramp.lengthTime;
+            } else {
+                double logRatio = Math.log(v1 / v0);
+                ramp.lengthTime = beats * logRatio / (v1 - v0);
+                ramp.shape = logRatio / ramp.lengthTime;
+            }
+            compiled.add(ramp);
+
+            // the ramp ends on a fixed-point boundary, at the new tempo
+            long endTimeFixed = startTimeFixed + Math.round(ramp.lengthTime * FIXED_ONE);
+            compiled.add(constantSegment(change.ticks + change.lengthTicks, endTimeFixed, change.bpm));
+        }
+
+        segments = compiled.toArray(new Segment[compiled.size()]);
+    }
+    private Segment constantSegment(long startTicks, long startTimeFixed, double bpm) {
+        Segment segment = new Segment();
+        segment.startTicks = startTicks;
+        segment.startTimeFixed = startTimeFixed;
+        segment.bpm = bpm;
+        segment.timePerBeatFixed = timePerBeatFixed(bpm);
+        segment.timePerBeatWithinBeat = segment.timePerBeatFixed >> (FRACTION_BITS - WITHIN_BEAT_FRACTION_BITS);
+        segment.ramp = RAMP_NONE;
+        return segment;
+    }
+    private long timePerBeatFixed(double bpm) {
+        // adjust to taste
+        return Math.round(timePerMinute / bpm * FIXED_ONE);
+    }
+
+    /*
+    time since start of ticks since start, in fixed point. ticks must be in the segment,
+    or before it if it's the first
+     */
+    private static long timeFixedOfTicks(Segment segment, long ticks) {
+        long sinceSegmentTicks = ticks - segment.startTicks;
+        if (segment.ramp == RAMP_NONE || sinceSegmentTicks < 0) {
+            long beats = Math.floorDiv(sinceSegmentTicks, PFSeqUnits.TICKS_PER_BEAT);
+            long remainderTicks = sinceSegmentTicks - beats * PFSeqUnits.TICKS_PER_BEAT;
+            long remainderFixed = (remainderTicks * segment.timePerBeatWithinBeat / PFSeqUnits.TICKS_PER_BEAT) << (FRACTION_BITS - WITHIN_BEAT_FRACTION_BITS);
+            return segment.startTimeFixed + beats * segment.timePerBeatFixed + remainderFixed;
+        }
+
+        double t = rampTime(segment, sinceSegmentTicks / (double) PFSeqUnits.TICKS_PER_BEAT);
+        return segment.startTimeFixed + Math.round(t * FIXED_ONE);
+    }
+    private double bpmOfTicks(Segment segment, long ticks) {
+        if (segment.ramp == RAMP_NONE || ticks <= segment.startTicks) {
+            return segment.bpm;
+        }
+        double t = rampTime(segment, (ticks - segment.startTicks) / (double) PFSeqUnits.TICKS_PER_BEAT);
+        double rate = segment.ramp == RAMP_LINEAR
+                ? segment.startRate + segment.shape * t
+                : segment.startRate * Math.exp(segment.shape * t);
+        return rate * timePerMinute;
+    }
+    /*
+    beats into a ramp at t frames into it, and back
+     */
+    private static double rampBeats(Segment segment, double t) {
+        if (segment.ramp == RAMP_LINEAR) {
+            return segment.startRate * t + segment.shape * t * t / 2;
+        }
+        return segment.startRate * Math.expm1(segment.shape * t) / segment.shape;
+    }
+    private static double rampTime(Segment segment, double beats) {
+        if (segment.ramp == RAMP_LINEAR) {
+            // the root that doesn't cancel when a is small
+            double discriminant = Math.max(0, segment.startRate * segment.startRate + 2 * segment.shape * beats);
+            return 2 * beats / (segment.startRate + Math.sqrt(discriminant));
+        }
+        return Math.log1p(segment.shape * beats / segment.startRate) / segment.shape;
+    }
+
+    /*
+    index of the last segment that starts at or before, or 0
+     */
+    private static int segmentAtTicks(Segment[] segments, long ticks) {
+        int low = 1;
+        int high = segments.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segments[mid].startTicks <= ticks) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+    private static int segmentAtTime(Segment[] segments, long timeFixed) {
+        int low = 1;
+        int high = segments.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segments[mid].startTimeFixed <= timeFixed) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    // accessors
+    double getBpm() {
+        return bpm;
+    }
+    double getTimePerBeat() {
+        return timePerBeatFixed / FIXED_ONE;
+    }
+    long getStartTime() {
+        return startTime;
+    }
+    boolean isStarted() {
+        return isStarted;
+    }
+    int getChangeCount() {
+        return changes.size();
+    }
+}
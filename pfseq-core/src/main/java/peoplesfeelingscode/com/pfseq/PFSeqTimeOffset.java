@@ -112,6 +112,23 @@ public class PFSeqTimeOffset {
         }
     }
 
+    /*
+    get the time position within the beat in ticks (see PFSeqUnits.TICKS_PER_BEAT)
+     */
+    public long getPercentTicks() {
+        if (getMode() == PFSeqTimeOffset.MODE_PERCENT) {
+            return Math.round(percent * PFSeqUnits.TICKS_PER_BEAT);
+        } else {
+            long ticksPerDivision = PFSeqUnits.TICKS_PER_BEAT / getBinaryDivisions();
+            long theReturn = getBinaryPos() * ticksPerDivision;
+            if (isTriplet()) {
+                return theReturn + ticksPerDivision / 3 * getTripletPos();
+            } else {
+                return theReturn;
+            }
+        }
+    }
+
     public int getBinaryDivisions() {
         return binaryDivisions;
     }
@@ -0,0 +1,154 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+what the control and work threads do, as fixed size binary records in a ring, instead of logging strings from
+audio priority threads. the last TRACE_RECORDS records are kept. off (TRACE_RECORDS 0), record() just returns.
+
+each record is a type, a track (index into the output tracks, -1 for none), a frame position, a size and a
+value, with the nanotime it was recorded at. what the frame, size and value are depends on the type, see
+TYPE_NAMES. record() doesn't allocate or lock. threads claim slots with one atomic increment and the slot's
+sequence is set last, so a dump taken while recording skips records that were being overwritten. the record
+is kept in an AtomicLongArray too, written with lazySet() and read with get(), so its fields are ordered
+between the two reads of the sequence without fences (VarHandle fences need Java 9, the core targets 8).
+
+dump with PFSeq.dumpTrace(). read dumps with PFSeqTraceDecoder. file layout, big endian:
+
+    int magic, int version, int sample rate, int track count, the track names (DataOutput UTF),
+    int record count, then per record: long nanotime, int type, int track, long frame, int size, long value
+ */
+
+final class PFSeqTrace {
+    static final int MAGIC = 0x50465354; // "PFST"
+    static final int VERSION = 1;
+    private static final int LONGS_PER_RECORD = 4;
+
+    // types. frame, size and value of each are described in TYPE_NAMES
+    static final int TYPE_WAKEUP = 0;
+    static final int TYPE_BLOCK_RENDERED = 1;
+    static final int TYPE_WRITE_POSTED = 2;
+    static final int TYPE_WRITE_DONE = 3;
+    static final int TYPE_WRITE_WAIT = 4;
+    static final int TYPE_SILENCE_POSTED = 5;
+    static final int TYPE_SYNC_SILENCE_POSTED = 6;
+    static final int TYPE_UNDERRUN = 7;
+    static final int TYPE_RESYNC = 8;
+    static final int TYPE_WRITE_ERROR = 9;
+    static final int TYPE_NO_FREE_BLOCK = 10;
+    static final int TYPE_RECOVERED = 11;
+    static final String[][] TYPE_NAMES = {
+            // name, then what frame, size and value are. null if not used
+            {"wakeup", null, null, "late ns"},
+            {"block rendered", "content frame", "frames", "headroom ns"},
+            {"write posted", "stream frame", "frames", null},
+            {"write done", "stream frame", "frames", "latency ns"},
+            {"waiting on write", "stream frame", null, "overdue ns"},
+            {"silence posted", "stream frame", "frames", null},
+            {"sync silence posted", "stream frame", "frames", null},
+            {"underrun", null, "underruns", null},
+            {"resync", "content frames skipped", null, "stall ns"},
+            {"write error", "stream frame", null, "error"},
+            {"no free block", "stream frame", "frames", null},
+            {"recovered", null, "underruns", "stall ns"},
+    };
+
+    private final boolean enabled;
+    private final int mask;
+    private final AtomicLongArray records;
+    private final AtomicLongArray sequences; // index + 1 of the record in each slot, once it's written
+    private final AtomicLong next;
+
+    PFSeqTrace(int capacity) {
+        enabled = capacity > 0;
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        records = new AtomicLongArray(enabled ? size * LONGS_PER_RECORD : 0);
+        sequences = new AtomicLongArray(enabled ? size : 0);
+        next = new AtomicLong(0);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+    void record(int type, int track, long frame, int size, long value) {
+        if (!enabled) {
+            return;
+        }
+
+        long index = next.getAndIncrement();
+        int slot = (int) (index & mask);
+        int base = slot * LONGS_PER_RECORD;
+        sequences.set(slot, 0);
+        records.lazySet(base, System.nanoTime());
+        records.lazySet(base + 1, ((long) type << 48) | (((long) track & 0xffff) << 32) | (size & 0xffffffffL));
+        records.lazySet(base + 2, frame);
+        records.lazySet(base + 3, value);
+        sequences.lazySet(slot, index + 1);
+    }
+    void clear() {
+        for (int i = 0; i < sequences.length(); i++) {
+            sequences.set(i, 0);
+        }
+        next.set(0);
+    }
+
+    /*
+    writes the records in the ring, oldest first. allocates, don't call from the audio threads
+     */
+    void dump(File file, int sampleRate, String[] trackNames) throws IOException {
+        long end = next.get();
+        long start = Math.max(0, end - (mask + 1));
+        int capacity = (int) (end - start);
+        long[] copied = new long[capacity * LONGS_PER_RECORD];
+        int count = 0;
+        for (long index = start; index < end; index++) {
+            int slot = (int) (index & mask);
+            int base = slot * LONGS_PER_RECORD;
+            if (sequences.get(slot) != index + 1) {
+                continue;
+            }
+            for (int i = 0; i < LONGS_PER_RECORD; i++) {
+                copied[count * LONGS_PER_RECORD + i] = records.get(base + i);
+            }
+            if (sequences.get(slot) != index + 1) {
+                // overwritten while copying
+                continue;
+            }
+            count++;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sampleRate);
+            out.writeInt(trackNames.length);
+            for (String name : trackNames) {
+                out.writeUTF(name);
+            }
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                int base = i * LONGS_PER_RECORD;
+                long packed = copied[base + 1];
+                out.writeLong(copied[base]);
+                out.writeInt((int) (packed >>> 48));
+                out.writeInt((short) (packed >>> 32));
+                out.writeLong(copied[base + 2]);
+                out.writeInt((int) packed);
+                out.writeLong(copied[base + 3]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
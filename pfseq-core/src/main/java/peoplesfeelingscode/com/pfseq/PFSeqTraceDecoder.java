@@ -0,0 +1,86 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqUnits.NANO_PER_MILLIS;
+
+/*
+turns a trace dump (see PFSeq.dumpTrace() and PFSeqTrace) into a timeline, one line per record:
+
+    +   12.345 ms  mix            block rendered       content frame 1024  frames 1024  headroom ns 40012345
+
+times are from the first record. decode() returns the lines, write() writes them to a stream or writer of
+the caller's, say System.out or a log. nothing here needs a device, so dumps can be read off the phone too,
+from a test or jshell with pfseq-core on the classpath:
+
+    PFSeqTraceDecoder.write(new File("trace.bin"), System.out);
+ */
+
+public class PFSeqTraceDecoder {
+    private PFSeqTraceDecoder() {
+    }
+
+    public static ArrayList<String> decode(File file) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != PFSeqTrace.MAGIC || in.readInt() != PFSeqTrace.VERSION) {
+                throw new IOException("not a trace dump, or another version");
+            }
+            int sampleRate = in.readInt();
+            String[] trackNames = new String[in.readInt()];
+            for (int i = 0; i < trackNames.length; i++) {
+                trackNames[i] = in.readUTF();
+            }
+            int count = in.readInt();
+            lines.add("sample rate " + sampleRate + ", " + count + " records");
+
+            long firstNanotime = 0;
+            for (int i = 0; i < count; i++) {
+                long nanotime = in.readLong();
+                int type = in.readInt();
+                int track = in.readInt();
+                long frame = in.readLong();
+                int size = in.readInt();
+                long value = in.readLong();
+                if (i == 0) {
+                    firstNanotime = nanotime;
+                }
+                lines.add(line(nanotime - firstNanotime, type, track < 0 || track >= trackNames.length ? "-" : trackNames[track], frame, size, value));
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    /*
+    the timeline, a line at a time. out isn't flushed or closed
+     */
+    public static void write(File file, Appendable out) throws IOException {
+        for (String line : decode(file)) {
+            out.append(line).append('\n');
+        }
+    }
+
+    private static String line(long sinceFirstNanos, int type, String trackName, long frame, int size, long value) {
+        String[] names = type >= 0 && type < PFSeqTrace.TYPE_NAMES.length ? PFSeqTrace.TYPE_NAMES[type] : new String[]{"type " + type, "frame", "size", "value"};
+        StringBuilder line = new StringBuilder(String.format(Locale.US, "+%10.3f ms  %-14s %-20s", sinceFirstNanos / NANO_PER_MILLIS, trackName, names[0]));
+        if (names[1] != null) {
+            line.append(' ').append(names[1]).append(' ').append(frame).append(' ');
+        }
+        if (names[2] != null) {
+            line.append(' ').append(names[2]).append(' ').append(size).append(' ');
+        }
+        if (names[3] != null) {
+            line.append(' ').append(names[3]).append(' ').append(value);
+        }
+        return line.toString().trim();
+    }
+}
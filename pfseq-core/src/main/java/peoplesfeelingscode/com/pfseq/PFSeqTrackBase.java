@@ -0,0 +1,86 @@
+package peoplesfeelingscode.com.pfseq;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqLog.LOG_TAG;
+
+/*
+the part of a track the mixer plays from: its schedule, its voices and their metrics. PFSeqOutputTrack adds
+an output for the scheduler to write to, and PFSeqTrack the piano roll's items and clips, and a sink written on
+a work thread of its own.
+items are put on the schedule with getSchedule().update()
+ */
+
+public abstract class PFSeqTrackBase {
+    private PFSeqHost host;
+    private String name;
+    private PFSeqTrackSchedule schedule;
+    int maxVoices; // items that can play at once. 1 abridges each item at the next, see PFSeqMixer
+    private volatile int activeVoices; // voice metrics, only written by the mixer
+    private volatile int peakVoices;
+    private volatile long stolenVoices;
+    private PFSeqMetrics.Track metrics;
+    private int traceId = -1; // index in the seq's output tracks, for the trace
+
+    PFSeqTrackBase(PFSeqHost host, String name) {
+        this.host = host;
+        this.name = name;
+        this.maxVoices = 1;
+        this.metrics = new PFSeqMetrics.Track();
+        this.schedule = new PFSeqTrackSchedule(host);
+    }
+
+    boolean nextEventAfter(long frame, PFSeqTrackSchedule.Event event) {
+        // takes and gives content frames, and doesn't allocate
+
+        if (!host.isPlaying() && !host.isRenderingOffline()) {
+            PFSeqLog.d(LOG_TAG, "can't get next piano roll item after. not playing");
+            return false;
+        }
+
+        return schedule.findNext(frame, event);
+    }
+    void setActiveVoices(int count) {
+        activeVoices = count;
+        if (count > peakVoices) {
+            peakVoices = count;
+        }
+    }
+    void countStolenVoice() {
+        stolenVoices++;
+    }
+    void resetVoiceMetrics() {
+        activeVoices = 0;
+        peakVoices = 0;
+        stolenVoices = 0;
+    }
+
+    // accessors
+    public int getMaxVoices() {
+        return maxVoices;
+    }
+    public int getActiveVoices() {
+        return activeVoices;
+    }
+    public int getPeakVoices() {
+        // since play
+        return peakVoices;
+    }
+    public long getStolenVoices() {
+        // since play
+        return stolenVoices;
+    }
+    public String getName() {
+        return name;
+    }
+    PFSeqTrackSchedule getSchedule() {
+        return schedule;
+    }
+    int getTraceId() {
+        return traceId;
+    }
+    void setTraceId(int traceId) {
+        this.traceId = traceId;
+    }
+    PFSeqMetrics.Track getMetrics() {
+        return metrics;
+    }
+}
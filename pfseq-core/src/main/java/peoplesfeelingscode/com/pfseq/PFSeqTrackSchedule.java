@@ -0,0 +1,186 @@
+package peoplesfeelingscode.com.pfseq;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqUnits.TICKS_PER_BEAT;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.REPEATING;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TIME_SIG_UPPER;
+
+/*
+compiled piano roll of a track: the enabled items, sorted by their position in the bar.
+finding the next item after a given time is a binary search instead of a pass over the whole piano roll.
+
+positions are in ticks (fixed-point beats, see PFSeqUnits.TICKS_PER_BEAT), not frames,
+so changing the tempo doesn't invalidate anything. searches take and give content frames (see PFSeqTempoClock). in non-repeating mode positions are relative
+to tempo start instead of the bar.
+
+the schedule is updated item by item when items are added, enabled, disabled or moved.
+each update publishes a new sorted copy, so the control thread can search it while the UI edits it.
+ */
+
+public class PFSeqTrackSchedule {
+    private PFSeqHost seq;
+    private volatile Entries entries;
+
+    private static class Entries {
+        final long[] ticks;
+        final PFSeqScheduledItem[] items;
+
+        Entries(long[] ticks, PFSeqScheduledItem[] items) {
+            this.ticks = ticks;
+            this.items = items;
+        }
+    }
+
+    /*
+    result of a search. reuse one instead of allocating for every search
+     */
+    static class Event {
+        PFSeqScheduledItem item;
+        long frame;
+    }
+
+    PFSeqTrackSchedule(PFSeqHost seq) {
+        this.seq = seq;
+        this.entries = new Entries(new long[0], new PFSeqScheduledItem[0]);
+    }
+
+    /*
+    call whenever the item is added, or its enabled state, clip or time offset changes
+     */
+    synchronized void update(PFSeqScheduledItem item) {
+        Entries old = entries;
+        int oldIndex = indexOf(old, item);
+        boolean shouldBeScheduled = item.isEnabled() && item.getClip().isLoadedSuccessfully();
+
+        int size = old.items.length;
+        if (oldIndex >= 0) {
+            size--;
+        }
+        if (shouldBeScheduled) {
+            size++;
+        }
+        long[] ticks = new long[size];
+        PFSeqScheduledItem[] items = new PFSeqScheduledItem[size];
+
+        long itemTicks = shouldBeScheduled ? ticksOf(seq, item) : 0;
+        boolean inserted = !shouldBeScheduled;
+        int j = 0;
+        for (int i = 0; i < old.items.length; i++) {
+            if (i == oldIndex) {
+                continue;
+            }
+            if (!inserted && old.ticks[i] > itemTicks) {
+                ticks[j] = itemTicks;
+                items[j] = item;
+                j++;
+                inserted = true;
+            }
+            ticks[j] = old.ticks[i];
+            items[j] = old.items[i];
+            j++;
+        }
+        if (!inserted) {
+            ticks[j] = itemTicks;
+            items[j] = item;
+        }
+
+        entries = new Entries(ticks, items);
+    }
+
+    /*
+    finds the soonest item that starts after frame. returns false if there is none.
+     */
+    boolean findNext(long frame, Event event) {
+        Entries current = entries;
+        int size = current.items.length;
+        if (size == 0) {
+            return false;
+        }
+
+        PFSeqTempoClock clock = seq.getTempoClock();
+        long elapsedTicks = clock.ticksSince(frame);
+
+        if (seq.getConfig().getBool(REPEATING)) {
+            long barTicks = seq.getConfig().getInt(TIME_SIG_UPPER) * TICKS_PER_BEAT;
+            long bar = Math.floorDiv(elapsedTicks, barTicks);
+            int i = firstIndexAtOrAfter(current.ticks, elapsedTicks - bar * barTicks);
+
+            // usually the first candidate. more if it's not after frame due to rounding
+            for (int tries = 0; tries <= size; tries++) {
+                if (i == size) {
+                    i = 0;
+                    bar++;
+                }
+                long candidateFrame = clock.timeOfTicks(bar * barTicks + current.ticks[i]);
+                if (candidateFrame > frame) {
+                    event.item = current.items[i];
+                    event.frame = candidateFrame;
+                    return true;
+                }
+                i++;
+            }
+        } else {
+            for (int i = firstIndexAtOrAfter(current.ticks, elapsedTicks); i < size; i++) {
+                long candidateFrame = clock.timeOfTicks(current.ticks[i]);
+                if (candidateFrame > frame) {
+                    event.item = current.items[i];
+                    event.frame = candidateFrame;
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /*
+    the content frame item starts at next, at or after frame, whether or not it's on a schedule. in non-repeating
+    mode it starts once, which may be before frame. the tempo clock must be started
+     */
+    static long soonestFrameOf(PFSeqHost seq, PFSeqScheduledItem item, long frame) {
+        PFSeqTempoClock clock = seq.getTempoClock();
+        long ticks = ticksOf(seq, item);
+        if (seq.getConfig().getBool(REPEATING)) {
+            long barTicks = seq.getConfig().getInt(TIME_SIG_UPPER) * TICKS_PER_BEAT;
+            ticks += Math.floorDiv(clock.ticksSince(frame), barTicks) * barTicks;
+            if (clock.timeOfTicks(ticks) < frame) {
+                ticks += barTicks;
+            }
+        }
+        return clock.timeOfTicks(ticks);
+    }
+
+    int size() {
+        return entries.items.length;
+    }
+
+    private static long ticksOf(PFSeqHost seq, PFSeqScheduledItem item) {
+        PFSeqTimeOffset timeOffset = item.getTimeOffset();
+        long ticks = timeOffset.getBeats() * TICKS_PER_BEAT + timeOffset.getPercentTicks();
+        if (seq.getConfig().getBool(REPEATING)) {
+            long barTicks = seq.getConfig().getInt(TIME_SIG_UPPER) * TICKS_PER_BEAT;
+            ticks = ticks % barTicks;
+        }
+        return ticks;
+    }
+    private static int firstIndexAtOrAfter(long[] ticks, long position) {
+        int low = 0;
+        int high = ticks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ticks[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    private static int indexOf(Entries entries, PFSeqScheduledItem item) {
+        for (int i = 0; i < entries.items.length; i++) {
+            if (entries.items[i] == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
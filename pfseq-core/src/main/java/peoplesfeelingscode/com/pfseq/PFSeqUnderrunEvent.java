@@ -0,0 +1,69 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+one recovery from an underrun of a track's AudioTrack (see PFSeq.getUnderrunEvents()).
+an AudioTrack stops while it has nothing to play, so once it plays again it's behind the musical timeline by
+however long it stalled. the track's frame clock is moved on by that much, which skips that much content, so
+it's in time again. the stall is measured from AudioTimestamps, so it's -1 if none came in time.
+ */
+
+public class PFSeqUnderrunEvent {
+    public static final int CAUSE_DEVICE = 0; // nothing was late. the platform stalled, or something outside PFSeq held things up
+    public static final int CAUSE_CONTROL_THREAD = 1; // a block was rendered after the audio before it had run out
+    public static final int CAUSE_WRITE = 2; // a write to the AudioTrack was still going when the audio before it ran out
+
+    private String trackName;
+    private int cause;
+    private int underruns; // counted by the AudioTrack during the recovery
+    private long detectedNanotime;
+    private long stallNanos;
+    private long recoveryNanos; // from the underrun being noticed to being in time again
+
+    PFSeqUnderrunEvent() {
+    }
+
+    void set(String trackName, int cause, int underruns, long detectedNanotime, long stallNanos, long recoveryNanos) {
+        this.trackName = trackName;
+        this.cause = cause;
+        this.underruns = underruns;
+        this.detectedNanotime = detectedNanotime;
+        this.stallNanos = stallNanos;
+        this.recoveryNanos = recoveryNanos;
+    }
+    PFSeqUnderrunEvent copy() {
+        PFSeqUnderrunEvent event = new PFSeqUnderrunEvent();
+        event.set(trackName, cause, underruns, detectedNanotime, stallNanos, recoveryNanos);
+        return event;
+    }
+
+    public String getTrackName() {
+        return trackName;
+    }
+    public int getCause() {
+        return cause;
+    }
+    public String getCauseString() {
+        switch (cause) {
+            case CAUSE_CONTROL_THREAD:  return "control thread late";
+            case CAUSE_WRITE:           return "write late";
+            default:                    return "device";
+        }
+    }
+    public int getUnderruns() {
+        return underruns;
+    }
+    public long getDetectedNanotime() {
+        return detectedNanotime;
+    }
+    public long getStallNanos() {
+        return stallNanos;
+    }
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+    @Override
+    public String toString() {
+        return "track " + trackName + " - " + getCauseString() + ", " + underruns + " underruns, stalled "
+                + (stallNanos < 0 ? "?" : stallNanos / (long) PFSeqUnits.NANO_PER_MILLIS + " ms") + ", recovered in " + recoveryNanos / (long) PFSeqUnits.NANO_PER_MILLIS + " ms";
+    }
+}
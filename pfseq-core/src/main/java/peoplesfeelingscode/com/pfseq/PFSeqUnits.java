@@ -0,0 +1,19 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+units the core counts time in. PFSeq has the same constants, as it always had, for the android side
+ */
+
+final class PFSeqUnits {
+    static final double NANO_PER_SECOND = 1000000000.0;
+    static final double NANO_PER_MILLIS = 1000000;
+    static final double NANO_PER_MICROS = 1000.0;
+    static final double MICROS_PER_SECOND = 1000000.0;
+    static final double MILLIS_PER_SECOND = 1000.0;
+    static final long SECONDS_PER_MINUTE = 60;
+    // resolution of piano roll positions. divisible by 3 and by binary divisions up to 2^28, so those are exact
+    static final long TICKS_PER_BEAT = 3L << 28;
+
+    private PFSeqUnits() {
+    }
+}
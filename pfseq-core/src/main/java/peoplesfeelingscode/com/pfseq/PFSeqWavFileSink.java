@@ -0,0 +1,119 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/*
+drains in real time like PFSeqNullSink, and keeps everything written in a WAV file, 16 bit PCM or 32 bit float:
+what an AudioTrack would have been given, silence and all. the header's lengths are filled in by release(),
+which tracks call after each stop. until then the file says it's empty.
+
+if the file can't be written, writes fail (ERROR), and the track logs them.
+ */
+
+public class PFSeqWavFileSink extends PFSeqSimulatedSink {
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private ByteBuffer bytes; // only used by the track's work thread
+    private boolean floatOutput;
+    private long framesInFile;
+
+    /*
+    sinks write to dir, to pfseq_0.wav, pfseq_1.wav and so on, in the order they're made
+     */
+    public static Factory factory(final File dir) {
+        return new Factory() {
+            private int made;
+
+            @Override
+            public synchronized PFSeqOutputSink make(int sampleRate, boolean floatOutput, int bufferSizeFrames) {
+                return new PFSeqWavFileSink(new File(dir, "pfseq_" + made++ + ".wav"), sampleRate, floatOutput, bufferSizeFrames);
+            }
+        };
+    }
+
+    public PFSeqWavFileSink(File file, int sampleRate, boolean floatOutput, int bufferSizeFrames) {
+        super(sampleRate, floatOutput, bufferSizeFrames, PFSeqNullSink.PERIOD_FRAMES, 1, 0, 0);
+        this.file = file;
+        this.floatOutput = floatOutput;
+        this.bytes = ByteBuffer.allocate(bufferSizeFrames * 2 * (floatOutput ? 4 : 2)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            channel = raf.getChannel();
+            writeFully(PFSeqOfflineRenderer.wavHeader(floatOutput, sampleRate, 0));
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    @Override
+    protected boolean onWrite(short[] pcm, int offsetShorts, int sizeShorts) {
+        if (channel == null) {
+            return false;
+        }
+        bytes.clear();
+        bytes.asShortBuffer().put(pcm, offsetShorts, sizeShorts);
+        bytes.limit(sizeShorts * 2);
+        return append(sizeShorts / 2);
+    }
+    @Override
+    protected boolean onWrite(float[] pcm, int offsetSamples, int sizeSamples) {
+        if (channel == null) {
+            return false;
+        }
+        bytes.clear();
+        bytes.asFloatBuffer().put(pcm, offsetSamples, sizeSamples);
+        bytes.limit(sizeSamples * 4);
+        return append(sizeSamples / 2);
+    }
+    @Override
+    public void release() {
+        super.release();
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.position(0);
+            writeFully(PFSeqOfflineRenderer.wavHeader(floatOutput, getSampleRate(), framesInFile));
+        } catch (IOException e) {
+            // the PCM is there, only the header's lengths are wrong
+        }
+        close();
+    }
+    public File getFile() {
+        return file;
+    }
+
+    private boolean append(long frames) {
+        try {
+            writeFully(bytes);
+        } catch (IOException e) {
+            close();
+            return false;
+        }
+        framesInFile += frames;
+        return true;
+    }
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+    private void close() {
+        try {
+            if (raf != null) {
+                raf.close();
+            }
+        } catch (IOException e) {
+            // nothing more to do with it
+        }
+        raf = null;
+        channel = null;
+    }
+}
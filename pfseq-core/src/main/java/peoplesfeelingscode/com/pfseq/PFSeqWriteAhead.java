@@ -0,0 +1,129 @@
+package peoplesfeelingscode.com.pfseq;
+
+/*
+how far ahead of playback the control thread keeps the output written, and so how long an edit takes to be heard.
+
+fixed at MIN_MILLIS_AHEAD_TO_WRITE unless ADAPTIVE_WRITE_AHEAD is true. then it starts there (the ceiling) and
+is worked out from what's observed while playing. a block is due when the audio written before it is down to
+the write-ahead, and is reported when it's rendered. how late it was comes from the control thread waking late
+or waiting on a write. blocks that are only due because the write-ahead just grew count from when it grew.
+the write-ahead is kept at SAFETY_FACTOR times the worst lateness seen, plus a block, and never below the
+floor (WRITE_AHEAD_FLOOR_MILLIS).
+
+it grows at once, by at least GROW_FACTOR, when a block is later than that allows, and jumps to the ceiling
+on an underrun. it shrinks by SHRINK_FACTOR at most, and only after HEALTHY_NANOS without changing, judged on
+the worst lateness of the last two windows. so a spike is remembered for a while and it doesn't hunt.
+an underrun also raises the floor to twice the write-ahead it happened at, so it isn't shrunk back into it.
+
+only used by the control thread, apart from getWriteAheadNanos() and the counts.
+ */
+
+final class PFSeqWriteAhead {
+    // adjust to taste
+    static final double SAFETY_FACTOR = 2.0; // write-ahead kept at this many times the worst lateness
+    static final double GROW_FACTOR = 2.0; // least it grows by, when it grows
+    static final double SHRINK_FACTOR = 0.8; // most it shrinks by, each HEALTHY_NANOS
+    static final long HEALTHY_NANOS = 2000000000L;
+
+    private final boolean adaptive;
+    private final long ceilingNanos;
+    private final long configuredFloorNanos;
+    private final long blockNanos;
+
+    private volatile long writeAheadNanos;
+    private long floorNanos; // raised by underruns
+    private long changedNanos; // when writeAheadNanos last changed
+    private long windowStartNanos;
+    private long windowWorstLatenessNanos;
+    private long previousWindowWorstLatenessNanos;
+    private volatile long grows;
+    private volatile long shrinks;
+
+    PFSeqWriteAhead(boolean adaptive, long floorNanos, long ceilingNanos, long blockNanos) {
+        this.adaptive = adaptive;
+        this.ceilingNanos = ceilingNanos;
+        this.configuredFloorNanos = Math.min(floorNanos, ceilingNanos);
+        this.blockNanos = blockNanos;
+        reset(0);
+    }
+
+    /*
+    back to the ceiling, for play. what was learned about the device is forgotten
+     */
+    void reset(long now) {
+        writeAheadNanos = ceilingNanos;
+        floorNanos = configuredFloorNanos;
+        changedNanos = now;
+        windowStartNanos = now;
+        windowWorstLatenessNanos = 0;
+        previousWindowWorstLatenessNanos = 0;
+        grows = 0;
+        shrinks = 0;
+    }
+
+    /*
+    called when a block is rendered. writtenUntilNanos is when the audio written to the track before it runs out
+     */
+    void observe(long now, long writtenUntilNanos) {
+        if (!adaptive) {
+            return;
+        }
+
+        long latenessNanos = now - Math.max(writtenUntilNanos - writeAheadNanos, changedNanos);
+        if (latenessNanos > windowWorstLatenessNanos) {
+            windowWorstLatenessNanos = latenessNanos;
+        }
+
+        long neededNanos = neededNanos(Math.max(windowWorstLatenessNanos, previousWindowWorstLatenessNanos));
+        if (neededNanos > writeAheadNanos) {
+            // grow quickly
+            writeAheadNanos = Math.min(ceilingNanos, Math.max(neededNanos, (long) (writeAheadNanos * GROW_FACTOR)));
+            grows++;
+            changedNanos = now;
+            startWindow(now);
+            return;
+        }
+
+        if (now - windowStartNanos >= HEALTHY_NANOS) {
+            // shrink slowly
+            long shrunkNanos = Math.max(neededNanos, (long) (writeAheadNanos * SHRINK_FACTOR));
+            if (shrunkNanos < writeAheadNanos) {
+                writeAheadNanos = shrunkNanos;
+                shrinks++;
+                changedNanos = now;
+            }
+            startWindow(now);
+        }
+    }
+    void underrun(long now) {
+        if (!adaptive) {
+            return;
+        }
+
+        floorNanos = Math.min(ceilingNanos, Math.max(floorNanos, writeAheadNanos * 2));
+        writeAheadNanos = ceilingNanos;
+        grows++;
+        changedNanos = now;
+        startWindow(now);
+    }
+
+    private long neededNanos(long worstLatenessNanos) {
+        long neededNanos = (long) (worstLatenessNanos * SAFETY_FACTOR) + blockNanos;
+        return Math.min(ceilingNanos, Math.max(floorNanos, neededNanos));
+    }
+    private void startWindow(long now) {
+        previousWindowWorstLatenessNanos = windowWorstLatenessNanos;
+        windowWorstLatenessNanos = 0;
+        windowStartNanos = now;
+    }
+
+    long getWriteAheadNanos() {
+        return writeAheadNanos;
+    }
+    long getGrows() {
+        return grows;
+    }
+    long getShrinks() {
+        return shrinks;
+    }
+}
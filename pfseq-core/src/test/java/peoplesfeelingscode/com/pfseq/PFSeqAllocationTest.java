@@ -0,0 +1,75 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestClip;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestItem;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestTrack;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+renders blocks the way the content thread does and measures what this thread allocates while it does, after
+warm-up. needs a JVM with com.sun.management (HotSpot, OpenJDK). skipped on others
+ */
+public class PFSeqAllocationTest {
+    private static final int WARM_UP_BLOCKS = 20000;
+    private static final int MEASURED_BLOCKS = 1000;
+
+    @Test
+    public void renderSegments_doesNotAllocate() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        addItems(track);
+
+        assertEquals(0, allocatedWhileRendering(host));
+    }
+
+    @Test
+    public void mixBlock_doesNotAllocate() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        track.maxVoices = 2;
+        addItems(track);
+        addItems(host.addTrack());
+
+        assertEquals(0, allocatedWhileRendering(host));
+    }
+
+    private static void addItems(TestTrack track) {
+        // long enough to overlap, with a velocity below 1 so they're processed and not just segments
+        for (int beat = 0; beat < 4; beat++) {
+            track.add(new TestItem(new TestClip(1000, 30000), beat, 0.5));
+        }
+    }
+
+    private static long allocatedWhileRendering(PFSeqTestHost host) {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        host.tempoClock.start(0);
+        PFSeqMixer mixer = new PFSeqMixer(host, host.getTracks());
+        mixer.reset();
+        int blockFrames = host.getMixBlockFrames();
+        PFSeqBlock block = new PFSeqBlock(blockFrames, new short[blockFrames * 2], false);
+
+        long frame = 0;
+        for (int i = 0; i < WARM_UP_BLOCKS; i++, frame += blockFrames) {
+            block.segmentCount = 0;
+            mixer.renderBlock(block, frame);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_BLOCKS; i++, frame += blockFrames) {
+            block.segmentCount = 0;
+            mixer.renderBlock(block, frame);
+        }
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+}
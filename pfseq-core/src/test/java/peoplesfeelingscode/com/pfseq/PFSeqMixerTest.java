@@ -0,0 +1,88 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestClip;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestItem;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestTrack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+renders piano rolls through the schedule, mixer and offline renderer on a plain JVM host (see PFSeqTestHost),
+and checks where items land and how overlapping items are abridged or mixed
+ */
+public class PFSeqMixerTest {
+    private static final int BEAT_FRAMES = 22050;
+
+    @Test
+    public void items_landOnTheirBeats() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        for (int beat = 0; beat < 4; beat++) {
+            track.add(new TestItem(new TestClip(1000, 100), beat));
+        }
+
+        short[] pcm = new PFSeqOfflineRenderer(host).renderPcm(2);
+        assertNotNull(pcm);
+        assertEquals(2 * 4 * BEAT_FRAMES * 2, pcm.length);
+        for (int beat = 0; beat < 8; beat++) {
+            int onset = beat * BEAT_FRAMES;
+            if (beat > 0) {
+                assertEquals(0, left(pcm, onset - 1));
+            }
+            assertEquals(1000, left(pcm, onset));
+            assertEquals(1000, left(pcm, onset + 99));
+            assertEquals(0, left(pcm, onset + 100));
+        }
+        assertTrue(!host.isRenderingOffline());
+    }
+
+    @Test
+    public void oneVoice_isAbridgedByTheNextItem() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        track.add(new TestItem(new TestClip(1000, 3 * BEAT_FRAMES), 0));
+        track.add(new TestItem(new TestClip(500, 100), 1));
+
+        short[] pcm = new PFSeqOfflineRenderer(host).renderPcm(1);
+        assertNotNull(pcm);
+        // faded out by the time the next item starts, which plays alone
+        assertTrue(left(pcm, BEAT_FRAMES - 1) < 10);
+        assertEquals(500, left(pcm, BEAT_FRAMES + 10));
+        assertEquals(0, left(pcm, 2 * BEAT_FRAMES));
+    }
+
+    @Test
+    public void moreVoices_ringTogether() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        track.maxVoices = 2;
+        track.add(new TestItem(new TestClip(1000, 3 * BEAT_FRAMES), 0));
+        track.add(new TestItem(new TestClip(500, 100), 1));
+
+        short[] pcm = new PFSeqOfflineRenderer(host).renderPcm(1);
+        assertNotNull(pcm);
+        // mixed, so within the dither
+        assertEquals(1000, left(pcm, BEAT_FRAMES - 1), 1);
+        assertEquals(1500, left(pcm, BEAT_FRAMES + 10), 1);
+        assertEquals(1000, left(pcm, 2 * BEAT_FRAMES), 1);
+        assertEquals(0, left(pcm, 3 * BEAT_FRAMES + 10), 1);
+        assertEquals(2, track.getPeakVoices());
+    }
+
+    @Test
+    public void render_doesNotStartWhilePlaying() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        host.addTrack().add(new TestItem(new TestClip(1000, 100), 0));
+        host.playing = true;
+
+        assertEquals(null, new PFSeqOfflineRenderer(host).renderPcm(1));
+    }
+
+    private static int left(short[] pcm, int frame) {
+        return pcm[frame * 2];
+    }
+}
@@ -0,0 +1,118 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestClip;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestItem;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestTrack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+renders through tempo changes and ramps scheduled on the host's tempo clock, and checks items land on the frames
+the tempo map puts their beats at. and that WAV files have the header wavHeader() makes and the samples renderPcm()
+renders
+ */
+public class PFSeqOfflineRendererTest {
+    private static final int BEAT_FRAMES = 22050; // at 120 bpm
+
+    @Test
+    public void tempoChange_movesOnsets() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        addItems(host.addTrack());
+        // beats 0 to 2 at 120, from beat 2 at 60
+        host.tempoClock.scheduleChange(2 * PFSeqUnits.TICKS_PER_BEAT, 60, PFSeqTempoClock.RAMP_NONE, 0);
+
+        short[] pcm = new PFSeqOfflineRenderer(host).renderPcm(1);
+        assertNotNull(pcm);
+        assertEquals((2 * BEAT_FRAMES + 2 * 2 * BEAT_FRAMES) * 2, pcm.length);
+        assertOnset(pcm, 0);
+        assertOnset(pcm, BEAT_FRAMES);
+        assertOnset(pcm, 2 * BEAT_FRAMES);
+        assertOnset(pcm, 2 * BEAT_FRAMES + 2 * BEAT_FRAMES);
+    }
+
+    @Test
+    public void linearRamp_movesOnsets() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        addItems(host.addTrack());
+        // from beat 1, 120 down to 60 over 2 beats: T = 2 beats / (v0 + v1), 58800 frames at 44.1kHz
+        host.tempoClock.scheduleChange(PFSeqUnits.TICKS_PER_BEAT, 60, PFSeqTempoClock.RAMP_LINEAR, 2 * PFSeqUnits.TICKS_PER_BEAT);
+        int rampFrames = 58800;
+
+        short[] pcm = new PFSeqOfflineRenderer(host).renderPcm(1);
+        assertNotNull(pcm);
+        assertEquals((BEAT_FRAMES + rampFrames + 2 * BEAT_FRAMES) * 2, pcm.length);
+        assertOnset(pcm, 0);
+        assertOnset(pcm, BEAT_FRAMES);
+        // halfway in beats is before halfway in time, as the first beat is the faster one. beats(t) = v0 t + a t^2 / 2 = 1
+        double v0 = 120.0 / (44100 * 60);
+        double a = (60.0 - 120.0) / (44100 * 60) / rampFrames;
+        int intoRamp = (int) Math.round((-v0 + Math.sqrt(v0 * v0 + 2 * a)) / a);
+        assertTrue(intoRamp < rampFrames / 2);
+        assertOnset(pcm, BEAT_FRAMES + intoRamp);
+        assertOnset(pcm, BEAT_FRAMES + rampFrames);
+    }
+
+    @Test
+    public void renderToWav_writesHeaderAndSamples() throws IOException {
+        PFSeqTestHost host = new PFSeqTestHost();
+        addItems(host.addTrack());
+        host.tempoClock.scheduleChange(2 * PFSeqUnits.TICKS_PER_BEAT, 90, PFSeqTempoClock.RAMP_NONE, 0);
+        PFSeqOfflineRenderer renderer = new PFSeqOfflineRenderer(host);
+        short[] pcm = renderer.renderPcm(2);
+        assertNotNull(pcm);
+
+        File file = File.createTempFile("pfseq", ".wav");
+        try {
+            assertTrue(renderer.renderToWav(2, file));
+            assertEquals(pcm.length / 2, renderer.getLastRenderFrames());
+
+            byte[] bytes = readAll(file);
+            ByteBuffer expectedHeader = PFSeqOfflineRenderer.wavHeader(false, host.getSampleRate(), pcm.length / 2);
+            int headerBytes = expectedHeader.remaining();
+            assertEquals(headerBytes + pcm.length * 2, bytes.length);
+            ByteBuffer wav = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < headerBytes; i++) {
+                assertEquals(expectedHeader.get(i), wav.get(i));
+            }
+            // the sizes in the header match the file
+            assertEquals(bytes.length - 8, wav.getInt(4));
+            assertEquals(pcm.length * 2, wav.getInt(headerBytes - 4));
+
+            wav.position(headerBytes);
+            for (int i = 0; i < pcm.length; i++) {
+                assertEquals(pcm[i], wav.getShort());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void addItems(TestTrack track) {
+        for (int beat = 0; beat < 4; beat++) {
+            track.add(new TestItem(new TestClip(1000, 100), beat));
+        }
+    }
+    private static void assertOnset(short[] pcm, int frame) {
+        if (frame > 0) {
+            assertEquals("before " + frame, 0, pcm[(frame - 1) * 2]);
+        }
+        assertEquals("at " + frame, 1000, pcm[frame * 2]);
+    }
+    private static byte[] readAll(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        }
+    }
+}
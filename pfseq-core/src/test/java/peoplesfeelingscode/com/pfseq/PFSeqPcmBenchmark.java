@@ -0,0 +1,122 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.util.Arrays;
+
+/*
+times a block mixed the old way (int sums clipped to 16 bit, as PFSeqMixer.mixBlock did) against the wider
+mix bus converted to dithered 16 bit and to PCM_FLOAT, and a float bus for reference. then the conversion to
+16 bit on its own, with and without dither. PFSeqPcmTest checks the kernels. not a test, run it with the
+benchmark task (see pfseq-core/build.gradle)
+ */
+public class PFSeqPcmBenchmark {
+    private static final int BLOCK_FRAMES = 1024;
+    private static final int VOICES = 8;
+    private static final int BLOCKS = 20000;
+    private static final int ROUNDS = 5; // the best is printed, the first warms up
+    private static final int GAIN = (int) (0.8 * PFSeqMixer.UNITY_GAIN);
+
+    private static short[][] clips;
+    private static int[] bus;
+    private static float[] floatBus;
+    private static short[] shortOut;
+    private static float[] floatOut;
+    private static long sink;
+
+    public static void main(String[] args) {
+        clips = new short[VOICES][];
+        for (int v = 0; v < VOICES; v++) {
+            clips[v] = new short[BLOCK_FRAMES * 2];
+            for (int i = 0; i < clips[v].length; i++) {
+                clips[v][i] = (short) ((i * 31 + v * 977) % 20000 - 10000);
+            }
+        }
+        bus = new int[BLOCK_FRAMES * 2];
+        floatBus = new float[BLOCK_FRAMES * 2];
+        shortOut = new short[BLOCK_FRAMES * 2];
+        floatOut = new float[BLOCK_FRAMES * 2];
+
+        long[] best = new long[6];
+        Arrays.fill(best, Long.MAX_VALUE);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int kind = 0; kind < best.length; kind++) {
+                best[kind] = Math.min(best[kind], time(kind));
+            }
+        }
+
+        System.out.println(VOICES + " voices, " + BLOCK_FRAMES + " frames per block");
+        System.out.println("old bus, clipped 16 bit out: " + best[0] + " ns per block");
+        System.out.println("PFSeqPcm bus, dithered 16 bit out: " + best[1] + " ns per block");
+        System.out.println("PFSeqPcm bus, PCM_FLOAT out: " + best[2] + " ns per block");
+        System.out.println("float bus, PCM_FLOAT out: " + best[3] + " ns per block");
+        System.out.println("toShortOutput() with dither: " + best[4] + " ns per block");
+        System.out.println("toShortOutput() without dither: " + best[5] + " ns per block");
+        System.out.println("(" + sink + ")");
+    }
+
+    private static long time(int kind) {
+        int seed = 1;
+        long start = System.nanoTime();
+        for (int b = 0; b < BLOCKS; b++) {
+            switch (kind) {
+                case 0:
+                    oldMixBlock();
+                    break;
+                case 1:
+                    mixBus();
+                    seed = PFSeqPcm.toShortOutput(bus, shortOut, bus.length, true, seed);
+                    break;
+                case 2:
+                    mixBus();
+                    PFSeqPcm.toFloatOutput(bus, floatOut, bus.length);
+                    break;
+                case 3:
+                    floatBusMixBlock();
+                    break;
+                case 4:
+                    seed = PFSeqPcm.toShortOutput(bus, shortOut, bus.length, true, seed);
+                    break;
+                default:
+                    PFSeqPcm.toShortOutput(bus, shortOut, bus.length, false, seed);
+                    break;
+            }
+            sink += shortOut[17] + (long) floatOut[17];
+        }
+        return (System.nanoTime() - start) / BLOCKS;
+    }
+
+    private static void oldMixBlock() {
+        Arrays.fill(bus, 0);
+        for (short[] clip : clips) {
+            for (int i = 0; i < bus.length; i++) {
+                bus[i] += (clip[i] * GAIN) >> PFSeqMixer.GAIN_BITS;
+            }
+        }
+        int sample;
+        for (int i = 0; i < bus.length; i++) {
+            sample = bus[i];
+            if (sample > Short.MAX_VALUE) {
+                sample = Short.MAX_VALUE;
+            } else if (sample < Short.MIN_VALUE) {
+                sample = Short.MIN_VALUE;
+            }
+            shortOut[i] = (short) sample;
+        }
+    }
+    private static void mixBus() {
+        Arrays.fill(bus, 0);
+        for (short[] clip : clips) {
+            PFSeqPcm.mix(clip, 0, bus, 0, bus.length, GAIN);
+        }
+    }
+    private static void floatBusMixBlock() {
+        Arrays.fill(floatBus, 0f);
+        for (short[] clip : clips) {
+            for (int i = 0; i < floatBus.length; i++) {
+                floatBus[i] += clip[i] * 0.8f;
+            }
+        }
+        for (int i = 0; i < floatBus.length; i++) {
+            floatOut[i] = floatBus[i] * (1f / 32768f);
+        }
+    }
+}
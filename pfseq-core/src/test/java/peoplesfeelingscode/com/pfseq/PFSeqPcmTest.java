@@ -0,0 +1,140 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static peoplesfeelingscode.com.pfseq.PFSeqPcm.ENCODING_PCM_24BIT_PACKED;
+import static peoplesfeelingscode.com.pfseq.PFSeqPcm.ENCODING_PCM_32BIT;
+import static peoplesfeelingscode.com.pfseq.PFSeqPcm.ENCODING_PCM_FLOAT;
+
+/*
+checks the PFSeqPcm kernels. how fast they are is PFSeqPcmBenchmark's
+ */
+public class PFSeqPcmTest {
+    @Test
+    public void toShortOutput_roundsAndClips() {
+        float[] samples = {0.4f, 0.6f, -0.4f, -0.6f, 40000f, -40000f, 1234f, -1234f};
+        int[] bus = toBus(samples);
+        short[] out = new short[bus.length];
+
+        PFSeqPcm.toShortOutput(bus, out, bus.length, false, 1);
+
+        short[] expected = {0, 1, 0, -1, Short.MAX_VALUE, Short.MIN_VALUE, 1234, -1234};
+        for (int i = 0; i < bus.length; i++) {
+            assertEquals(expected[i], out[i]);
+        }
+    }
+
+    @Test
+    public void toShortOutput_ditherStaysWithinOneStep() {
+        float[] samples = new float[4096];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (i - 2048) * 7.3f;
+        }
+        int[] bus = toBus(samples);
+        short[] dithered = new short[bus.length];
+
+        PFSeqPcm.toShortOutput(bus, dithered, bus.length, true, 1);
+
+        double sumOfErrors = 0;
+        for (int i = 0; i < bus.length; i++) {
+            double error = dithered[i] - samples[i];
+            assertTrue(Math.abs(error) < 1.5);
+            sumOfErrors += error;
+        }
+        // no dc offset
+        assertTrue(Math.abs(sumOfErrors) < bus.length / 50);
+    }
+
+    @Test
+    public void toShortOutput_ditherIsNoiseOnBothChannels() {
+        // half an LSB, so the dither decides which way each sample rounds
+        int[] bus = new int[4096];
+        Arrays.fill(bus, 1 << (PFSeqPcm.BUS_FRACTION_BITS - 1));
+        short[] dithered = new short[bus.length];
+
+        int seed = PFSeqPcm.toShortOutput(bus, dithered, bus.length, true, 1);
+        assertTrue(seed != 1);
+
+        int[] ones = new int[2];
+        int sameAsOtherChannel = 0;
+        for (int i = 0; i < bus.length; i += 2) {
+            ones[0] += dithered[i];
+            ones[1] += dithered[i + 1];
+            if (dithered[i] == dithered[i + 1]) {
+                sameAsOtherChannel++;
+            }
+        }
+        // rounds up about half the time on each channel, independently of the other
+        for (int count : ones) {
+            assertEquals(bus.length / 4, count, bus.length / 20);
+        }
+        assertTrue(sameAsOtherChannel < bus.length * 3 / 8);
+    }
+
+    @Test
+    public void toShort_convertsWiderEncodings() {
+        ByteOrder order = ByteOrder.nativeOrder();
+
+        ByteBuffer in24 = ByteBuffer.allocate(9).order(order);
+        putInt24(in24, 0x123456);
+        putInt24(in24, -0x800000);
+        putInt24(in24, 0x7fffff);
+        in24.flip();
+        assertConverted(in24, ENCODING_PCM_24BIT_PACKED, (short) 0x1234, Short.MIN_VALUE, Short.MAX_VALUE);
+
+        ByteBuffer in32 = ByteBuffer.allocate(12).order(order);
+        in32.putInt(0x12348000).putInt(Integer.MIN_VALUE).putInt(Integer.MAX_VALUE);
+        in32.flip();
+        assertConverted(in32, ENCODING_PCM_32BIT, (short) 0x1235, Short.MIN_VALUE, Short.MAX_VALUE);
+
+        ByteBuffer inFloat = ByteBuffer.allocate(12).order(order);
+        inFloat.putFloat(0.5f).putFloat(-1f).putFloat(2f);
+        inFloat.flip();
+        assertConverted(inFloat, ENCODING_PCM_FLOAT, (short) 16384, Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    @Test
+    public void mix_appliesGain() {
+        short[] source = {1000, -1000, 32767, -32768};
+        int[] bus = new int[source.length];
+
+        PFSeqPcm.mix(source, 0, bus, 0, source.length, PFSeqMixer.UNITY_GAIN / 2);
+        PFSeqPcm.mix(source, 0, bus, 0, source.length, PFSeqMixer.UNITY_GAIN);
+        short[] out = new short[source.length];
+        PFSeqPcm.toShortOutput(bus, out, bus.length, false, 1);
+
+        short[] expected = {1500, -1500, Short.MAX_VALUE, Short.MIN_VALUE};
+        for (int i = 0; i < source.length; i++) {
+            assertEquals(expected[i], out[i]);
+        }
+    }
+
+    private static int[] toBus(float[] samples) {
+        int[] bus = new int[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            bus[i] = Math.round(samples[i] * (1 << PFSeqPcm.BUS_FRACTION_BITS));
+        }
+        return bus;
+    }
+    private static void putInt24(ByteBuffer buffer, int value) {
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            buffer.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16));
+        } else {
+            buffer.put((byte) (value >> 16)).put((byte) (value >> 8)).put((byte) value);
+        }
+    }
+    private static void assertConverted(ByteBuffer in, int encoding, short... expected) {
+        ByteBuffer out = ByteBuffer.allocate(expected.length * 2).order(ByteOrder.nativeOrder());
+        PFSeqPcm.toShort(in, encoding, out);
+        out.flip();
+        for (short sample : expected) {
+            assertEquals(sample, out.getShort());
+        }
+    }
+}
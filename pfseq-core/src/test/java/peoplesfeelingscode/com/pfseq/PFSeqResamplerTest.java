@@ -0,0 +1,73 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+converts between 44.1kHz and 48kHz both ways, and checks output lengths, that a constant comes out at the
+same level away from the ends, and that a tone below both Nyquist frequencies keeps its level
+ */
+public class PFSeqResamplerTest {
+    private static final int DC = 10000;
+
+    @Test
+    public void sameRate_returnsInput() {
+        short[] pcm = new short[100];
+        assertTrue(PFSeqResampler.resample(pcm, 2, 44100, 44100) == pcm);
+    }
+
+    @Test
+    public void length_isRoundedUp() {
+        // a second is a second
+        assertEquals(48000 * 2, PFSeqResampler.resample(new short[44100 * 2], 2, 44100, 48000).length);
+        assertEquals(44100 * 2, PFSeqResampler.resample(new short[48000 * 2], 2, 48000, 44100).length);
+        // 1000 * 48000 / 44100 = 1088.4, 1000 * 44100 / 48000 = 918.75
+        assertEquals(1089 * 2, PFSeqResampler.resample(new short[1000 * 2], 2, 44100, 48000).length);
+        assertEquals(919 * 2, PFSeqResampler.resample(new short[1000 * 2], 2, 48000, 44100).length);
+        assertEquals(919, PFSeqResampler.resample(new short[1000], 1, 48000, 44100).length);
+    }
+
+    @Test
+    public void dcGain_isUnityUp() {
+        assertDcGain(44100, 48000);
+    }
+
+    @Test
+    public void dcGain_isUnityDown() {
+        assertDcGain(48000, 44100);
+    }
+
+    @Test
+    public void tone_keepsItsLevel() {
+        int[][] rates = {{44100, 48000}, {48000, 44100}};
+        for (int[] rate : rates) {
+            short[] pcm = new short[rate[0]];
+            for (int i = 0; i < pcm.length; i++) {
+                pcm[i] = (short) Math.round(DC * Math.sin(2 * Math.PI * 1000 * i / rate[0]));
+            }
+
+            short[] out = PFSeqResampler.resample(pcm, 1, rate[0], rate[1]);
+            int peak = 0;
+            for (int i = rate[1] / 4; i < rate[1] * 3 / 4; i++) {
+                peak = Math.max(peak, Math.abs(out[i]));
+            }
+            assertTrue(rate[0] + " to " + rate[1] + ": " + peak, Math.abs(peak - DC) < DC / 100);
+        }
+    }
+
+    private static void assertDcGain(int fromRate, int toRate) {
+        short[] pcm = new short[fromRate / 10 * 2];
+        Arrays.fill(pcm, (short) DC);
+
+        short[] out = PFSeqResampler.resample(pcm, 2, fromRate, toRate);
+        // the filter is cut off at the ends of the clip, so only frames a filter's width in
+        int edgeFrames = 2 * PFSeqResampler.ZERO_CROSSINGS;
+        for (int i = edgeFrames * 2; i < out.length - edgeFrames * 2; i++) {
+            assertTrue(fromRate + " to " + toRate + " at " + i + ": " + out[i], Math.abs(out[i] - DC) <= DC / 1000);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestClip;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestItem;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.ADAPTIVE_WRITE_AHEAD;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.BLOCK_RING_SIZE;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIN_MILLIS_AHEAD_TO_WRITE;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.WRITE_AHEAD_FLOOR_MILLIS;
+
+/*
+runs the content writing loop on a thread of its own, with an output track that plays in real time from when
+it starts and keeps what's written, and checks it writes what the offline renderer renders, in time
+ */
+public class PFSeqSchedulerTest {
+    private static final int BEAT_FRAMES = 22050;
+    private static final long TIME_OUT_NANOS = 5000000000L;
+
+    @Test
+    public void writeContent_writesWhatOfflineRenders() throws InterruptedException {
+        PFSeqTestHost host = new PFSeqTestHost();
+        final TestOutputTrack track = new TestOutputTrack(host, 2 * BEAT_FRAMES);
+        addItems(track);
+        ArrayList<TestOutputTrack> outputTracks = new ArrayList<TestOutputTrack>();
+        outputTracks.add(track);
+        track.setMixer(new PFSeqMixer(host, outputTracks));
+        track.getMixer().reset();
+
+        PFSeqMetrics metrics = new PFSeqMetrics();
+        PFSeqConfig config = host.getConfig();
+        PFSeqWriteAhead writeAhead = new PFSeqWriteAhead(config.getBool(ADAPTIVE_WRITE_AHEAD),
+                config.getInt(WRITE_AHEAD_FLOOR_MILLIS) * (long) PFSeqUnits.NANO_PER_MILLIS,
+                config.getInt(MIN_MILLIS_AHEAD_TO_WRITE) * (long) PFSeqUnits.NANO_PER_MILLIS,
+                host.framesToNano(host.getMixBlockFrames()));
+        final PFSeqScheduler scheduler = new PFSeqScheduler(host, outputTracks, metrics, new PFSeqTrace(0), writeAhead);
+        scheduler.reset();
+
+        host.playing = true;
+        host.tempoClock.start(0);
+        track.startNanotime = System.nanoTime();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.writeContent();
+            }
+        });
+        thread.start();
+
+        // until the second beat's item has been written, as it would be played
+        long writtenPastFrames = BEAT_FRAMES + 200;
+        while (track.getTotalFramesWritten() < writtenPastFrames && System.nanoTime() - track.startNanotime < TIME_OUT_NANOS) {
+            Thread.sleep(10);
+        }
+        long elapsedFrames = host.nanoToFrames(System.nanoTime() - track.startNanotime);
+        int written = track.getTotalFramesWritten();
+        host.playing = false;
+        LockSupport.unpark(thread);
+        thread.join(TIME_OUT_NANOS / (long) PFSeqUnits.NANO_PER_MILLIS);
+        host.tempoClock.stop();
+
+        assertTrue(!thread.isAlive());
+        assertTrue(written >= writtenPastFrames);
+        // written ahead by the write-ahead, not as fast as it can render
+        long aheadFrames = host.nanoToFrames(writeAhead.getWriteAheadNanos()) + 2 * host.getMixBlockFrames();
+        assertTrue("written " + written + " after " + elapsedFrames, written <= elapsedFrames + aheadFrames);
+        assertTrue(metrics.schedulerWakeups.get() > 0);
+
+        PFSeqTestHost offlineHost = new PFSeqTestHost();
+        addItems(offlineHost.addTrack());
+        short[] rendered = new PFSeqOfflineRenderer(offlineHost).renderPcm(1);
+        for (int i = 0; i < writtenPastFrames * 2; i++) {
+            assertEquals(rendered[i], track.pcm[i]);
+        }
+        assertEquals(1000, track.pcm[BEAT_FRAMES * 2]);
+    }
+
+    private static void addItems(PFSeqTrackBase track) {
+        for (int beat = 0; beat < 4; beat++) {
+            track.getSchedule().update(new TestItem(new TestClip(1000, 100), beat));
+        }
+    }
+
+    /*
+    plays from startNanotime at the sample rate, without ever falling behind. writes are done on the
+    scheduler's thread, as soon as they're posted, into pcm
+     */
+    private static class TestOutputTrack extends PFSeqOutputTrack {
+        final short[] pcm;
+        final PFSeqBlockRing blockRing;
+        volatile long startNanotime;
+        private volatile int totalFramesWritten;
+        private PFSeqHost host;
+
+        TestOutputTrack(PFSeqHost host, int lengthFrames) {
+            super(host, "output");
+            this.host = host;
+            this.pcm = new short[lengthFrames * 2];
+            this.blockRing = new PFSeqBlockRing(host.getConfig().getInt(BLOCK_RING_SIZE), host.getMixBlockFrames(), false);
+        }
+
+        @Override
+        boolean isOutputRunning() {
+            return true;
+        }
+        @Override
+        boolean isWriteLocked() {
+            return false;
+        }
+        @Override
+        long soonestWritableNanotime() {
+            return startNanotime + host.framesToNano(totalFramesWritten);
+        }
+        @Override
+        int getTotalFramesWritten() {
+            return totalFramesWritten;
+        }
+        @Override
+        int getContentStartFrame() {
+            return 0;
+        }
+        @Override
+        PFSeqBlockRing getBlockRing() {
+            return blockRing;
+        }
+        @Override
+        boolean postWrite(PFSeqBlock block, boolean blocking) {
+            int offsetShorts = totalFramesWritten * 2;
+            int remainingShorts = Math.max(0, Math.min(block.lengthFrames * 2, pcm.length - offsetShorts));
+            if (block.segmentCount == 0) {
+                System.arraycopy(block.pcm, 0, pcm, offsetShorts, remainingShorts);
+            }
+            for (int i = 0; i < block.segmentCount && remainingShorts > 0; i++) {
+                int lengthShorts = Math.min(block.segmentLengths[i], remainingShorts);
+                System.arraycopy(block.segmentSources[i], block.segmentOffsets[i], pcm, offsetShorts, lengthShorts);
+                offsetShorts += lengthShorts;
+                remainingShorts -= lengthShorts;
+            }
+            totalFramesWritten += block.lengthFrames;
+            blockRing.release();
+            return true;
+        }
+        @Override
+        int takeNewUnderruns() {
+            return 0;
+        }
+        @Override
+        long measureStallNanos(long notBeforeNanotime) {
+            return Long.MIN_VALUE;
+        }
+        @Override
+        void resync(long stallNanos) {
+        }
+    }
+}
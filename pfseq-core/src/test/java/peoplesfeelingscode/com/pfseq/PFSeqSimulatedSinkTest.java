@@ -0,0 +1,97 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+checks the simulated sink against what the engine relies on from an AudioTrack: it drains at its rate,
+blocking writes wait for room, timestamps line up with the bursts, and starving it counts an underrun and
+shows as a stall in the timestamps. runs in real time, about half a second in all
+ */
+public class PFSeqSimulatedSinkTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int PERIOD_FRAMES = 480; // 10 ms
+    private static final double NANOS_PER_FRAME = 1e9 / SAMPLE_RATE;
+
+    @Test
+    public void write_takesWhatFitsBeforePlay() {
+        PFSeqSimulatedSink sink = new PFSeqSimulatedSink(SAMPLE_RATE, false, 4800, PERIOD_FRAMES, 1, 0, 0);
+        short[] pcm = new short[2 * 6000];
+
+        assertEquals(2 * 4800, sink.write(pcm, 0, pcm.length, true));
+        assertEquals(0, sink.write(pcm, 0, pcm.length, false));
+        assertEquals(4800, sink.getBufferedFrames());
+        assertEquals(PFSeqOutputSink.ERROR_INVALID_OPERATION, sink.write(new float[2], 0, 2, false));
+    }
+
+    @Test
+    public void blockingWrite_waitsForTheDrain() {
+        PFSeqSimulatedSink sink = new PFSeqSimulatedSink(SAMPLE_RATE, false, 4800, PERIOD_FRAMES, 1, 0, 0);
+        short[] pcm = new short[2 * 4800];
+        sink.write(pcm, 0, pcm.length, true);
+        final boolean[] started = new boolean[1];
+        sink.setStartListener(new Runnable() {
+            @Override
+            public void run() {
+                started[0] = true;
+            }
+        });
+        long playNanotime = System.nanoTime();
+        sink.play();
+        assertTrue(started[0]);
+
+        // another 100 ms only fits once 100 ms has drained
+        assertEquals(pcm.length, sink.write(pcm, 0, pcm.length, true));
+        long elapsedNanos = System.nanoTime() - playNanotime;
+        assertTrue("took " + elapsedNanos, elapsedNanos >= 90000000L && elapsedNanos < 200000000L);
+        assertEquals(0, sink.getUnderrunCount());
+    }
+
+    @Test
+    public void timestamps_matchTheBursts() throws InterruptedException {
+        PFSeqSimulatedSink sink = new PFSeqSimulatedSink(SAMPLE_RATE, false, 48000, PERIOD_FRAMES, 1.01, 2000000L, 1);
+        PFSeqOutputSink.Timestamp timestamp = new PFSeqOutputSink.Timestamp();
+        assertFalse(sink.getTimestamp(timestamp));
+        short[] pcm = new short[2 * 48000];
+        sink.write(pcm, 0, pcm.length, false);
+        long playNanotime = System.nanoTime();
+        sink.play();
+        Thread.sleep(100);
+
+        assertTrue(sink.getTimestamp(timestamp));
+        assertEquals(0, timestamp.framePosition % PERIOD_FRAMES);
+        // 1% fast: each frame is played a little early
+        double expectedNanos = timestamp.framePosition * NANOS_PER_FRAME / 1.01;
+        assertEquals(expectedNanos, timestamp.nanoTime - playNanotime, 50000);
+        assertEquals(timestamp.framePosition + PERIOD_FRAMES, sink.getFramesPlayed(), PERIOD_FRAMES);
+    }
+
+    @Test
+    public void starving_countsOneUnderrunAndStalls() throws InterruptedException {
+        PFSeqSimulatedSink sink = new PFSeqSimulatedSink(SAMPLE_RATE, false, 4800, PERIOD_FRAMES, 1, 0, 0);
+        PFSeqOutputSink.Timestamp timestamp = new PFSeqOutputSink.Timestamp();
+        short[] pcm = new short[2 * 4800];
+        sink.write(pcm, 0, 2 * PERIOD_FRAMES * 2, false);
+        sink.play();
+        Thread.sleep(60);
+
+        assertEquals(1, sink.getUnderrunCount());
+        assertEquals(2 * PERIOD_FRAMES, sink.getFramesPlayed());
+        assertTrue(sink.getTimestamp(timestamp));
+        long mappedBefore = timestamp.nanoTime - (long) (timestamp.framePosition * NANOS_PER_FRAME);
+
+        sink.write(pcm, 0, pcm.length, false);
+        Thread.sleep(30);
+        assertEquals(1, sink.getUnderrunCount());
+        assertTrue(sink.getTimestamp(timestamp));
+        long mappedAfter = timestamp.nanoTime - (long) (timestamp.framePosition * NANOS_PER_FRAME);
+
+        // starved for at least the 40 ms until the refill, in whole bursts
+        long stallNanos = mappedAfter - mappedBefore;
+        assertTrue("stalled " + stallNanos, stallNanos >= 40000000L && stallNanos < 80000000L);
+        assertEquals(0, stallNanos % (long) (PERIOD_FRAMES * NANOS_PER_FRAME), 1000);
+    }
+}
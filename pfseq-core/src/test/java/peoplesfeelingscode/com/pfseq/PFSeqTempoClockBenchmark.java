@@ -0,0 +1,271 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestClip;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestItem;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestTrack;
+
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.REPEATING;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TIME_SIG_UPPER;
+
+/*
+times the old BigDecimal timing code against the tempo clock and the track schedules, and what each allocates.
+OldSeq and OldItem are PFSeq.beatsSinceTempoStart(), beatStartNanotime() and PFSeqPianoRollItem.soonestNanoAfter()
+as they were, and oldNextItemAfter() is the old PFSeqTrack.nextPianoRollItemAfter(), which asked every item.
+
+    beat lookup          beatsSinceTempoStart()  vs  PFSeqTempoClock.beatsSince()
+    beat start           beatStartNanotime()     vs  PFSeqTempoClock.timeOfBeat()
+    item lookup          soonestNanoAfter()      vs  PFSeqTrackSchedule.soonestFrameOf()
+    event, n items       what the old content loop did per item played (the next item and when, then the item
+                         after it and when)  vs  two PFSeqTrackSchedule.findNext()
+
+on a desktop JVM (OpenJDK 17, x86-64), best of 5, per lookup or event:
+
+    beat lookup           ~43 ns, 40 bytes      vs  ~11 ns, 0 bytes
+    beat start            ~22 ns, 64 bytes      vs  ~10 ns, 0 bytes
+    item lookup           ~160 ns, 192 bytes    vs  ~80 ns, 0 bytes
+    event, 16 items       ~5.5 us, 6.5 kB       vs  ~0.25 us, 0 bytes
+    event, 64 items       ~20 us, 25 kB         vs  ~0.15 us, 0 bytes
+
+so a single lookup is only 2 to 4 times faster: it's the same math, without BigDecimal. the orders of magnitude
+are per event, where the old loop asked every item, twice, each through a BigDecimal division, and the schedule does
+a binary search. and nothing is allocated any more. not a test, run it with the benchmark task (see pfseq-core/build.gradle)
+ */
+public class PFSeqTempoClockBenchmark {
+    private static final int LOOKUPS = 1000000;
+    private static final int EVENTS = 100000;
+    private static final int ROUNDS = 5; // the best is printed, the first warms up
+    private static final long START_NANO = 987654321000L;
+    private static final long STEP_FRAMES = 47;
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        System.out.println("old (BigDecimal)  vs  new (tempo clock), per lookup or event");
+        compare("beat lookup", LOOKUPS, 0, 1);
+        compare("beat start", LOOKUPS, 2, 3);
+        compare("item lookup", LOOKUPS, 4, 5);
+        compare("event, 16 items", EVENTS, 6, 7);
+        compare("event, 64 items", EVENTS, 8, 9);
+        System.out.println("(" + sink + ")");
+    }
+
+    private static void compare(String name, int count, int oldKind, int newKind) {
+        double[] oldResult = best(oldKind, count);
+        double[] newResult = best(newKind, count);
+        System.out.println(String.format("%-16s %9.1f ns %8.0f bytes  vs %9.1f ns %8.0f bytes",
+                name, oldResult[0], oldResult[1], newResult[0], newResult[1]));
+    }
+    /*
+    ns and bytes allocated per lookup, the fastest of ROUNDS. bytes are -1 where the JVM can't count them
+     */
+    private static double[] best(int kind, int count) {
+        double[] best = {Double.MAX_VALUE, 0};
+        for (int round = 0; round < ROUNDS; round++) {
+            Fixture fixture = new Fixture(kind >= 8 ? 64 : 16);
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            run(kind, count, fixture);
+            double nanos = (System.nanoTime() - start) / (double) count;
+            long allocatedAfter = allocatedBytes();
+            if (nanos < best[0]) {
+                best[0] = nanos;
+                best[1] = allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / (double) count;
+            }
+        }
+        return best;
+    }
+
+    private static void run(int kind, int count, Fixture fixture) {
+        PFSeqTempoClock clock = fixture.host.tempoClock;
+        OldSeq old = fixture.old;
+        switch (kind) {
+            case 0:
+                for (int i = 0; i < count; i++) {
+                    sink += old.beatsSinceTempoStart(START_NANO + fixture.host.framesToNano((int) (i * STEP_FRAMES)));
+                }
+                break;
+            case 1:
+                for (int i = 0; i < count; i++) {
+                    sink += clock.beatsSince(i * STEP_FRAMES);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < count; i++) {
+                    sink += old.beatStartNanotime(i & 0xffff);
+                }
+                break;
+            case 3:
+                for (int i = 0; i < count; i++) {
+                    sink += clock.timeOfBeat(i & 0xffff);
+                }
+                break;
+            case 4:
+                for (int i = 0; i < count; i++) {
+                    OldItem item = fixture.oldItems.get(i & 15);
+                    sink += item.soonestNanoAfter(START_NANO + fixture.host.framesToNano((int) (i * STEP_FRAMES)));
+                }
+                break;
+            case 5:
+                for (int i = 0; i < count; i++) {
+                    TestItem item = fixture.items.get(i & 15);
+                    sink += PFSeqTrackSchedule.soonestFrameOf(fixture.host, item, i * STEP_FRAMES);
+                }
+                break;
+            case 6:
+            case 8: {
+                long nano = START_NANO;
+                for (int i = 0; i < count; i++) {
+                    OldItem next = oldNextItemAfter(fixture.oldItems, nano);
+                    long nextNano = next.soonestNanoAfter(nano);
+                    OldItem afterNext = oldNextItemAfter(fixture.oldItems, nextNano);
+                    sink += afterNext.soonestNanoAfter(nextNano);
+                    nano = nextNano;
+                }
+                break;
+            }
+            default: {
+                PFSeqTrackSchedule schedule = fixture.track.getSchedule();
+                PFSeqTrackSchedule.Event event = new PFSeqTrackSchedule.Event();
+                PFSeqTrackSchedule.Event afterEvent = new PFSeqTrackSchedule.Event();
+                long frame = 0;
+                for (int i = 0; i < count; i++) {
+                    schedule.findNext(frame, event);
+                    schedule.findNext(event.frame, afterEvent);
+                    sink += afterEvent.frame;
+                    frame = event.frame;
+                }
+                break;
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /*
+    the same items, old and new, evenly through a bar at the host's 120 bpm
+     */
+    private static class Fixture {
+        final PFSeqTestHost host = new PFSeqTestHost();
+        final TestTrack track = host.addTrack();
+        final OldSeq old = new OldSeq(host.config, host.config.getDouble(PFSeqConfig.TEMPO));
+        final ArrayList<TestItem> items = new ArrayList<TestItem>();
+        final ArrayList<OldItem> oldItems = new ArrayList<OldItem>();
+
+        Fixture(int itemCount) {
+            int divisions = itemCount / 4;
+            for (int i = 0; i < itemCount; i++) {
+                PFSeqTimeOffset timeOffset = PFSeqTimeOffset.make(i % 4, PFSeqTimeOffset.MODE_FRACTIONAL, 0, divisions, i / 4, false, 0);
+                TestItem item = new TestItem(new TestClip(1000, 100), timeOffset, 1);
+                items.add(item);
+                track.add(item);
+                oldItems.add(new OldItem(old, timeOffset));
+            }
+            host.tempoClock.start(0);
+        }
+    }
+
+    /*
+    the old PFSeq timing fields and methods, as they were
+     */
+    private static class OldSeq {
+        static final BigDecimal NANOSECONDS_PER_MINUTE = new BigDecimal(60000000000.0);
+
+        private final PFSeqConfig config;
+        private final BigDecimal nanosecondsPerBeat;
+        private final BigDecimal tempoStartNanotime;
+
+        OldSeq(PFSeqConfig config, double bpm) {
+            this.config = config;
+            this.nanosecondsPerBeat = NANOSECONDS_PER_MINUTE.divide(new BigDecimal(bpm), 10, BigDecimal.ROUND_HALF_DOWN);
+            this.tempoStartNanotime = new BigDecimal(START_NANO);
+        }
+
+        int beatsSinceTempoStart(long nano) {
+            BigDecimal elapsedNanotime = new BigDecimal(nano - tempoStartNanotime.longValue());
+            BigDecimal beatsElapsed = elapsedNanotime.divide(nanosecondsPerBeat, 0, BigDecimal.ROUND_DOWN);
+            return beatsElapsed.intValue();
+        }
+        long beatStartNanotime(int beatPos) {
+            return tempoStartNanotime.longValue() + (nanosecondsPerBeat.longValue() * beatPos);
+        }
+        BigDecimal getNanosecondsPerBeat() {
+            return nanosecondsPerBeat;
+        }
+        PFSeqConfig getConfig() {
+            return config;
+        }
+    }
+
+    /*
+    the old PFSeqPianoRollItem.soonestNanoAfter(), as it was
+     */
+    private static class OldItem {
+        private final OldSeq seq;
+        private final PFSeqTimeOffset timeOffset;
+
+        OldItem(OldSeq seq, PFSeqTimeOffset timeOffset) {
+            this.seq = seq;
+            this.timeOffset = timeOffset;
+        }
+
+        long soonestNanoAfter(long nano) {
+            double nanosPerBeat = seq.getNanosecondsPerBeat().doubleValue();
+            int timeSigBeatsPerBar = seq.getConfig().getInt(TIME_SIG_UPPER);
+            int beatsSinceTempoStart = seq.beatsSinceTempoStart(nano);
+            long currentBeatNanotime = seq.beatStartNanotime(beatsSinceTempoStart);
+            int itemBeatOfBar = timeOffset.getBeats();
+            long offsetFromBeatNano = (long) ( timeOffset.getPercent() * nanosPerBeat );
+
+            int currentBeatOfBar = -1;
+            boolean isRepeating = seq.getConfig().getBool(REPEATING);
+            if (isRepeating) {
+                currentBeatOfBar = beatsSinceTempoStart % timeSigBeatsPerBar;
+            } else {
+                currentBeatOfBar = beatsSinceTempoStart;
+            }
+
+            int beatsOut = -1;
+            if (isRepeating) {
+                beatsOut = (timeSigBeatsPerBar + itemBeatOfBar - currentBeatOfBar) % timeSigBeatsPerBar;
+                if (currentBeatNanotime + (beatsOut * nanosPerBeat) + offsetFromBeatNano < nano) {
+                    beatsOut += timeSigBeatsPerBar;
+                }
+            } else {
+                beatsOut = itemBeatOfBar - beatsSinceTempoStart;
+            }
+
+            return currentBeatNanotime + (long) (beatsOut * nanosPerBeat) + offsetFromBeatNano;
+        }
+    }
+
+    /*
+    the old PFSeqTrack.nextPianoRollItemAfter(), as it was
+     */
+    private static OldItem oldNextItemAfter(ArrayList<OldItem> pianoRoll, long nano) {
+        long soonestNextNano = Long.MAX_VALUE;
+        OldItem soonestItem = null;
+        long thisItemNextNano;
+        for (OldItem item : pianoRoll) {
+            thisItemNextNano = item.soonestNanoAfter(nano);
+            if (thisItemNextNano < soonestNextNano && thisItemNextNano > nano) {
+                soonestNextNano = thisItemNextNano;
+                soonestItem = item;
+            }
+        }
+        return soonestItem;
+    }
+}
@@ -0,0 +1,175 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+checks PFSeqTempoClock, in frames at 44.1kHz, against the BigDecimal math it replaced (as
+PFSeq.beatsSinceTempoStart did it) and scheduled tempo changes and ramps against their closed forms.
+how fast it is is PFSeqTempoClockBenchmark's
+ */
+public class PFSeqTempoClockTest {
+    private static final long FRAMES_PER_MINUTE = 44100 * PFSeqUnits.SECONDS_PER_MINUTE;
+    private static final BigDecimal FRAMES_PER_MINUTE_DECIMAL = new BigDecimal(FRAMES_PER_MINUTE);
+
+    @Test
+    public void beatsSince_matchesBigDecimal() {
+        double bpm = 137.5;
+        long start = 123456789L;
+        PFSeqTempoClock clock = new PFSeqTempoClock(FRAMES_PER_MINUTE, bpm);
+        clock.start(start);
+        BigDecimal framesPerBeat = FRAMES_PER_MINUTE_DECIMAL.divide(new BigDecimal(bpm), 10, BigDecimal.ROUND_HALF_DOWN);
+
+        for (long frame = start; frame < start + 600 * 44100L; frame += 7777L) {
+            int expected = new BigDecimal(frame - start).divide(framesPerBeat, 0, BigDecimal.ROUND_DOWN).intValue();
+            assertEquals(expected, clock.beatsSince(frame));
+        }
+    }
+
+    @Test
+    public void timeOfTicks_landsOnNearestFrame() {
+        // triplets and sixteenths over ten minutes
+        double bpm = 137.5;
+        PFSeqTempoClock clock = new PFSeqTempoClock(FRAMES_PER_MINUTE, bpm);
+        clock.start(0);
+        BigDecimal ticksPerBeat = new BigDecimal(PFSeqUnits.TICKS_PER_BEAT);
+        BigDecimal framesPerBeat = FRAMES_PER_MINUTE_DECIMAL.divide(new BigDecimal(bpm), 30, BigDecimal.ROUND_HALF_DOWN);
+
+        for (long ticks = 0; ticks < 1400 * PFSeqUnits.TICKS_PER_BEAT; ticks += PFSeqUnits.TICKS_PER_BEAT / 12) {
+            long expected = new BigDecimal(ticks).multiply(framesPerBeat).divide(ticksPerBeat, 0, BigDecimal.ROUND_HALF_UP).longValue();
+            assertEquals(expected, clock.timeOfTicks(ticks));
+        }
+    }
+
+    @Test
+    public void setBpm_keepsPosition() {
+        long start = 44100L;
+        long now = start + 30 * 44100L;
+        PFSeqTempoClock clock = new PFSeqTempoClock(FRAMES_PER_MINUTE, 120);
+        clock.start(start);
+        long ticksBefore = clock.ticksSince(now);
+
+        clock.setBpm(90, now, now);
+
+        assertEquals(ticksBefore, clock.ticksSince(now), PFSeqUnits.TICKS_PER_BEAT / 1000000);
+    }
+
+    @Test
+    public void setBpm_foldsChangesBeforeWhatsHeard() {
+        PFSeqTempoClock clock = new PFSeqTempoClock(FRAMES_PER_MINUTE, 120);
+        clock.start(0);
+        clock.scheduleChange(400 * PFSeqUnits.TICKS_PER_BEAT, 200, PFSeqTempoClock.RAMP_LINEAR, 8 * PFSeqUnits.TICKS_PER_BEAT);
+
+        // a slider dragged for a minute, heard 4096 frames after it's rendered
+        long heard = 0;
+        long aheadFrames = 4096;
+        for (int i = 0; i < 3600; i++) {
+            heard += 735;
+            long now = heard + aheadFrames;
+            long ticksBefore = clock.ticksSince(now);
+            long heardTicks = clock.ticksSince(heard);
+            clock.setBpm(100 + i % 40, now, heard);
+
+            // well under a frame
+            assertTrue(Math.abs(ticksBefore - clock.ticksSince(now)) < PFSeqUnits.TICKS_PER_BEAT / 1000000);
+            assertTrue(Math.abs(heardTicks - clock.ticksSince(heard)) < PFSeqUnits.TICKS_PER_BEAT / 1000000);
+            assertTrue(clock.getChangeCount() <= 2 + aheadFrames / 735 + 1);
+        }
+
+        // the scheduled ramp is still on its beat, after the last tempo set
+        long rampStart = clock.timeOfBeat(400);
+        assertEquals(139, clock.bpmAt(rampStart - 1), 0);
+        assertEquals(200, clock.bpmAt(clock.timeOfBeat(408)), 0);
+    }
+
+        @Test
+    public void scheduleChange_landsOnExactFrame() {
+        PFSeqTempoClock clock = new PFSeqTempoClock(FRAMES_PER_MINUTE, 120);
+        clock.start(0);
+        clock.scheduleChange(8 * PFSeqUnits.TICKS_PER_BEAT, 90, PFSeqTempoClock.RAMP_NONE, 0);
+
+        // 8 beats at 120 is 4 s, then each beat at 90 is 2/3 s
+        long changeFrame = 4 * 44100L;
+        assertEquals(changeFrame, clock.timeOfBeat(8));
+        assertEquals(changeFrame + 3 * 44100L * 2 / 3, clock.timeOfBeat(11));
+        assertEquals(7, clock.beatsSince(changeFrame - 1));
+        assertEquals(8, clock.beatsSince(changeFrame));
+        assertEquals(90, clock.bpmAt(changeFrame), 0);
+        assertEquals(120, clock.bpmAt(changeFrame - 1), 0);
+
+        // a half beat at 90
+        assertEquals(14700, clock.durationOfTicks(changeFrame, PFSeqUnits.TICKS_PER_BEAT / 2));
+    }
+
+    @Test
+    public void linearRamp_matchesClosedForm() {
+        double fromBpm = 100;
+        double toBpm = 160;
+        long rampStartBeat = 4;
+        long rampBeats = 16;
+        PFSeqTempoClock clock = new PFSeqTempoClock(FRAMES_PER_MINUTE, fromBpm);
+        clock.start(0);
+        clock.scheduleChange(rampStartBeat * PFSeqUnits.TICKS_PER_BEAT, toBpm, PFSeqTempoClock.RAMP_LINEAR, rampBeats * PFSeqUnits.TICKS_PER_BEAT);
+
+        double v0 = fromBpm / FRAMES_PER_MINUTE;
+        double v1 = toBpm / FRAMES_PER_MINUTE;
+        double rampStart = rampStartBeat / v0;
+        double rampLength = 2 * rampBeats / (v0 + v1);
+        double a = (v1 - v0) / rampLength;
+        for (long ticks = 0; ticks <= rampBeats * PFSeqUnits.TICKS_PER_BEAT; ticks += PFSeqUnits.TICKS_PER_BEAT / 8) {
+            double beats = ticks / (double) PFSeqUnits.TICKS_PER_BEAT;
+            double t = (-v0 + Math.sqrt(v0 * v0 + 2 * a * beats)) / a;
+            long expected = Math.round(rampStart + t);
+            assertEquals(expected, clock.timeOfTicks(rampStartBeat * PFSeqUnits.TICKS_PER_BEAT + ticks));
+        }
+
+        // constant at the new tempo after the ramp
+        long rampEnd = Math.round(rampStart + rampLength);
+        assertEquals(rampEnd + 44100L * 60 / 160, clock.timeOfBeat(rampStartBeat + rampBeats + 1), 1);
+        assertEquals(toBpm, clock.bpmAt(rampEnd + 1), 0.01);
+        assertEquals((fromBpm + toBpm) / 2, clock.bpmAt(Math.round(rampStart + rampLength / 2)), 0.01);
+    }
+
+    @Test
+    public void exponentialRamp_roundTrips() {
+        PFSeqTempoClock clock = new PFSeqTempoClock(FRAMES_PER_MINUTE, 140);
+        clock.start(0);
+        clock.scheduleChange(2 * PFSeqUnits.TICKS_PER_BEAT, 70, PFSeqTempoClock.RAMP_EXPONENTIAL, 8 * PFSeqUnits.TICKS_PER_BEAT);
+
+        long previous = -1;
+        for (long ticks = 0; ticks < 14 * PFSeqUnits.TICKS_PER_BEAT; ticks += PFSeqUnits.TICKS_PER_BEAT / 12) {
+            long frame = clock.timeOfTicks(ticks);
+            assertTrue(frame > previous);
+            previous = frame;
+            // the position at an item's frame is within a frame of the item
+            long ticksAtFrame = clock.ticksSince(frame);
+            assertTrue(Math.abs(ticksAtFrame - ticks) < PFSeqUnits.TICKS_PER_BEAT * 140 / FRAMES_PER_MINUTE + 1);
+        }
+        // halfway through an exponential ramp is the geometric mean
+        long rampStart = clock.timeOfBeat(2);
+        long rampEnd = clock.timeOfBeat(10);
+        assertEquals(Math.sqrt(140 * 70), clock.bpmAt((rampStart + rampEnd) / 2), 0.1);
+    }
+
+    @Test
+    public void setBpm_keepsScheduledChangesOnTheirBeats() {
+        PFSeqTempoClock clock = new PFSeqTempoClock(FRAMES_PER_MINUTE, 120);
+        clock.start(0);
+        clock.scheduleChange(16 * PFSeqUnits.TICKS_PER_BEAT, 60, PFSeqTempoClock.RAMP_NONE, 0);
+
+        long now = 2 * 44100L;
+        clock.setBpm(60, now, now);
+
+        // 4 beats at 120, then 12 at 60
+        assertEquals(now + 12 * 44100L, clock.timeOfBeat(16));
+        assertEquals(60, clock.bpmAt(now + 1), 0);
+
+        // playing again starts at the tempo set, with the scheduled change
+        clock.start(0);
+        assertEquals(16 * 44100L, clock.timeOfBeat(16));
+    }
+}
@@ -0,0 +1,160 @@
+package peoplesfeelingscode.com.pfseq;
+
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+a sequencer for tests, on a plain JVM, with clips of constant PCM. default config: 44.1kHz, 120 bpm, 4/4,
+so a beat is 22050 frames and a bar 88200
+ */
+class PFSeqTestHost implements PFSeqHost {
+    final PFSeqConfig config = new PFSeqConfig(null, null, null, null);
+    final int sampleRate = config.getInt(PFSeqConfig.SAMPLE_RATE);
+    final PFSeqTempoClock tempoClock = new PFSeqTempoClock(sampleRate * PFSeqUnits.SECONDS_PER_MINUTE, config.getDouble(PFSeqConfig.TEMPO));
+    final ArrayList<TestTrack> tracks = new ArrayList<TestTrack>();
+    final AtomicBoolean rendering = new AtomicBoolean(false);
+    volatile boolean playing;
+
+    TestTrack addTrack() {
+        TestTrack track = new TestTrack(this, "track " + tracks.size());
+        tracks.add(track);
+        return track;
+    }
+
+    @Override
+    public PFSeqConfig getConfig() {
+        return config;
+    }
+    @Override
+    public PFSeqTempoClock getTempoClock() {
+        return tempoClock;
+    }
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    @Override
+    public int getMixBlockFrames() {
+        return config.getInt(PFSeqConfig.MIX_BLOCK_FRAMES);
+    }
+    @Override
+    public int bytesPerFrame() {
+        return 2 * (config.getBool(PFSeqConfig.FLOAT_OUTPUT) ? 4 : 2);
+    }
+    @Override
+    public int nanoToFrames(long durationNano) {
+        return (int) (durationNano * sampleRate / (long) PFSeqUnits.NANO_PER_SECOND);
+    }
+    @Override
+    public long framesToNano(int frames) {
+        return (long) (frames * PFSeqUnits.NANO_PER_SECOND / sampleRate);
+    }
+    @Override
+    public long nanoToContentFrame(long nano) {
+        return 0;
+    }
+    @Override
+    public boolean isPlaying() {
+        return playing;
+    }
+    @Override
+    public boolean isRenderingOffline() {
+        return rendering.get();
+    }
+    @Override
+    public boolean startOfflineRender() {
+        return !playing && rendering.compareAndSet(false, true);
+    }
+    @Override
+    public void finishOfflineRender() {
+        rendering.set(false);
+    }
+    @Override
+    public ArrayList<TestTrack> getTracks() {
+        return tracks;
+    }
+    @Override
+    public void sendMessageToActivity(PFSeqMessage message) {
+    }
+    @Override
+    public void postToMainThread(Runnable runnable) {
+        runnable.run();
+    }
+
+    static class TestTrack extends PFSeqTrackBase {
+        TestTrack(PFSeqHost host, String name) {
+            super(host, name);
+        }
+
+        void add(TestItem item) {
+            getSchedule().update(item);
+        }
+    }
+
+    static class TestClip extends PFSeqPcmSource {
+        private final short[] pcm;
+
+        TestClip(int value, int lengthFrames) {
+            pcm = new short[lengthFrames * 2];
+            Arrays.fill(pcm, (short) value);
+        }
+
+        @Override
+        public short[] getPcm() {
+            return pcm;
+        }
+        @Override
+        public int getLengthFrames() {
+            return pcm.length / 2;
+        }
+        @Override
+        public boolean isLoadedSuccessfully() {
+            return true;
+        }
+        @Override
+        ShortBuffer getStream() {
+            return null;
+        }
+    }
+
+    static class TestItem implements PFSeqScheduledItem {
+        private final TestClip clip;
+        private final PFSeqTimeOffset timeOffset;
+        private final double velocity;
+
+        TestItem(TestClip clip, int beat) {
+            this(clip, beat, 1);
+        }
+        TestItem(TestClip clip, int beat, double velocity) {
+            this(clip, PFSeqTimeOffset.make(beat, PFSeqTimeOffset.MODE_FRACTIONAL, 0, 1, 0, false, 0), velocity);
+        }
+        TestItem(TestClip clip, PFSeqTimeOffset timeOffset, double velocity) {
+            this.clip = clip;
+            this.timeOffset = timeOffset;
+            this.velocity = velocity;
+        }
+
+        @Override
+        public PFSeqPcmSource getClip() {
+            return clip;
+        }
+        @Override
+        public PFSeqTimeOffset getTimeOffset() {
+            return timeOffset;
+        }
+        @Override
+        public PFSeqLength getLength() {
+            return null;
+        }
+        @Override
+        public double getVelocity() {
+            return velocity;
+        }
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+    }
+}
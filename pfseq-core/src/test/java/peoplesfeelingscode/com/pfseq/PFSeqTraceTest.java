@@ -0,0 +1,61 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+records into a small ring, past its end, dumps it and reads it back with PFSeqTraceDecoder
+ */
+public class PFSeqTraceTest {
+    @Test
+    public void dump_keepsTheLastRecordsOldestFirst() throws IOException {
+        PFSeqTrace trace = new PFSeqTrace(4);
+        for (int i = 0; i < 6; i++) {
+            trace.record(PFSeqTrace.TYPE_BLOCK_RENDERED, 0, i * 1024, 1024, i);
+        }
+
+        File file = File.createTempFile("pfseq", ".trace");
+        try {
+            trace.dump(file, 44100, new String[]{"mix"});
+            ArrayList<String> lines = PFSeqTraceDecoder.decode(file);
+            assertEquals(5, lines.size());
+            assertEquals("sample rate 44100, 4 records", lines.get(0));
+            for (int i = 0; i < 4; i++) {
+                String line = lines.get(i + 1);
+                assertTrue(line, line.contains("mix"));
+                assertTrue(line, line.contains("block rendered"));
+                assertTrue(line, line.contains("content frame " + (i + 2) * 1024));
+                assertTrue(line, line.endsWith("headroom ns " + (i + 2)));
+            }
+
+            StringBuilder out = new StringBuilder();
+            PFSeqTraceDecoder.write(file, out);
+            assertEquals(5, out.toString().split("\n").length);
+            assertTrue(out.toString().startsWith(lines.get(0) + "\n" + lines.get(1) + "\n"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void disabled_recordsNothing() throws IOException {
+        PFSeqTrace trace = new PFSeqTrace(0);
+        trace.record(PFSeqTrace.TYPE_WAKEUP, -1, 0, 0, 0);
+
+        File file = File.createTempFile("pfseq", ".trace");
+        try {
+            trace.dump(file, 44100, new String[0]);
+            ArrayList<String> lines = PFSeqTraceDecoder.decode(file);
+            assertEquals(1, lines.size());
+            assertEquals("sample rate 44100, 0 records", lines.get(0));
+        } finally {
+            file.delete();
+        }
+    }
+}
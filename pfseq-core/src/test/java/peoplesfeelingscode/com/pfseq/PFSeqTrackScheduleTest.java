@@ -0,0 +1,141 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestClip;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestItem;
+import peoplesfeelingscode.com.pfseq.PFSeqTestHost.TestTrack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.REPEATING;
+
+/*
+searches a track's schedule from frames around the bar boundary, in repeating mode and not. the host's config
+is the defaults (see PFSeqTestHost), so non-repeating mode is set on the defaults and put back after
+ */
+public class PFSeqTrackScheduleTest {
+    private static final int BEAT_FRAMES = 22050;
+
+    @Test
+    public void findNext_emptyScheduleFindsNothing() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        host.tempoClock.start(0);
+
+        assertTrue(!track.getSchedule().findNext(0, new PFSeqTrackSchedule.Event()));
+    }
+
+    @Test
+    public void findNext_wrapsAroundTheBar() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        TestItem first = new TestItem(new TestClip(1000, 100), 1);
+        TestItem second = new TestItem(new TestClip(1000, 100), 2);
+        track.add(second);
+        track.add(first);
+        host.tempoClock.start(0);
+        PFSeqTrackSchedule schedule = track.getSchedule();
+        PFSeqTrackSchedule.Event event = new PFSeqTrackSchedule.Event();
+
+        assertTrue(schedule.findNext(0, event));
+        assertTrue(event.item == first);
+        assertEquals(BEAT_FRAMES, event.frame);
+
+        // after, not at
+        assertTrue(schedule.findNext(BEAT_FRAMES, event));
+        assertTrue(event.item == second);
+        assertEquals(2 * BEAT_FRAMES, event.frame);
+
+        // past the last item in the bar, the first in the next
+        assertTrue(schedule.findNext(2 * BEAT_FRAMES, event));
+        assertTrue(event.item == first);
+        assertEquals(5 * BEAT_FRAMES, event.frame);
+        assertTrue(schedule.findNext(4 * BEAT_FRAMES - 1, event));
+        assertEquals(5 * BEAT_FRAMES, event.frame);
+
+        // and bars later
+        assertTrue(schedule.findNext(42 * BEAT_FRAMES, event));
+        assertTrue(event.item == first);
+        assertEquals(45 * BEAT_FRAMES, event.frame);
+    }
+
+    @Test
+    public void findNext_wrapsThroughATempoChange() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        TestItem item = new TestItem(new TestClip(1000, 100), 1);
+        track.add(item);
+        host.tempoClock.scheduleChange(4 * PFSeqUnits.TICKS_PER_BEAT, 60, PFSeqTempoClock.RAMP_NONE, 0);
+        host.tempoClock.start(0);
+        PFSeqTrackSchedule.Event event = new PFSeqTrackSchedule.Event();
+
+        // the next bar starts at 60 bpm, so its beat 1 is a second in
+        assertTrue(track.getSchedule().findNext(2 * BEAT_FRAMES, event));
+        assertTrue(event.item == item);
+        assertEquals(4 * BEAT_FRAMES + 2 * BEAT_FRAMES, event.frame);
+    }
+
+    @Test
+    public void soonestFrameOf_isWhereTheRendererPlaysIt() {
+        PFSeqTestHost host = new PFSeqTestHost();
+        TestTrack track = host.addTrack();
+        TestItem[] items = new TestItem[4];
+        for (int beat = 0; beat < items.length; beat++) {
+            items[beat] = new TestItem(new TestClip(1000, 100), beat);
+            track.add(items[beat]);
+        }
+        // slowing down through the end of the first bar and into the second
+        host.tempoClock.scheduleChange(2 * PFSeqUnits.TICKS_PER_BEAT, 70, PFSeqTempoClock.RAMP_EXPONENTIAL, 4 * PFSeqUnits.TICKS_PER_BEAT);
+
+        short[] pcm = new PFSeqOfflineRenderer(host).renderPcm(3);
+        host.tempoClock.start(0);
+        // up to the last bar, so the next onset is always rendered
+        long lastBar = host.tempoClock.timeOfBeat(8);
+        for (long frame = 0; frame < lastBar; frame += 4321) {
+            for (TestItem item : items) {
+                long onset = PFSeqTrackSchedule.soonestFrameOf(host, item, frame);
+                assertTrue(onset >= frame);
+                assertEquals(1000, pcm[(int) onset * 2]);
+                if (onset > 0) {
+                    assertEquals(0, pcm[(int) (onset - 1) * 2]);
+                }
+            }
+        }
+        // beat 3 is in the ramp, not where 120 bpm would have it
+        long third = PFSeqTrackSchedule.soonestFrameOf(host, items[3], 0);
+        assertTrue(third > 3 * BEAT_FRAMES);
+        assertEquals(host.tempoClock.timeOfBeat(3), third);
+    }
+
+    @Test
+    public void findNext_nonRepeatingPlaysOnce() {
+        PFSeqConfig.BOOL_DEFAULTS.put(REPEATING, false);
+        try {
+            PFSeqTestHost host = new PFSeqTestHost();
+            TestTrack track = host.addTrack();
+            TestItem first = new TestItem(new TestClip(1000, 100), 1);
+            // past the first bar, kept where it is
+            TestItem second = new TestItem(new TestClip(1000, 100), 6);
+            track.add(first);
+            track.add(second);
+            host.tempoClock.start(0);
+            PFSeqTrackSchedule schedule = track.getSchedule();
+            PFSeqTrackSchedule.Event event = new PFSeqTrackSchedule.Event();
+
+            assertTrue(schedule.findNext(0, event));
+            assertTrue(event.item == first);
+            assertEquals(BEAT_FRAMES, event.frame);
+
+            assertTrue(schedule.findNext(BEAT_FRAMES, event));
+            assertTrue(event.item == second);
+            assertEquals(6 * BEAT_FRAMES, event.frame);
+
+            // nothing after the last item, in this bar or the next
+            assertTrue(!schedule.findNext(6 * BEAT_FRAMES, event));
+            assertTrue(!schedule.findNext(20 * BEAT_FRAMES, event));
+        } finally {
+            PFSeqConfig.BOOL_DEFAULTS.put(REPEATING, true);
+        }
+    }
+}
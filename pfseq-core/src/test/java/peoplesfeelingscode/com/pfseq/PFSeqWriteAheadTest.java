@@ -0,0 +1,119 @@
+package peoplesfeelingscode.com.pfseq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+feeds the write-ahead blocks rendered on time or late, on a made up clock, and checks it shrinks to the floor
+while they're on time, grows at once when one is late, and that an underrun raises the floor
+ */
+public class PFSeqWriteAheadTest {
+    private static final long MILLIS = (long) PFSeqUnits.NANO_PER_MILLIS;
+    private static final long FLOOR = 40 * MILLIS;
+    private static final long CEILING = 400 * MILLIS;
+    private static final long BLOCK = 20 * MILLIS;
+
+    private long now;
+
+    @Test
+    public void notAdaptive_staysAtTheCeiling() {
+        PFSeqWriteAhead writeAhead = new PFSeqWriteAhead(false, FLOOR, CEILING, BLOCK);
+        writeAhead.reset(now);
+        onTime(writeAhead, 10000 * MILLIS);
+        late(writeAhead, 300 * MILLIS);
+        writeAhead.underrun(now);
+
+        assertEquals(CEILING, writeAhead.getWriteAheadNanos());
+        assertEquals(0, writeAhead.getGrows() + writeAhead.getShrinks());
+    }
+
+    @Test
+    public void onTime_shrinksSlowlyToTheFloor() {
+        PFSeqWriteAhead writeAhead = new PFSeqWriteAhead(true, FLOOR, CEILING, BLOCK);
+        writeAhead.reset(now);
+
+        // not before a healthy window
+        onTime(writeAhead, PFSeqWriteAhead.HEALTHY_NANOS - BLOCK);
+        assertEquals(CEILING, writeAhead.getWriteAheadNanos());
+        onTime(writeAhead, 2 * BLOCK);
+        assertEquals((long) (CEILING * PFSeqWriteAhead.SHRINK_FACTOR), writeAhead.getWriteAheadNanos());
+
+        onTime(writeAhead, 30000 * MILLIS);
+        assertEquals(FLOOR, writeAhead.getWriteAheadNanos());
+        assertTrue(writeAhead.getShrinks() > 1);
+        assertEquals(0, writeAhead.getGrows());
+    }
+
+    @Test
+    public void late_growsAtOnceAndIsRemembered() {
+        PFSeqWriteAhead writeAhead = new PFSeqWriteAhead(true, FLOOR, CEILING, BLOCK);
+        writeAhead.reset(now);
+        onTime(writeAhead, 30000 * MILLIS);
+        assertEquals(FLOOR, writeAhead.getWriteAheadNanos());
+
+        // twice the lateness, plus a block
+        late(writeAhead, 50 * MILLIS);
+        assertEquals(2 * 50 * MILLIS + BLOCK, writeAhead.getWriteAheadNanos());
+        assertEquals(1, writeAhead.getGrows());
+
+        // the window it was late in is still counted through the next
+        onTime(writeAhead, 2 * PFSeqWriteAhead.HEALTHY_NANOS - BLOCK);
+        assertEquals(2 * 50 * MILLIS + BLOCK, writeAhead.getWriteAheadNanos());
+        onTime(writeAhead, 2 * BLOCK);
+        assertTrue(writeAhead.getWriteAheadNanos() < 2 * 50 * MILLIS + BLOCK);
+
+        // a little late is at least GROW_FACTOR more
+        onTime(writeAhead, 30000 * MILLIS);
+        late(writeAhead, 15 * MILLIS);
+        assertEquals((long) (FLOOR * PFSeqWriteAhead.GROW_FACTOR), writeAhead.getWriteAheadNanos());
+
+        // blocks due because it just grew count from when it grew
+        late(writeAhead, 1000 * MILLIS);
+        assertEquals((long) (FLOOR * PFSeqWriteAhead.GROW_FACTOR), writeAhead.getWriteAheadNanos());
+
+        // never past the ceiling
+        onTime(writeAhead, 1000 * MILLIS);
+        late(writeAhead, 1000 * MILLIS);
+        assertEquals(CEILING, writeAhead.getWriteAheadNanos());
+    }
+
+    @Test
+    public void underrun_raisesTheFloor() {
+        PFSeqWriteAhead writeAhead = new PFSeqWriteAhead(true, FLOOR, CEILING, BLOCK);
+        writeAhead.reset(now);
+        onTime(writeAhead, 30000 * MILLIS);
+        assertEquals(FLOOR, writeAhead.getWriteAheadNanos());
+
+        writeAhead.underrun(now);
+        assertEquals(CEILING, writeAhead.getWriteAheadNanos());
+
+        // shrinks back, but not into where it underran
+        onTime(writeAhead, 60000 * MILLIS);
+        assertEquals(2 * FLOOR, writeAhead.getWriteAheadNanos());
+
+        // reset for play forgets it
+        writeAhead.reset(now);
+        onTime(writeAhead, 30000 * MILLIS);
+        assertEquals(FLOOR, writeAhead.getWriteAheadNanos());
+    }
+
+    /*
+    a block every BLOCK for durationNanos, each rendered when it's due
+     */
+    private void onTime(PFSeqWriteAhead writeAhead, long durationNanos) {
+        long end = now + durationNanos;
+        while (now < end) {
+            now += BLOCK;
+            writeAhead.observe(now, now + writeAhead.getWriteAheadNanos());
+        }
+    }
+    /*
+    a block rendered latenessNanos after it was due
+     */
+    private void late(PFSeqWriteAhead writeAhead, long latenessNanos) {
+        now += BLOCK;
+        writeAhead.observe(now, now - latenessNanos + writeAhead.getWriteAheadNanos());
+    }
+}
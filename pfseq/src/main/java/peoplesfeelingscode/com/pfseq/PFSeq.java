@@ -9,27 +9,36 @@ https://www.gnu.org/licenses/old-licenses/gpl-2.0.en.html
 import android.app.Notification;
 import android.app.Service;
 import android.content.Intent;
+import android.media.AudioManager;
+import android.media.AudioTrack;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 
+import java.io.File;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
+import static android.media.AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER;
+import static android.media.AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE;
+import static android.media.AudioManager.STREAM_MUSIC;
 import static android.os.Process.THREAD_PRIORITY_URGENT_AUDIO;
-import static peoplesfeelingscode.com.pfseq.PFSeqConfig.FADE_LENGTH_FRAMES;
-import static peoplesfeelingscode.com.pfseq.PFSeqConfig.FRAMES_TO_LEAVE_BEFORE_NEXT_ITEM;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.ADAPTIVE_WRITE_AHEAD;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.FLOAT_OUTPUT;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MAX_BPM;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MAX_MIXED_TRACKS;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MAX_TRACKS;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIN_BPM;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIN_MILLIS_AHEAD_TO_WRITE;
-import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIN_WRITABLE_CONTENT_NANO;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIX_BLOCK_FRAMES;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIXED_OUTPUT;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.NATIVE_OUTPUT;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.ONGOING_NOTIF_ID;
-import static peoplesfeelingscode.com.pfseq.PFSeqConfig.CONTROL_THREAD_POLLING_MILLIS;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.CLIP_CACHE_BYTES;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.RUN_IN_FOREGROUND;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.SAMPLE_RATE;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.SMALLEST_STOPGAP_SILENCE_MILLIS;
@@ -37,19 +46,34 @@ import static peoplesfeelingscode.com.pfseq.PFSeqConfig.SYNC_POLLING_SLEEP_MILLI
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.SYNC_TIME_OUT_MILLIS;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TEMPO;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TIMESTAMP_POLLING_DELAY_MILLIS;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TRACE_RECORDS;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.WRITE_AHEAD_FLOOR_MILLIS;
 import static peoplesfeelingscode.com.pfseq.PFSeqMessage.MESSAGE_TYPE_ALERT;
 import static peoplesfeelingscode.com.pfseq.PFSeqMessage.MESSAGE_TYPE_ERROR;
 
-public abstract class PFSeq extends Service {
-    public static final String LOG_TAG = "**pf seq**";
+/*
+the android side of the sequencer: the service, its control thread, and the output tracks' threads and sinks.
+timing and mixing are in the pfseq-core module (see PFSeqHost), which this is the host for
+ */
+
+public abstract class PFSeq extends Service implements PFSeqHost {
+    public static final String LOG_TAG = PFSeqLog.LOG_TAG;
     static final String CONTROL_THREAD_NAME = "control thread";
-    static final String LOG_EOL = "\n";
-    static final double NANO_PER_SECOND = 1000000000.0;
-    static final double NANO_PER_MILLIS = 1000000;
-    static final double NANO_PER_MICROS = 1000.0;
-    static final double MICROS_PER_SECOND = 1000000.0;
-    static final double MILLIS_PER_SECOND = 1000.0;
-    static final BigDecimal NANOSECONDS_PER_MINUTE = new BigDecimal(60000000000.0);
+    static final String MIX_TRACK_NAME = "mix";
+    static final String LOG_EOL = PFSeqLog.LOG_EOL;
+    static final double NANO_PER_SECOND = PFSeqUnits.NANO_PER_SECOND;
+    static final double NANO_PER_MILLIS = PFSeqUnits.NANO_PER_MILLIS;
+    static final double NANO_PER_MICROS = PFSeqUnits.NANO_PER_MICROS;
+    static final double MICROS_PER_SECOND = PFSeqUnits.MICROS_PER_SECOND;
+    static final double MILLIS_PER_SECOND = PFSeqUnits.MILLIS_PER_SECOND;
+    static final long SECONDS_PER_MINUTE = PFSeqUnits.SECONDS_PER_MINUTE;
+    static final long TICKS_PER_BEAT = PFSeqUnits.TICKS_PER_BEAT;
+    private static final PFSeqLog.Logger ANDROID_LOGGER = new PFSeqLog.Logger() {
+        @Override
+        public void d(String tag, String msg) {
+            Log.d(tag, msg);
+        }
+    };
 
     private PFSeqMessage stashedMessage;
     private Notification notification;
@@ -57,6 +81,9 @@ public abstract class PFSeq extends Service {
     private PFSeqActivity pFSeqActivity;
     private PFSeqConfig _config;
     private ArrayList<PFSeqTrack> tracks;
+    private ArrayList<PFSeqTrack> outputTracks; // the tracks that own an AudioTrack. just the mix track, in mixed output mode
+    private PFSeqTrack mixTrack;
+    private PFSeqClipLoader clipLoader; // made when first used
     private HandlerThread controlThread;
     private Handler controlThreadHandler;
     private Runnable syncTracks;
@@ -65,10 +92,20 @@ public abstract class PFSeq extends Service {
 
     private AtomicBoolean isPlaying;
     private AtomicBoolean isSetUp;
-
-    private BigDecimal bpm;
-    private BigDecimal nanosecondsPerBeat;
-    private BigDecimal tempoStartNanotime;
+    private AtomicBoolean isRenderingOffline; // see PFSeqOfflineRenderer. the tempo clock is the renderer's until it's done
+    private PFSeqOutputSink.Factory outputSinkFactory; // makes each output track's sink
+    private PFSeqMetrics metrics;
+    private PFSeqTrace trace; // off unless TRACE_RECORDS
+    private Handler mainHandler; // for metrics summaries
+    private Runnable metricsReporter;
+    private volatile PFSeqMetrics.Listener metricsListener;
+    private int metricsPeriodMillis;
+
+    private int sampleRate; // of the output and the content frames. the device's, if NATIVE_OUTPUT
+    private int mixBlockFrames; // a whole number of the device's bursts, if NATIVE_OUTPUT
+    private PFSeqTempoClock tempoClock; // in content frames
+    private long contentStartNanotime; // nanotime of content frame 0. only used to map to and from nanotime
+    private PFSeqScheduler scheduler; // writes content once the tracks are synced, on the control thread
 
     // this is where you provide the Notification object (or null) to be used by Service.startForeground.
     public abstract Notification getNotification();
@@ -77,10 +114,16 @@ public abstract class PFSeq extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        PFSeqLog.setLogger(ANDROID_LOGGER);
         binder = new PFSeqBinder();
         notification = getNotification();
         isPlaying = new AtomicBoolean(false);
         isSetUp = new AtomicBoolean(false);
+        isRenderingOffline = new AtomicBoolean(false);
+        outputSinkFactory = PFSeqAudioTrackSink.FACTORY;
+        metrics = new PFSeqMetrics();
+        trace = new PFSeqTrace(0);
+        mainHandler = new Handler(Looper.getMainLooper());
         controlThread = new HandlerThread(CONTROL_THREAD_NAME, THREAD_PRIORITY_URGENT_AUDIO);
         controlThread.start();
         controlThreadHandler = new Handler(controlThread.getLooper());
@@ -91,6 +134,10 @@ public abstract class PFSeq extends Service {
     public void onDestroy() {
         super.onDestroy();
         stopAllWorkThreads();
+        setMetricsListener(null, 0);
+        if (clipLoader != null) {
+            clipLoader.shutDown();
+        }
         Log.d(LOG_TAG, "service destroyed");
     }
 
@@ -126,6 +173,10 @@ public abstract class PFSeq extends Service {
             getActivity().receiveMessage(message);
         }
     }
+    @Override
+    public void postToMainThread(Runnable runnable) {
+        mainHandler.post(runnable);
+    }
 
     // core sequencer stuff
     public boolean setUpSequencer(PFSeqConfig config) {
@@ -133,6 +184,10 @@ public abstract class PFSeq extends Service {
             sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "Cannot set up sequencer while playing"));
             return false;
         }
+        if (isRenderingOffline()) {
+            sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "Cannot set up sequencer while rendering offline"));
+            return false;
+        }
 
         if (!config.isValid()) {
             sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "Sequencer config not valid"));
@@ -140,24 +195,96 @@ public abstract class PFSeq extends Service {
         }
         this._config = config;
         tracks = new ArrayList<PFSeqTrack>();
+        outputTracks = new ArrayList<PFSeqTrack>();
+        PFSeqClipCache.getInstance().setBudgetBytes(getConfig().getInt(CLIP_CACHE_BYTES));
+        setUpOutputFormat();
+        trace = new PFSeqTrace(getConfig().getInt(TRACE_RECORDS));
+        tempoClock = new PFSeqTempoClock(sampleRate * SECONDS_PER_MINUTE, getConfig().getDouble(TEMPO));
         isSetUp.set(true);
+        PFSeqWriteAhead writeAhead = new PFSeqWriteAhead(getConfig().getBool(ADAPTIVE_WRITE_AHEAD),
+                getConfig().getInt(WRITE_AHEAD_FLOOR_MILLIS) * (long) NANO_PER_MILLIS,
+                getConfig().getInt(MIN_MILLIS_AHEAD_TO_WRITE) * (long) NANO_PER_MILLIS,
+                framesToNano(mixBlockFrames));
+        scheduler = new PFSeqScheduler(this, outputTracks, metrics, trace, writeAhead);
+        if (isMixedOutput()) {
+            mixTrack = new PFSeqTrack(this, MIX_TRACK_NAME, true);
+            mixTrack.setMixer(new PFSeqMixer(this, tracks));
+            mixTrack.setTraceId(outputTracks.size());
+            outputTracks.add(mixTrack);
+        } else {
+            mixTrack = null;
+        }
         setBpm(getConfig().getDouble(TEMPO));
         Log.d(LOG_TAG, "Sequencer set up");
         return true;
     }
+    /*
+    with NATIVE_OUTPUT, runs at the rate the device's mixer runs at, so the platform doesn't resample
+    every buffer and the AudioTrack can get the fast path. blocks are a whole number of the mixer's bursts,
+    so each write lines up with what the mixer reads. clips are converted to this rate when loaded.
+    falls back to SAMPLE_RATE and MIX_BLOCK_FRAMES if the device doesn't say
+     */
+    private void setUpOutputFormat() {
+        sampleRate = getConfig().getInt(SAMPLE_RATE);
+        mixBlockFrames = getConfig().getInt(MIX_BLOCK_FRAMES);
+        if (!getConfig().getBool(NATIVE_OUTPUT)) {
+            return;
+        }
+
+        AudioManager audioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
+        int nativeRate = audioManager == null ? 0 : parseAudioProperty(audioManager.getProperty(PROPERTY_OUTPUT_SAMPLE_RATE));
+        if (nativeRate <= 0) {
+            nativeRate = AudioTrack.getNativeOutputSampleRate(STREAM_MUSIC);
+        }
+        if (nativeRate >= PFSeqResampler.MIN_SAMPLE_RATE && nativeRate <= PFSeqResampler.MAX_SAMPLE_RATE
+                && nativeRate * SECONDS_PER_MINUTE / getConfig().getInt(MIN_BPM) <= PFSeqTempoClock.MAX_TIME_PER_BEAT) {
+            sampleRate = nativeRate;
+        } else {
+            Log.d(LOG_TAG, "native output sample rate not usable, using SAMPLE_RATE. native rate: " + nativeRate);
+        }
+
+        int burstFrames = audioManager == null ? 0 : parseAudioProperty(audioManager.getProperty(PROPERTY_OUTPUT_FRAMES_PER_BUFFER));
+        if (burstFrames > 0) {
+            // rounded down, so blocks stay within what the config was validated with
+            mixBlockFrames = Math.max(1, mixBlockFrames / burstFrames) * burstFrames;
+        }
+
+        Log.d(LOG_TAG, "output sample rate: " + sampleRate + " burst frames: " + burstFrames + " mix block frames: " + mixBlockFrames);
+    }
+    private static int parseAudioProperty(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
     public void play() {
         Log.d(LOG_TAG, "play() called");
         if (!isSetUp() || tracks == null || tracks.size() == 0 || !allTracksInitialized()) {
             Log.d(LOG_TAG, "couldn't play");
             return;
         }
-        tempoStartNanotime = null;
+        if (isRenderingOffline()) {
+            Log.d(LOG_TAG, "couldn't play. rendering offline");
+            return;
+        }
+        tempoClock.stop();
+        for (int i = 0; i < outputTracks.size(); i++) {
+            outputTracks.get(i).getMixer().reset();
+        }
+
+        metrics.reset();
+        trace.clear();
+        scheduler.reset();
 
         // start AudioTracks
         Log.d(LOG_TAG, "starting");
         isPlaying.set(true);
-        for (int i = 0; i < tracks.size(); i++) {
-            tracks.get(i).startAT();
+        for (int i = 0; i < outputTracks.size(); i++) {
+            outputTracks.get(i).startAT();
         }
 
         if (getConfig().getBool(RUN_IN_FOREGROUND)) {
@@ -176,7 +303,7 @@ public abstract class PFSeq extends Service {
         Log.d(LOG_TAG, "syncing tracks");
         Log.d(LOG_TAG, "content start time: " + (contentStartNanotime - System.nanoTime()) / PFSeq.NANO_PER_SECOND + " s from now");
 
-        for (PFSeqTrack track : tracks) {
+        for (PFSeqTrack track : outputTracks) {
             boolean trackSyncSuccess = track.sync(contentStartNanotime);
             if (!trackSyncSuccess) {
                 sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "track " + track.getName() + " failed to sync"));
@@ -184,13 +311,15 @@ public abstract class PFSeq extends Service {
             }
         }
 
-        this.tempoStartNanotime = new BigDecimal(contentStartNanotime);
+        this.contentStartNanotime = contentStartNanotime;
+        tempoClock.start(0);
         return true;
     }
     private void createRunnables() {
         /*
         after user hits play, write silence until all tracks are playing and have received their AudioTimestamps.
         then post the syncTracks runnable and exit this one.
+        sleeps until a track needs more silence, or is woken when a track is mapped.
         */
         silenceUntilMapped = new Runnable() {
             @Override
@@ -199,22 +328,14 @@ public abstract class PFSeq extends Service {
 
                 int pollingMillis = getConfig().getInt(TIMESTAMP_POLLING_DELAY_MILLIS);
                 final int millisAheadToWrite = getConfig().getInt(MIN_MILLIS_AHEAD_TO_WRITE);
-                long referenceTime = System.currentTimeMillis() - pollingMillis;
-                int tracksSize = tracks.size();
+                int tracksSize = outputTracks.size();
                 outerloop:
                 while (isPlaying()) {
-                    long currentTime = System.currentTimeMillis();
-                    // sleep until it's time to check if nanoIsMapped
-                    if (currentTime < referenceTime + pollingMillis) {
-                        try {
-                            Thread.sleep(referenceTime + pollingMillis - currentTime);
-                        } catch (InterruptedException e) {
-                            sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "failed to sleep"));
-                        }
-                    }
+                    long currentMillis = System.currentTimeMillis();
+                    long nextNeededMillis = currentMillis + pollingMillis; // when some track next needs silence
 
                     for (int i = 0; i < tracksSize; i++) {
-                        final PFSeqTrack track = tracks.get(i);
+                        final PFSeqTrack track = outputTracks.get(i);
                         if (!track.isPlaying()) {
                             continue;
                         }
@@ -225,7 +346,7 @@ public abstract class PFSeq extends Service {
                                 if (i == j) {
                                     continue;
                                 }
-                                if (!tracks.get(j).isPlaying() || !tracks.get(j).nanoIsMapped()) {
+                                if (!outputTracks.get(j).isPlaying() || !outputTracks.get(j).nanoIsMapped()) {
                                     allTracksMapped = false;
                                     break;
                                 }
@@ -242,21 +363,22 @@ public abstract class PFSeq extends Service {
 
                         // write silence
                         if (!track.isWriteLocked() && track.isPlaying()) {
-                            long currentMillis = System.currentTimeMillis();
                             long soonestWritableMillis = track.soonestWritableMillisImprecise();
                             if (soonestWritableMillis < (currentMillis + millisAheadToWrite)) {
                                 long silenceMillis = (currentMillis + millisAheadToWrite) - track.soonestWritableMillisImprecise();
                                 int silenceFrames = nanoToFrames(silenceMillis * (long) NANO_PER_MILLIS);
                                 if (silenceFrames > 0) {
-                                    short[] silence = makeSilence(silenceFrames);
-                                    Log.d(LOG_TAG, "posting write - silenceUntilMapped " + silenceMillis  + " ms");
-                                    track.postWrite(silence, true);
+                                    trace.record(PFSeqTrace.TYPE_SILENCE_POSTED, track.getTraceId(), track.getTotalFramesWritten(), silenceFrames, 0);
+                                    track.postSilence(silenceFrames, true);
                                 }
+                            } else if (soonestWritableMillis - millisAheadToWrite < nextNeededMillis) {
+                                nextNeededMillis = soonestWritableMillis - millisAheadToWrite;
                             }
                         }
                     }
 
-                    referenceTime = System.currentTimeMillis();
+                    // millis are only used for the difference. the deadline is in nanotime
+                    scheduler.parkUntil(System.nanoTime() + (nextNeededMillis - System.currentTimeMillis()) * (long) NANO_PER_MILLIS);
                 }
             }
         };
@@ -272,7 +394,7 @@ public abstract class PFSeq extends Service {
                 Log.d(LOG_TAG, "syncTracks started");
 
                 long startWaitingTime = System.currentTimeMillis();
-                int tracksSize = tracks.size();
+                int tracksSize = outputTracks.size();
                 int i = 0;
                 while (isPlaying()) {
                     // check for timeout
@@ -280,7 +402,7 @@ public abstract class PFSeq extends Service {
                         sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "timeout reached"));
                         return;
                     }
-                    final PFSeqTrack track = tracks.get(i);
+                    final PFSeqTrack track = outputTracks.get(i);
 
                     // if no writes are expected on the track
                     if (!track.isWriteLocked()) {
@@ -293,7 +415,7 @@ public abstract class PFSeq extends Service {
                                     continue;
                                 }
 
-                                if (tracks.get(j).isWriteLocked() || !track.enoughWrittenToSync()) {
+                                if (outputTracks.get(j).isWriteLocked() || !track.enoughWrittenToSync()) {
                                     allTracksCanSync = false;
                                     break;
                                 }
@@ -301,19 +423,17 @@ public abstract class PFSeq extends Service {
 
                             // sync
                             if (allTracksCanSync) {
-                                long soonestWritableNano = Long.MAX_VALUE;
+                                // content can start once every track has written up to it
+                                long contentStartNano = Long.MIN_VALUE;
                                 long tempNano;
 
-                                for (PFSeqTrack theTrack : tracks) {
+                                for (PFSeqTrack theTrack : outputTracks) {
                                     tempNano = theTrack.soonestWritableNanotime();
-                                    if (tempNano < soonestWritableNano) {
-                                        soonestWritableNano = tempNano;
+                                    if (tempNano > contentStartNano) {
+                                        contentStartNano = tempNano;
                                     }
                                 }
 
-                                int framesToLeaveBeforeNextItem = getConfig().getInt(FRAMES_TO_LEAVE_BEFORE_NEXT_ITEM);
-                                long contentStartNano = soonestWritableNano + framesToNano(framesToLeaveBeforeNextItem);
-
                                 if (sync(contentStartNano)) {
                                     Log.d(LOG_TAG, "sync successful");
 
@@ -328,8 +448,7 @@ public abstract class PFSeq extends Service {
                         }
 
                         // write silence because we can't sync yet
-                        long soonestWritableNano = tracks.get(i).soonestWritableNanotime();
-                        Log.d(LOG_TAG, "soonestWritableNano: " + soonestWritableNano);
+                        long soonestWritableNano = outputTracks.get(i).soonestWritableNanotime();
                         long nanoWeWantWrittenUntil = System.nanoTime() + (getConfig().getInt(MIN_MILLIS_AHEAD_TO_WRITE) * (long) NANO_PER_MILLIS);
                         int smallestStopgapSilenceNano = getConfig().getInt(SMALLEST_STOPGAP_SILENCE_MILLIS) * (int) NANO_PER_MILLIS;
                         if (soonestWritableNano < nanoWeWantWrittenUntil) {
@@ -337,8 +456,8 @@ public abstract class PFSeq extends Service {
 
                             if (spaceToFillNano > smallestStopgapSilenceNano) {
                                 int spaceToFillFrames = nanoToFrames(spaceToFillNano);
-                                Log.d(LOG_TAG, "spaceToFillFrames: " + spaceToFillFrames);
-                                track.postWrite(makeSilence(spaceToFillFrames), false);
+                                trace.record(PFSeqTrace.TYPE_SYNC_SILENCE_POSTED, track.getTraceId(), track.getTotalFramesWritten(), spaceToFillFrames, 0);
+                                track.postSilence(spaceToFillFrames, false);
                             }
                         }
                     }
@@ -362,158 +481,54 @@ public abstract class PFSeq extends Service {
         assumes all tracks have silence written up to the "content start nanotime".
         this runnable wheels and deals segments of PCM specified by the app/user
         in the track pianoroll items, throwing silence where needed to prevent underrun.
+        the loop itself is in pfseq-core, see PFSeqScheduler.writeContent()
         */
         contentWriting = new Runnable() {
             @Override
             public void run(){
-                Log.d(LOG_TAG, "contentWriting started");
-
-                int pollingMillis = getConfig().getInt(CONTROL_THREAD_POLLING_MILLIS);
-                int minMillisAheadToWrite = getConfig().getInt(MIN_MILLIS_AHEAD_TO_WRITE);
-                int framesToLeaveBeforeNextItem = getConfig().getInt(FRAMES_TO_LEAVE_BEFORE_NEXT_ITEM);
-                int minWritableContentNano = getConfig().getInt(MIN_WRITABLE_CONTENT_NANO);
-                long referenceTime = System.currentTimeMillis() - pollingMillis;
-
-                outerloop:
-                while (true) {
-                    long currentMillis = System.currentTimeMillis();
-                    // if the polling time has not yet passed
-                    if (currentMillis < referenceTime + pollingMillis) {
-                        try {
-                            // sleep until then
-                            Thread.sleep(referenceTime + pollingMillis - currentMillis);
-                        } catch (InterruptedException e) {
-                            sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "failed to sleep"));
-                        }
-                    }
-                    referenceTime = System.currentTimeMillis();
-
-                    for (final PFSeqTrack track : tracks) {
-                        if (!isPlaying() || track.getWorkThreadHandler() == null) {
-                            break outerloop;
-                        }
-                        if (track.hasUnderrun()) {
-                            stopSelf("track has underrun");
-                            break outerloop;
-                        }
-                        // don't write to tracks that already have stuff to write
-                        if (track.isWriteLocked()) {
-                            Log.d(LOG_TAG, "waiting on write-lock");
-                            continue;
-                        }
-
-                        Log.d(LOG_TAG, "-------");
-
-                        final long soonestWritableNano = track.soonestWritableNanotime();
-                        long nowNano = System.nanoTime();
-                        long nanoAheadToWrite = minMillisAheadToWrite * (long) NANO_PER_MILLIS;
-                        long nanoWeWantWrittenUntil = nowNano + nanoAheadToWrite;
-//                        Log.d(LOG_TAG, "nowNano: " + nowNano);
-//                        Log.d(LOG_TAG, "nanoAheadToWrite: " + nanoAheadToWrite);
-//                        Log.d(LOG_TAG, "nanoWeWantWrittenUntil: " + nanoWeWantWrittenUntil);
-//                        Log.d(LOG_TAG, "soonestWritableNano: " + soonestWritableNano);
-//                        Log.d(LOG_TAG, "written out " + ((soonestWritableNano - System.nanoTime()) / NANO_PER_MILLIS) + " ms");
-
-                        // if it's time to
-                        if (soonestWritableNano < nanoWeWantWrittenUntil) {
-                            if (track.getPianoRoll().size() > 0) {
-                                PFSeqPianoRollItem nextPRItem = track.nextPianoRollItemAfter(soonestWritableNano);
-                                if (nextPRItem == null) {
-                                    if (isPlaying()) {
-                                        // nextPianoRollItemAfter returned null. write silence
-                                        Log.d(LOG_TAG, "posting write - silence only: " + (nanoWeWantWrittenUntil - soonestWritableNano) + " ns. nextPRItem is null");
-                                        writeSilenceToTrack(track, nanoWeWantWrittenUntil - soonestWritableNano);
-                                    } else {
-                                        // sequencer stopping
-                                        break outerloop;
-                                    }
-                                } else {
-                                    Log.d(LOG_TAG, "nextPRItem: " + nextPRItem.getName());
-                                    long nextPRItemNano = nextPRItem.soonestNanoAfter(soonestWritableNano);
-
-                                    if (nextPRItemNano > nanoWeWantWrittenUntil) {
-                                        // next item is after time we want written until. write silence
-                                        Log.d(LOG_TAG, "posting write - silence only: " + (nanoWeWantWrittenUntil - soonestWritableNano) + " ns. next item is after time we want written until");
-                                        writeSilenceToTrack(track, nanoWeWantWrittenUntil - soonestWritableNano);
-                                    } else {
-                                        short[] itemPcm = nextPRItem.getPcm();
-                                        final short[] leadingSilence = makeSilence((int) nanoToFrames(nextPRItemNano - soonestWritableNano));
-
-                                        // abridge stuff
-                                        int originalLengthFrames = itemPcm.length / 2;
-                                        int neededLengthFrames = originalLengthFrames;
-                                        // get length needed due to subsequent item
-                                        long nextItemNanoPlusMinWritableNano = nextPRItemNano + minWritableContentNano;
-                                        PFSeqPianoRollItem itemAfterNext = track.nextPianoRollItemAfter(nextItemNanoPlusMinWritableNano);
-                                        if (itemAfterNext != null) {
-                                            long itemAfterNextPosNano = itemAfterNext.soonestNanoAfter(nextItemNanoPlusMinWritableNano);
-                                            long nextItemLengthNano = framesToNano(nextPRItem.lengthInFrames());
-                                            long nextItemEndNano = nextPRItemNano + nextItemLengthNano;
-                                            long nanotoLeaveBeforeNextItem = framesToNano(framesToLeaveBeforeNextItem);
-                                            if (nextItemEndNano + nanotoLeaveBeforeNextItem > itemAfterNextPosNano) {
-                                                neededLengthFrames = nanoToFrames(itemAfterNextPosNano - nextPRItemNano) - framesToLeaveBeforeNextItem;
-                                                if (neededLengthFrames < 0) {
-                                                    neededLengthFrames = 0;
-                                                }
-                                            }
-                                        }
-                                        // get length needed due to length property
-                                        if (nextPRItem.getLength() != null) {
-                                            long maxLengthFrames = nextPRItem.getLength().getLengthFrames();
-
-                                            if (maxLengthFrames < neededLengthFrames) {
-                                                neededLengthFrames = (int) maxLengthFrames;
-                                            }
-                                        }
-                                        // abridge
-                                        if (neededLengthFrames < originalLengthFrames) {
-                                            itemPcm = abridge(itemPcm, neededLengthFrames);
-                                        }
-
-                                        Log.d(LOG_TAG, "posting write - silence and item. nano: " + (framesToNano((leadingSilence.length + itemPcm.length) / 2) ) );
-                                        track.postWrite(combineShortArrays(leadingSilence, itemPcm), true);
-                                    }
-                                }
-                            } else {
-                                // piano roll is empty - write silence
-                                Log.d(LOG_TAG, "posting write - silence only: " + (nanoWeWantWrittenUntil - soonestWritableNano) + " ns. piano roll is empty");
-                                writeSilenceToTrack(track, nanoWeWantWrittenUntil - soonestWritableNano);
-                            }
-                        }
-                    }
-                }
-                Log.d(LOG_TAG, "contentWriting done");
+                scheduler.writeContent();
             }
         };
     }
+    void wakeControlThread() {
+        LockSupport.unpark(controlThread);
+    }
+    /*
+    called by work threads after each write
+     */
+    void writeFinished() {
+        scheduler.writeFinished();
+    }
     public boolean stop() {
         Log.d(LOG_TAG, "stop() called");
 
         if (controlThreadHandler != null) {
             // clear all messages (includes posts)
             controlThreadHandler.removeCallbacks(null);
+            wakeControlThread();
         }
 
         if (isPlaying()) {
             int underrunCount = 0;
-            for (int i = 0; i < tracks.size(); i++) {
-                if (tracks.get(i).hasUnderrun()) {
+            for (int i = 0; i < outputTracks.size(); i++) {
+                if (outputTracks.get(i).hasUnderrun()) {
                     underrunCount++;
                 }
-                tracks.get(i).stopAT();
+                outputTracks.get(i).stopAT();
             }
             if (underrunCount == 0) {
                 Log.d(LOG_TAG, "no underrun occurred");
             } else {
-                Log.d(LOG_TAG, "tracks with underrun: " + underrunCount);
+                Log.d(LOG_TAG, "tracks with underrun: " + underrunCount + " recoveries: " + getUnderrunEventCount());
             }
+            Log.d(LOG_TAG, "metrics: " + getMetricsSnapshot());
 
             if (getConfig().getBool(RUN_IN_FOREGROUND)) {
                 stopForeground(true);
             }
 
             isPlaying.set(false);
-            tempoStartNanotime = null;
+            tempoClock.stop();
 
             if (getConfig().getBool(RUN_IN_FOREGROUND)) {
                 try {
@@ -537,59 +552,124 @@ public abstract class PFSeq extends Service {
         if (getConfig() == null || !getConfig().isValid()) {
             return -1;
         }
-        int configMax = getConfig().getInt(MAX_BPM);
-        int configMin = getConfig().getInt(MIN_BPM);
+        newBpm = clampBpm(newBpm);
 
-        if (newBpm < configMin) {
-            newBpm = configMin;
-        }
-        if (newBpm > configMax) {
-            newBpm = configMax;
-        }
-
-        if (isPlaying() && tempoStartNanotime != null) {
-            /*
-                this is where we rewrite the past, as though it always were the new tempo.
-                we change the tempo start time to a different point in the past.
-                this allows changing bpm while playing.
+        /*
+            if playing, this is where we rewrite the past, as though it always were the new tempo.
+            we change the tempo start time to a different point in the past.
+            this allows changing bpm while playing.
 
-                doubling the bpm will halve the amount of time needed for the same amount of beats. so:
+            doubling the bpm will halve the amount of time needed for the same amount of beats. so:
 
-                    old tempo   new duration
-                    --------- = ------------
-                    new tempo   old duration
+                old tempo   new duration
+                --------- = ------------
+                new tempo   old duration
 
-                so:
-                                    ( old tempo / new tempo )
-                    new duration = ---------------------------
-                                          old duration
-            * */
-            BigDecimal nowNano = new BigDecimal(System.nanoTime());
-            BigDecimal newBpmBD = new BigDecimal(newBpm);
-            BigDecimal oldElapsed = nowNano.subtract(this.tempoStartNanotime);
-            // adjust to taste
-            BigDecimal newElapsed = getBpm().divide(newBpmBD, 10, RoundingMode.HALF_DOWN).divide(oldElapsed, 0, RoundingMode.HALF_DOWN);
-            this.tempoStartNanotime = nowNano.subtract(newElapsed);
-        }
+            so:
+                new duration = ( old tempo / new tempo ) * old duration
 
-        this.bpm = new BigDecimal(newBpm);
-
-        // adjust to taste
-        this.nanosecondsPerBeat = NANOSECONDS_PER_MINUTE.divide(getBpm(), 10, BigDecimal.ROUND_HALF_DOWN);
+            the tempo clock does this by keeping the musical position at the first frame that hasn't been
+            rendered yet, and changing tempo from there. what's already rendered was at the old tempo,
+            so the change lands right after it instead of somewhere in it. the changes before what's
+            being heard now are folded away, so the tempo map doesn't grow with every call.
+        * */
+        long heardFrame = nanoToContentFrame(System.nanoTime());
+        tempoClock.setBpm(newBpm, scheduler.firstUnrenderedFrame(heardFrame), heardFrame);
         /*
         *       used by:
                     soonestNanoAfter(long nanotime)
                     beatsSinceTempoStart(long nanotime)
                     beatStartNanotime(int beats)
+                    PFSeqTrackSchedule
         * */
-        Log.d(LOG_TAG, "nanosecondsPerBeat: " + nanosecondsPerBeat.toString());
+        Log.d(LOG_TAG, "framesPerBeat: " + tempoClock.getTimePerBeat());
 
         return newBpm;
     }
-    private void writeSilenceToTrack(PFSeqTrack track, long silenceNano) {
-        final short[] silence = makeSilence(nanoToFrames(silenceNano));
-//        Log.d(LOG_TAG, "posting write - silence only: " + silenceNano + " ns");
-        track.postWrite(silence, true);
+    /*
+    changes tempo to bpm on a beat, counted from tempo start (bar n starts on beat n * TIME_SIG_UPPER).
+    in repeating mode too, the change happens once, not every time round the bar.
+    lands on the exact frame, because it's part of the tempo map the schedules are placed with.
+    returns false if that beat has already been rendered
+     */
+    public boolean scheduleTempoChange(long beat, double bpm) {
+        return scheduleTempoRamp(beat, bpm, 0, PFSeqTempoClock.RAMP_NONE);
+    }
+    /*
+    like scheduleTempoChange(), but the tempo ramps from the tempo at beat to bpm over lengthBeats.
+    curve is PFSeqTempoClock.RAMP_LINEAR or RAMP_EXPONENTIAL (even steps in ratio, which sounds even to the ear)
+     */
+    public boolean scheduleTempoRamp(long beat, double bpm, long lengthBeats, int curve) {
+        if (!isSetUp()) {
+            sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "can't schedule tempo change. seq not set up"));
+            return false;
+        }
+        if (beat < 0 || lengthBeats < 0 || (lengthBeats > 0 && curve != PFSeqTempoClock.RAMP_LINEAR && curve != PFSeqTempoClock.RAMP_EXPONENTIAL)) {
+            sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "can't schedule tempo change. beat: " + beat + " length beats: " + lengthBeats + " curve: " + curve));
+            return false;
+        }
+        long ticks = beat * TICKS_PER_BEAT;
+        if (tempoClock.isStarted() && tempoClock.timeOfTicks(ticks) < firstUnrenderedFrame()) {
+            sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "can't schedule tempo change. beat " + beat + " already rendered"));
+            return false;
+        }
+
+        tempoClock.scheduleChange(ticks, clampBpm(bpm), curve, lengthBeats * TICKS_PER_BEAT);
+        Log.d(LOG_TAG, "tempo change scheduled at beat " + beat + " to " + bpm + " bpm over " + lengthBeats + " beats");
+        return true;
+    }
+    /*
+    drops the scheduled tempo changes that haven't started yet
+     */
+    public void clearScheduledTempoChanges() {
+        if (!isSetUp()) {
+            return;
+        }
+        tempoClock.clearChanges(tempoClock.isStarted() ? tempoClock.ticksSince(firstUnrenderedFrame()) + 1 : 0);
+    }
+    private double clampBpm(double bpm) {
+        int configMax = getConfig().getInt(MAX_BPM);
+        int configMin = getConfig().getInt(MIN_BPM);
+
+        if (bpm < configMin) {
+            bpm = configMin;
+        }
+        if (bpm > configMax) {
+            bpm = configMax;
+        }
+        return bpm;
+    }
+    /*
+    the soonest content frame a tempo change can take effect on, see PFSeqScheduler.firstUnrenderedFrame()
+     */
+    private long firstUnrenderedFrame() {
+        return scheduler.firstUnrenderedFrame(nanoToContentFrame(System.nanoTime()));
+    }
+    @Override
+    public boolean startOfflineRender() {
+        if (isPlaying() || !isSetUp() || tracks == null || tracks.size() == 0 || !allTracksInitialized()) {
+            return false;
+        }
+        return isRenderingOffline.compareAndSet(false, true);
+    }
+    @Override
+    public void finishOfflineRender() {
+        isRenderingOffline.set(false);
+    }
+    /*
+    where output tracks write to (see PFSeqOutputSink). AudioTracks by default. sinks are made when tracks are
+    made, and again after each stop, so set this before setUpSequencer() for it to apply to all of them
+     */
+    public boolean setOutputSinkFactory(PFSeqOutputSink.Factory factory) {
+        if (isPlaying()) {
+            sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "cannot change output sink factory while playing"));
+            return false;
+        }
+        outputSinkFactory = factory == null ? PFSeqAudioTrackSink.FACTORY : factory;
+        return true;
+    }
+    PFSeqOutputSink.Factory getOutputSinkFactory() {
+        return outputSinkFactory;
     }
     public boolean unSetUpSequencer() {
         stop();
@@ -608,7 +688,8 @@ public abstract class PFSeq extends Service {
             sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "could not add track because sequencer has no bee set up"));
             return false;
         }
-        if (tracks.size() == getConfig().getInt(MAX_TRACKS)) {
+        int maxTracks = isMixedOutput() ? getConfig().getInt(MAX_MIXED_TRACKS) : getConfig().getInt(MAX_TRACKS);
+        if (tracks.size() == maxTracks) {
             sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "could not add track because track limit reached"));
             return false;
         }
@@ -618,6 +699,13 @@ public abstract class PFSeq extends Service {
         }
 
         tracks.add(track);
+        if (!isMixedOutput()) {
+            ArrayList<PFSeqTrack> mixedTracks = new ArrayList<PFSeqTrack>();
+            mixedTracks.add(track);
+            track.setMixer(new PFSeqMixer(this, mixedTracks));
+            track.setTraceId(outputTracks.size());
+            outputTracks.add(track);
+        }
         Log.d(LOG_TAG, "track " + track.getName() + " - added to sequencer");
         return true;
     }
@@ -631,12 +719,12 @@ public abstract class PFSeq extends Service {
         return null;
     }
     private boolean allTracksInitialized() {
-        if (tracks == null) {
+        if (outputTracks == null) {
             Log.d(LOG_TAG, "tracks is null");
             return false;
         }
 
-        for (PFSeqTrack track : tracks) {
+        for (PFSeqTrack track : outputTracks) {
             if (!track.isInitialized()) {
                 return false;
             }
@@ -644,107 +732,32 @@ public abstract class PFSeq extends Service {
         return true;
     }
     private void stopAllWorkThreads() {
-        if (tracks != null) {
-            for (PFSeqTrack track : tracks) {
+        if (outputTracks != null) {
+            for (PFSeqTrack track : outputTracks) {
                 track.stopWorkThread();
             }
         }
     }
 
-    // audio stuff
-    public short[] makeSilence(int lengthFrames) {
-//        Log.d(LOG_TAG, "makeSilence() - lengthFrames: " + lengthFrames + " shortsPerFrame(): " + shortsPerFrame());
-        if (lengthFrames < 0) {
-            stopSelf("negative frame length");
-        }
-
-        short[] shortArray = new short[lengthFrames * 2];
-
-        for (int i = 0; i < lengthFrames; i++) {
-            shortArray[i] = 0;
-        }
-
-        return shortArray;
-    }
-    private short[] combineShortArrays(short[] array1, short[] array2) {
-        if (array1 == null || array2 == null) {
-            return null;
-        }
-        short[] joinedArray = new short[array1.length + array2.length];
-        System.arraycopy(array1, 0, joinedArray, 0, array1.length);
-        System.arraycopy(array2, 0, joinedArray, array1.length, array2.length);
-        return joinedArray;
-    }
-    public short[] abridge(short[] pcm, int newLengthFrames) {
-        int oldLengthFrames = pcm.length / 2;
-        int fadeOutLengthFrames = getConfig().getInt(FADE_LENGTH_FRAMES);
-
-        if (newLengthFrames > oldLengthFrames) {
-            sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "can't abridge clip to longer length"));
-            return pcm;
-        }
-
-        short[] arrayWithNewLength = Arrays.copyOfRange(pcm, 0, newLengthFrames * 2);
-
-        if (fadeOutLengthFrames > 0) {
-            arrayWithNewLength = applyFadeOut(arrayWithNewLength, fadeOutLengthFrames);
-        }
-
-        return arrayWithNewLength;
-    }
-    private short[] applyFadeOut(short[] pcm, int fadeLengthFrames) {
-        // this method definition assumes channel count is 2
-
-        int pcmLengthFrames = pcm.length / 2;
-
-//        long startingClock = System.currentTimeMillis();
-
-        // in case config value fade length is greater than clip length
-        int fadeLengthFramesSafe = fadeLengthFrames;
-        if (fadeLengthFrames > pcmLengthFrames) {
-            fadeLengthFramesSafe = pcmLengthFrames;
-        }
-
-        int startingFrame = pcmLengthFrames - fadeLengthFramesSafe;
-        int startingShort = startingFrame * 2;
-        int i;
-        double distanceFromEndFrames;
-        double positionInFade = 1;
-
-        for (i = startingShort; i < pcm.length; i += 2) {
-            distanceFromEndFrames = ((pcm.length - 2) - i) / 2;
-            // starts at (below) 1 and goes to 0
-            positionInFade = (double) distanceFromEndFrames / fadeLengthFramesSafe;
-
-            // first channel of frame
-            pcm[i] = (short) (pcm[i] * positionInFade);
-
-            // second channel of frame
-            pcm[i+1] = (short) (pcm[i+1] * positionInFade);
-        }
-//        Log.d(LOG_TAG, "time spent doing fade: " + (System.currentTimeMillis() - startingClock) + " ms. ");
-
-        return pcm;
-    }
+    @Override
     public int bytesPerFrame() {
         // bit depth multiplied by the number of channels
         if (!isSetUp()) {
             return -1;
         }
 
-        return 2 * 2;
+        return 2 * (getConfig().getBool(FLOAT_OUTPUT) ? 4 : 2);
     }
 
     // timing stuff
     public int beatsSinceTempoStart(long nano) {
-        if (tempoStartNanotime == null) {
+        if (!tempoClock.isStarted()) {
             sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "tempoStartNanotime not set"));
             return -1;
         }
 
-        BigDecimal elapsedNanotime = new BigDecimal(nano - tempoStartNanotime.longValue());
-        /* adjust to taste */
-        BigDecimal beatsElapsed = elapsedNanotime.divide(nanosecondsPerBeat, 0, BigDecimal.ROUND_DOWN);
+        /* adjust to taste. see PFSeqTempoClock */
+        int beatsElapsed = tempoClock.beatsSince(nanoToContentFrame(nano));
 
         /*
         *                                NANOSECONDS_PER_MINUTE
@@ -766,26 +779,27 @@ public abstract class PFSeq extends Service {
         *
         * */
 
-        return beatsElapsed.intValue();
+        return beatsElapsed;
     }
     public long beatStartNanotime(int beatPos) {
-        if (tempoStartNanotime == null) {
+        if (!tempoClock.isStarted()) {
             sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "tempoStartNanotime not set"));
             return -1;
         }
 
-        return tempoStartNanotime.longValue() + (nanosecondsPerBeat.longValue() * beatPos);
+        return contentFrameToNano(tempoClock.timeOfBeat(beatPos));
     }
 
     // conversions
+    @Override
     public int nanoToFrames(long durationNano) {
         if (!isSetUp()) {
             stopSelf("unexpected state. call to nanoToFrames when seq not set up");
             return -1;
         }
 
-        // adjust to taste
-        return (int) ( durationNano / NANO_PER_SECOND * getConfig().getInt(SAMPLE_RATE));
+        // adjust to taste. integer math, so the same duration always gives the same frames
+        return (int) (durationNano * sampleRate / (long) NANO_PER_SECOND);
     }
     public int millisToFrames(int durationMillis) {
         if (!isSetUp()) {
@@ -794,7 +808,7 @@ public abstract class PFSeq extends Service {
         }
 
         // adjust to taste
-        return (int) ( durationMillis / MILLIS_PER_SECOND * getConfig().getInt(SAMPLE_RATE));
+        return (int) ( durationMillis / MILLIS_PER_SECOND * sampleRate);
     }
     public int framesToMillis(int frames) {
         if (!isSetUp()) {
@@ -803,7 +817,7 @@ public abstract class PFSeq extends Service {
         }
 
         // adjust to taste
-        double framesPerMillis = (getConfig().getInt(SAMPLE_RATE) / MILLIS_PER_SECOND);
+        double framesPerMillis = (sampleRate / MILLIS_PER_SECOND);
         return (int) (frames / framesPerMillis);
     }
     public long framesToNano(int frames) {
@@ -813,33 +827,169 @@ public abstract class PFSeq extends Service {
         }
 
         // adjust to taste
-        double framesPerNano = (getConfig().getInt(SAMPLE_RATE) / NANO_PER_SECOND);
-        return (long) (frames / framesPerNano);
+        return frames * (long) NANO_PER_SECOND / sampleRate;
+    }
+    /*
+    content frames count from content start, on every output stream. they are what the tempo clock,
+    schedules and mixers work in. these map them to and from nanotime, for the public nanotime api
+     */
+    @Override
+    public long nanoToContentFrame(long nano) {
+        return Math.floorDiv((nano - contentStartNanotime) * sampleRate, (long) NANO_PER_SECOND);
+    }
+    long contentFrameToNano(long frame) {
+        return contentStartNanotime + frame * (long) NANO_PER_SECOND / sampleRate;
     }
 
     // accessors
     public BigDecimal getBpm() {
-        return bpm;
+        // allocates. code that runs while playing should use getTempoClock()
+        if (tempoClock.isStarted()) {
+            // follows scheduled changes and ramps
+            return new BigDecimal(tempoClock.bpmAt(nanoToContentFrame(System.nanoTime())));
+        }
+        return new BigDecimal(tempoClock.getBpm());
     }
     public PFSeqActivity getActivity() {
         return pFSeqActivity;
     }
+    public synchronized PFSeqClipLoader getClipLoader() {
+        if (clipLoader == null) {
+            clipLoader = new PFSeqClipLoader(this);
+        }
+        return clipLoader;
+    }
+    @Override
     public PFSeqConfig getConfig() {
         return _config;
     }
     public BigDecimal getTempoStartNanotime() {
-        return tempoStartNanotime;
+        if (!tempoClock.isStarted()) {
+            return null;
+        }
+        return new BigDecimal(contentFrameToNano(tempoClock.getStartTime()));
     }
     public boolean isSetUp() {
         return isSetUp.get();
     }
+    public boolean isMixedOutput() {
+        return getConfig() != null && getConfig().getBool(MIXED_OUTPUT);
+    }
+    @Override
+    public boolean isRenderingOffline() {
+        return isRenderingOffline.get();
+    }
+    @Override
     public boolean isPlaying() {
         return isPlaying.get();
     }
     public BigDecimal getNanosecondsPerBeat() {
-        return nanosecondsPerBeat;
+        // allocates, and is at the tempo last set with setBpm(), not scheduled changes. see getTempoClock()
+        return new BigDecimal(tempoClock.getTimePerBeat() * NANO_PER_SECOND / sampleRate);
     }
+    @Override
+    public PFSeqTempoClock getTempoClock() {
+        return tempoClock;
+    }
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    @Override
+    public int getMixBlockFrames() {
+        return mixBlockFrames;
+    }
+    @Override
     public ArrayList<PFSeqTrack> getTracks() {
         return tracks;
     }
+    /*
+    how far ahead of playback content is written, so about how long an edit takes to be heard.
+    MIN_MILLIS_AHEAD_TO_WRITE, unless ADAPTIVE_WRITE_AHEAD
+     */
+    public long getWriteAheadMillis() {
+        return scheduler == null ? getConfig().getInt(MIN_MILLIS_AHEAD_TO_WRITE) : scheduler.getWriteAhead().getWriteAheadNanos() / (long) NANO_PER_MILLIS;
+    }
+    /*
+    the last PFSeqScheduler.MAX_UNDERRUN_EVENTS recoveries from underruns since play, oldest first
+     */
+    public ArrayList<PFSeqUnderrunEvent> getUnderrunEvents() {
+        return scheduler == null ? new ArrayList<PFSeqUnderrunEvent>() : scheduler.getUnderrunEvents();
+    }
+    public int getUnderrunEventCount() {
+        // since play
+        return scheduler == null ? 0 : scheduler.getUnderrunEventCount();
+    }
+    /*
+    writes the trace ring to file, to be read with PFSeqTraceDecoder. false if tracing is off (TRACE_RECORDS)
+    or the file couldn't be written. don't call from the audio threads
+     */
+    public boolean dumpTrace(File file) {
+        if (!trace.isEnabled()) {
+            Log.d(LOG_TAG, "trace not dumped. TRACE_RECORDS is 0");
+            return false;
+        }
+        String[] trackNames = new String[outputTracks.size()];
+        for (int i = 0; i < trackNames.length; i++) {
+            trackNames[i] = outputTracks.get(i).getName();
+        }
+        try {
+            trace.dump(file, sampleRate, trackNames);
+            return true;
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "failed to dump trace: " + e.getMessage());
+            return false;
+        }
+    }
+    PFSeqTrace getTrace() {
+        return trace;
+    }
+    /*
+    a copy of the engine metrics since play (see PFSeqMetrics). cheap enough to poll every frame of a ui
+     */
+    public PFSeqMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.snapshot(outputTracks == null ? new ArrayList<PFSeqTrack>() : outputTracks);
+    }
+    /*
+    listener gets a snapshot every periodMillis, on the main thread. null to stop
+     */
+    public void setMetricsListener(PFSeqMetrics.Listener listener, int periodMillis) {
+        if (metricsReporter != null) {
+            mainHandler.removeCallbacks(metricsReporter);
+        }
+        metricsListener = listener;
+        metricsPeriodMillis = periodMillis;
+        if (listener == null || periodMillis <= 0) {
+            metricsReporter = null;
+            return;
+        }
+
+        metricsReporter = new Runnable() {
+            @Override
+            public void run() {
+                PFSeqMetrics.Listener listener = metricsListener;
+                if (listener == null || metricsReporter != this) {
+                    return;
+                }
+                listener.onMetrics(getMetricsSnapshot());
+                mainHandler.postDelayed(this, metricsPeriodMillis);
+            }
+        };
+        mainHandler.postDelayed(metricsReporter, periodMillis);
+    }
+    // scheduler metrics, since play. see getMetricsSnapshot() for the rest
+    public long getSchedulerWakeups() {
+        return metrics.schedulerWakeups.get();
+    }
+    public double getSchedulerWakeupsPerSecond() {
+        long elapsedNanos = System.nanoTime() - metrics.getStartNanotime();
+        return elapsedNanos > 0 ? metrics.schedulerWakeups.get() * NANO_PER_SECOND / elapsedNanos : 0;
+    }
+    public long getSchedulerMaxLatenessNanos() {
+        // longest the control thread woke after a deadline
+        return metrics.schedulerLateness.snapshot().getMax();
+    }
+    public long getSchedulerMeanLatenessNanos() {
+        return metrics.schedulerLateness.snapshot().getMean();
+    }
 }
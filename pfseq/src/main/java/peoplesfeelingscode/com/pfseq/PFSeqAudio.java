@@ -1,49 +1,102 @@
 package peoplesfeelingscode.com.pfseq;
 
+import android.media.AudioFormat;
 import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static peoplesfeelingscode.com.pfseq.PFSeq.MICROS_PER_SECOND;
 
 public class PFSeqAudio {
     static final long TIMEOUTUS = 3000;
 
-    static MediaFormat getMediaFormat(File file) throws Exception {
+    /*
+    the caller releases the extractor. PFSeqClip.load() probes the format and decodes with the same one
+     */
+    static MediaExtractor openExtractor(File file) throws Exception {
         MediaExtractor extractor = new MediaExtractor();
-        MediaFormat format;
 
         try {
             extractor.setDataSource(file.getAbsolutePath());
         } catch (IOException e) {
+            extractor.release();
             throw new Exception("Error: exception thrown when trying to extract data from file " + file.getName() + ": " + e.getMessage());
         }
 
-        format = extractor.getTrackFormat(0);
+        return extractor;
+    }
 
-        extractor.release();
+    /*
+    decodes track 0 of the extractor. decoder output is copied in bulk into one short[] that is sized
+    from the format's duration, so the PCM is only in memory once. sourceFormat is from getTrackFormat(0)
+     */
+    static short[] getPcm(MediaExtractor extractor, MediaFormat sourceFormat) throws Exception {
+        ShortArrayOutput output = new ShortArrayOutput(expectedLengthShorts(sourceFormat));
+        decode(extractor, sourceFormat, output);
+        return output.toShortArray();
+    }
+    /*
+    like getPcm() but the PCM goes to the channel, from its current position, and never to the heap.
+    used for clips that are streamed (see PFSeqClip). returns the number of bytes written.
+    bytes are in native order, which is little endian on every Android ABI
+     */
+    static long decodeTo(MediaExtractor extractor, MediaFormat sourceFormat, final FileChannel channel) throws Exception {
+        final long[] bytesWritten = new long[1];
+        decode(extractor, sourceFormat, new Output() {
+            @Override
+            public void write(ByteBuffer decoded) throws IOException {
+                while (decoded.hasRemaining()) {
+                    bytesWritten[0] += channel.write(decoded);
+                }
+            }
+        });
+        return bytesWritten[0];
+    }
 
-        return format;
+    /*
+    receives decoder output. the buffer's position and limit are set to the decoded bytes, which are
+    16-bit PCM in native byte order. wider decoder output has already been converted (see PFSeqPcm.toShort)
+     */
+    private interface Output {
+        void write(ByteBuffer decoded) throws IOException;
     }
+    private static class ShortArrayOutput implements Output {
+        private short[] pcm;
+        private int lengthShorts;
 
-    // adapted from here and other places - https://android.googlesource.com/platform/cts/+/jb-mr2-release/tests/tests/media/src/android/media/cts/DecoderTest.java
-    static short[] getPcm(File file) throws Exception {
-        MediaCodec decoder;
-        MediaExtractor extractor = new MediaExtractor();
-        MediaFormat sourceFormat;
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ShortArrayOutput(int expectedLengthShorts) {
+            this.pcm = new short[expectedLengthShorts];
+        }
 
-        try {
-            extractor.setDataSource(file.getAbsolutePath());
-        } catch (IOException e) {
-            throw new Exception("Error: exception thrown when trying to extract data from file " + file.getName() + ": " + e.getMessage());
+        @Override
+        public void write(ByteBuffer decoded) {
+            int shorts = decoded.remaining() / 2;
+            if (lengthShorts + shorts > pcm.length) {
+                // duration was short. doesn't happen for wav
+                pcm = Arrays.copyOf(pcm, Math.max(pcm.length * 2, lengthShorts + shorts));
+            }
+            decoded.order(ByteOrder.nativeOrder()).asShortBuffer().get(pcm, lengthShorts, shorts);
+            lengthShorts += shorts;
         }
 
-        sourceFormat = extractor.getTrackFormat(0);
+        short[] toShortArray() {
+            if (lengthShorts != pcm.length) {
+                pcm = Arrays.copyOf(pcm, lengthShorts);
+            }
+            return pcm;
+        }
+    }
+
+    // adapted from here and other places - https://android.googlesource.com/platform/cts/+/jb-mr2-release/tests/tests/media/src/android/media/cts/DecoderTest.java
+    private static void decode(MediaExtractor extractor, MediaFormat sourceFormat, Output output) throws Exception {
+        MediaCodec decoder;
 
         extractor.selectTrack(0);
 
@@ -56,86 +109,98 @@ public class PFSeqAudio {
         decoder.configure(sourceFormat, null, null, 0);
         decoder.start();
 
-        MediaCodec.BufferInfo outputBufferInfo = new MediaCodec.BufferInfo();
-        boolean inputEOS = false;
-        boolean outputEOS = false;
-
-        while (!outputEOS) {
-            if (!inputEOS) {
-                int inputBufIndex = decoder.dequeueInputBuffer(TIMEOUTUS);
-                if (inputBufIndex >= 0) {
-                    ByteBuffer inputBuffer = decoder.getInputBuffer(inputBufIndex);
-                    int sampleSize = extractor.readSampleData(inputBuffer, 0 );
-                    if (sampleSize < 0) {
-                        inputEOS = true;
-                        decoder.queueInputBuffer(
-                                inputBufIndex,
-                                0 ,
-                                0,
-                                0,
-                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                    } else {
-                        long presentationTimeUs = extractor.getSampleTime();
-                        decoder.queueInputBuffer(
-                                inputBufIndex,
-                                0 ,
-                                sampleSize,
-                                presentationTimeUs,
-                                0);
-                        extractor.advance();
+        try {
+            MediaCodec.BufferInfo outputBufferInfo = new MediaCodec.BufferInfo();
+            boolean inputEOS = false;
+            boolean outputEOS = false;
+            int outputEncoding = AudioFormat.ENCODING_PCM_16BIT; // until the decoder says otherwise
+            ByteBuffer converted = null; // 16-bit output, when the decoder's is wider
+
+            while (!outputEOS) {
+                if (!inputEOS) {
+                    int inputBufIndex = decoder.dequeueInputBuffer(TIMEOUTUS);
+                    if (inputBufIndex >= 0) {
+                        ByteBuffer inputBuffer = decoder.getInputBuffer(inputBufIndex);
+                        int sampleSize = extractor.readSampleData(inputBuffer, 0 );
+                        if (sampleSize < 0) {
+                            inputEOS = true;
+                            decoder.queueInputBuffer(
+                                    inputBufIndex,
+                                    0 ,
+                                    0,
+                                    0,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        } else {
+                            long presentationTimeUs = extractor.getSampleTime();
+                            decoder.queueInputBuffer(
+                                    inputBufIndex,
+                                    0 ,
+                                    sampleSize,
+                                    presentationTimeUs,
+                                    0);
+                            extractor.advance();
+                        }
                     }
                 }
-            }
-
-            int outputBufferIndex = decoder.dequeueOutputBuffer(outputBufferInfo, TIMEOUTUS);
 
-            if (outputBufferIndex >= 0) {
-                ByteBuffer outputBuffer = decoder.getOutputBuffer(outputBufferIndex);
+                int outputBufferIndex = decoder.dequeueOutputBuffer(outputBufferInfo, TIMEOUTUS);
 
-                for (int i = 0; i < outputBufferInfo.size; i++) {
-                    byteArrayOutputStream.write(outputBuffer.get(i));
-                }
+                if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = decoder.getOutputFormat();
+                    if (outputFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)) {
+                        outputEncoding = outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING);
+                    }
+                    if (PFSeqPcm.bytesPerSample(outputEncoding) == 0) {
+                        throw new Exception("unsupported decoder output encoding: " + outputEncoding);
+                    }
+                } else if (outputBufferIndex >= 0) {
+                    ByteBuffer outputBuffer = decoder.getOutputBuffer(outputBufferIndex);
+                    int bytesPerSample = PFSeqPcm.bytesPerSample(outputEncoding);
+                    int outputBytes = outputBufferInfo.size - outputBufferInfo.size % bytesPerSample;
+
+                    if (outputBytes > 0) {
+                        outputBuffer.position(outputBufferInfo.offset);
+                        outputBuffer.limit(outputBufferInfo.offset + outputBytes);
+                        if (outputEncoding == AudioFormat.ENCODING_PCM_16BIT) {
+                            output.write(outputBuffer);
+                        } else {
+                            int convertedBytes = outputBytes / bytesPerSample * 2;
+                            if (converted == null || converted.capacity() < convertedBytes) {
+                                converted = ByteBuffer.allocateDirect(convertedBytes).order(ByteOrder.nativeOrder());
+                            }
+                            converted.clear();
+                            PFSeqPcm.toShort(outputBuffer, outputEncoding, converted);
+                            converted.flip();
+                            output.write(converted);
+                        }
+                    }
 
-                decoder.releaseOutputBuffer(outputBufferIndex, false);
+                    decoder.releaseOutputBuffer(outputBufferIndex, false);
 
-                if ((outputBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                    outputEOS = true;
+                    if ((outputBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        outputEOS = true;
+                    }
                 }
             }
+        } finally {
+            decoder.stop();
+            decoder.release();
         }
-
-        extractor.release();
-        decoder.stop();
-        decoder.release();
-
-        byte[] decodedBytes = byteArrayOutputStream.toByteArray();
-        short[] shorts = byteArrayToShortArray(decodedBytes);
-
-        return shorts;
     }
-
-    static private short[] byteArrayToShortArray(byte[] byteArray) {
-        short[] shortArray = new short[byteArray.length / 2];
-
-        ByteBuffer bb = ByteBuffer.allocate(2);
-        bb.order(ByteOrder.LITTLE_ENDIAN);
-        for (int i = 0; i < shortArray.length; i++) {
-            bb.clear();
-            bb.put(byteArray[i * 2]);
-            bb.put(byteArray[(i * 2) + 1]);
-            shortArray[i] = bb.getShort(0);
+    static private int expectedLengthShorts(MediaFormat format) {
+        if (!format.containsKey(MediaFormat.KEY_DURATION)
+                || !format.containsKey(MediaFormat.KEY_SAMPLE_RATE)
+                || !format.containsKey(MediaFormat.KEY_CHANNEL_COUNT)) {
+            return 0;
         }
 
-        return shortArray;
-    }
-
-    static public short[] applyVelocity(short[] pcm, double velocity) {
-        short[] newPcm = new short[pcm.length];
-
-        for (int i = 0; i < pcm.length; i++) {
-            newPcm[i] = (short) (pcm[i] * velocity);
+        long durationMicro = format.getLong(MediaFormat.KEY_DURATION);
+        long frames = (durationMicro * format.getInteger(MediaFormat.KEY_SAMPLE_RATE) + (long) MICROS_PER_SECOND - 1) / (long) MICROS_PER_SECOND;
+        long shorts = frames * format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        if (shorts < 0 || shorts > Integer.MAX_VALUE) {
+            return 0;
         }
 
-        return newPcm;
+        return (int) shorts;
     }
 }
@@ -0,0 +1,114 @@
+package peoplesfeelingscode.com.pfseq;
+
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Handler;
+import android.os.Looper;
+
+import static android.media.AudioFormat.CHANNEL_OUT_STEREO;
+import static android.media.AudioFormat.ENCODING_PCM_16BIT;
+import static android.media.AudioFormat.ENCODING_PCM_FLOAT;
+import static android.media.AudioManager.STREAM_MUSIC;
+
+/*
+output to a streaming AudioTrack, stereo, 16 bit or float. the default sink (see PFSeqOutputSink).
+the start listener is run from the AudioTrack's marker at frame 1, on the main thread.
+ */
+
+public class PFSeqAudioTrackSink extends PFSeqOutputSink {
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public PFSeqOutputSink make(int sampleRate, boolean floatOutput, int bufferSizeFrames) {
+            return new PFSeqAudioTrackSink(sampleRate, floatOutput, bufferSizeFrames);
+        }
+    };
+
+    private AudioTrack at;
+    private int sampleRate;
+    private AudioTimestamp audioTimestamp; // only used while synchronized
+    private volatile long framesWritten; // only written by the track's work thread
+
+    public PFSeqAudioTrackSink(int sampleRate, boolean floatOutput, int bufferSizeFrames) {
+        int encoding = floatOutput ? ENCODING_PCM_FLOAT : ENCODING_PCM_16BIT;
+        int bufferSizeBytes = bufferSizeFrames * 2 * (floatOutput ? 4 : 2);
+        this.at = new AudioTrack(STREAM_MUSIC, sampleRate, CHANNEL_OUT_STEREO, encoding, bufferSizeBytes, AudioTrack.MODE_STREAM);
+        this.sampleRate = sampleRate;
+        this.audioTimestamp = new AudioTimestamp();
+
+        at.setNotificationMarkerPosition(1);
+        at.setPlaybackPositionUpdateListener(new AudioTrack.OnPlaybackPositionUpdateListener() {
+            @Override
+            public void onMarkerReached(AudioTrack audioTrack) {
+                notifyStarted();
+            }
+
+            @Override
+            public void onPeriodicNotification(AudioTrack audioTrack) {
+
+            }
+        }, new Handler(Looper.getMainLooper()));
+    }
+
+    @Override
+    public int write(short[] pcm, int offsetShorts, int sizeShorts, boolean blocking) {
+        int transferCountShorts;
+        if (blocking) {
+            transferCountShorts = at.write(pcm, offsetShorts, sizeShorts);
+        } else {
+            transferCountShorts = at.write(pcm, offsetShorts, sizeShorts, AudioTrack.WRITE_NON_BLOCKING);
+        }
+        if (transferCountShorts > 0) {
+            framesWritten += transferCountShorts / 2;
+        }
+        return transferCountShorts;
+    }
+    @Override
+    public int write(float[] pcm, int offsetSamples, int sizeSamples, boolean blocking) {
+        int transferCountSamples = at.write(pcm, offsetSamples, sizeSamples, blocking ? AudioTrack.WRITE_BLOCKING : AudioTrack.WRITE_NON_BLOCKING);
+        if (transferCountSamples > 0) {
+            framesWritten += transferCountSamples / 2;
+        }
+        return transferCountSamples;
+    }
+    @Override
+    public void play() {
+        at.play();
+    }
+    @Override
+    public void stop() {
+        at.stop();
+    }
+    @Override
+    public void release() {
+        at.release();
+    }
+    @Override
+    public int getPlayState() {
+        return at.getPlayState();
+    }
+    @Override
+    public synchronized boolean getTimestamp(Timestamp timestamp) {
+        if (!at.getTimestamp(audioTimestamp)) {
+            return false;
+        }
+        timestamp.framePosition = audioTimestamp.framePosition;
+        timestamp.nanoTime = audioTimestamp.nanoTime;
+        return true;
+    }
+    @Override
+    public int getUnderrunCount() {
+        return at.getUnderrunCount();
+    }
+    @Override
+    public int getBufferSizeFrames() {
+        return at.getBufferSizeInFrames();
+    }
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+    @Override
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+}
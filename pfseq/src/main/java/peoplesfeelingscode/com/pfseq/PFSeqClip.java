@@ -1,36 +1,63 @@
 package peoplesfeelingscode.com.pfseq;
 
-import android.media.AudioFormat;
+import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.util.Log;
 
 import java.io.File;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
 
 import static peoplesfeelingscode.com.pfseq.PFSeq.LOG_TAG;
 import static peoplesfeelingscode.com.pfseq.PFSeq.MICROS_PER_SECOND;
 import static peoplesfeelingscode.com.pfseq.PFSeq.NANO_PER_MICROS;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.DISK_CLIP_CACHE;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MAX_CLIP_FRAMES;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MAX_STREAMING_CLIP_FRAMES;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIN_WRITABLE_CONTENT_NANO;
 
-public class PFSeqClip {
+public class PFSeqClip extends PFSeqPcmSource {
     private PFSeq seq;
     private File file;
     private short[] pcm;
+    private ShortBuffer stream; // read-only mapped PCM, for clips longer than MAX_CLIP_FRAMES. null otherwise
+    private int lengthFrames;
     private MediaFormat mediaFormat;
-    private boolean loadedSuccessfully;
+    private volatile boolean loadedSuccessfully;
+    private volatile boolean loading; // true until resolved on the main thread, when loaded by PFSeqClipLoader
+    private Future<PFSeqClip> loadFuture; // null if not loaded by PFSeqClipLoader
+    private ArrayList<PFSeqPianoRollItem> waitingItems; // items given this clip while it was loading. main thread only
     private String errorMsg;
+    private PFSeqClipCache.Entry cacheEntry; // null if not loaded
+    private int holdCount; // enabled items on tracks using this clip
 
     public PFSeqClip(PFSeq seq, File file) {
+        this(seq, file, true);
+    }
+    /*
+    if not loadNow, the clip is loading until finishLoading() and resolve() are called. see PFSeqClipLoader
+     */
+    PFSeqClip(PFSeq seq, File file, boolean loadNow) {
         this.file = file;
         this.seq = seq;
+        this.waitingItems = new ArrayList<PFSeqPianoRollItem>();
 
-        this.loadedSuccessfully = load();
+        if (loadNow) {
+            this.loadedSuccessfully = load();
+        } else {
+            this.pcm = new short[0];
+            this.errorMsg = "loading";
+            this.loading = true;
+        }
     }
 
     // read PCM data from file
     public boolean load() {
         // make it not null so it's not necessary to check loadedSuccessfully in order to use pcm
         this.pcm = new short[0];
+        this.stream = null;
+        this.lengthFrames = 0;
 
         if (!file.exists() || file.isDirectory()) {
             Log.d(LOG_TAG, "failed to load clip");
@@ -38,31 +65,154 @@ public class PFSeqClip {
             return false;
         }
 
+        // decoded already, maybe by another clip
+        PFSeqClipCache cache = PFSeqClipCache.getInstance();
+        int sampleRate = seq.getSampleRate();
+        String cacheKey = PFSeqClipCache.keyOf(file, sampleRate);
+        PFSeqClipCache.Entry cached = cache.get(cacheKey);
+        if (cached != null) {
+            // limits may differ from the config it was loaded with
+            if (!validate(cached.mediaFormat)) {
+                Log.d(LOG_TAG, "file " + file.getName() + " failed validation: " + errorMsg);
+                return false;
+            }
+            this.mediaFormat = cached.mediaFormat;
+            setCacheEntry(cached);
+            return true;
+        }
+
+        // decoded on an earlier launch
+        PFSeqDiskClipCache diskCache = seq.getCacheDir() == null ? null : new PFSeqDiskClipCache(seq.getCacheDir(), sampleRate);
+        if (diskCache != null && seq.getConfig().getBool(DISK_CLIP_CACHE)) {
+            PFSeqDiskClipCache.Loaded loaded = diskCache.load(file);
+            if (loaded != null && validate(loaded.mediaFormat)) {
+                this.mediaFormat = loaded.mediaFormat;
+                useLoaded(loaded, cache, cacheKey);
+                return true;
+            }
+        }
+
+        // one extractor for probing and decoding
+        MediaExtractor extractor;
         try {
-            this.mediaFormat = PFSeqAudio.getMediaFormat(file);
+            extractor = PFSeqAudio.openExtractor(file);
         } catch (Exception e) {
             Log.d(LOG_TAG, "failed to get mediaformat of clip. message: " + e.getMessage());
             return false;
         }
 
-        Log.d(LOG_TAG, "file " + file.getName() + " mediaformat: " + this.mediaFormat.toString());
+        boolean streaming;
+        try {
+            this.mediaFormat = extractor.getTrackFormat(0);
 
-        boolean validated = validate(this.mediaFormat);
-        if (!validated) {
-            Log.d(LOG_TAG, "file " + file.getName() + " failed validation: " + errorMsg);
-            return false;
-        }
+            Log.d(LOG_TAG, "file " + file.getName() + " mediaformat: " + this.mediaFormat.toString());
 
-        try {
-            this.pcm = PFSeqAudio.getPcm(file);
+            boolean validated = validate(this.mediaFormat);
+            if (!validated) {
+                Log.d(LOG_TAG, "file " + file.getName() + " failed validation: " + errorMsg);
+                return false;
+            }
+
+            streaming = shouldStream(this.mediaFormat);
+            if (streaming) {
+                // decoded to disk and mapped, never onto the heap, so there's nowhere to resample it
+                if (this.mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE) != sampleRate) {
+                    this.errorMsg = "file " + file.getName() + " is too long to be resampled. clips longer than MAX_CLIP_FRAMES need a sample rate of " + sampleRate;
+                    Log.d(LOG_TAG, errorMsg);
+                    return false;
+                }
+                if (diskCache == null || !diskCache.storeDecoded(file, extractor, this.mediaFormat)) {
+                    this.errorMsg = "failed to decode long clip " + file.getName() + " to the cache dir";
+                    Log.d(LOG_TAG, errorMsg);
+                    return false;
+                }
+            } else {
+                try {
+                    this.pcm = PFSeqAudio.getPcm(extractor, this.mediaFormat);
+                    int sourceRate = this.mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    if (sourceRate != sampleRate) {
+                        long resampleStart = System.nanoTime();
+                        this.pcm = PFSeqResampler.resample(this.pcm, this.mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT), sourceRate, sampleRate);
+                        Log.d(LOG_TAG, "file " + file.getName() + " resampled from " + sourceRate + " to " + sampleRate + " in " + (System.nanoTime() - resampleStart) / 1000000 + " ms");
+                    }
+                } catch (Exception e) {
+                    this.errorMsg = "failed to load audio data of file " + file.getName() + ". message: " + e.getMessage();
+                    Log.d(LOG_TAG, errorMsg);
+                    return false;
+                }
+            }
         } catch (Exception e) {
-            this.errorMsg = "failed to load audio data of file " + file.getName() + ". message: " + e.getMessage();
+            this.errorMsg = "failed to get mediaformat of clip. message: " + e.getMessage();
             Log.d(LOG_TAG, errorMsg);
             return false;
+        } finally {
+            extractor.release();
         }
 
+        if (streaming) {
+            PFSeqDiskClipCache.Loaded loaded = diskCache.load(file);
+            if (loaded == null) {
+                this.errorMsg = "failed to map long clip " + file.getName();
+                Log.d(LOG_TAG, errorMsg);
+                return false;
+            }
+            useLoaded(loaded, cache, cacheKey);
+            return true;
+        }
+
+        if (diskCache != null && seq.getConfig().getBool(DISK_CLIP_CACHE)) {
+            diskCache.store(file, this.pcm, this.mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+        }
+        setCacheEntry(cache.put(cacheKey, this.pcm, this.mediaFormat));
         return true;
     }
+    /*
+    called on the loader's worker thread, with what load() returned
+     */
+    void finishLoading(boolean loadedSuccessfully) {
+        if (!loadedSuccessfully && loadFuture != null && loadFuture.isCancelled()) {
+            this.errorMsg = "loading cancelled";
+        }
+        this.loadedSuccessfully = loadedSuccessfully;
+    }
+    /*
+    called on the main thread once loading is done. items that were waiting for the clip are scheduled,
+    or disabled if it failed
+     */
+    void resolve() {
+        this.loading = false;
+        Log.d(LOG_TAG, "clip " + file.getName() + " resolved. loaded successfully: " + loadedSuccessfully);
+
+        ArrayList<PFSeqPianoRollItem> items = waitingItems;
+        waitingItems = new ArrayList<PFSeqPianoRollItem>();
+        for (PFSeqPianoRollItem item : items) {
+            item.clipResolved(this);
+        }
+    }
+    void addWaitingItem(PFSeqPianoRollItem item) {
+        waitingItems.add(item);
+    }
+    void removeWaitingItem(PFSeqPianoRollItem item) {
+        waitingItems.remove(item);
+    }
+
+    private void useLoaded(PFSeqDiskClipCache.Loaded loaded, PFSeqClipCache cache, String cacheKey) {
+        if (loaded.lengthShorts / 2 > seq.getConfig().getInt(MAX_CLIP_FRAMES)) {
+            // read from the mapping as it plays. not in PFSeqClipCache, since it's not on the heap
+            this.stream = loaded.pcm;
+            this.lengthFrames = loaded.lengthShorts / 2;
+            return;
+        }
+
+        short[] loadedPcm = new short[loaded.lengthShorts];
+        loaded.pcm.get(loadedPcm);
+        setCacheEntry(cache.put(cacheKey, loadedPcm, loaded.mediaFormat));
+    }
+    private boolean shouldStream(MediaFormat mediaFormat) {
+        long durationMicro = mediaFormat.getLong(MediaFormat.KEY_DURATION);
+        long maxLengthMicro = this.seq.framesToNano(this.seq.getConfig().getInt(MAX_CLIP_FRAMES)) / (long) NANO_PER_MICROS;
+        return durationMicro > maxLengthMicro;
+    }
 
     public boolean validate(MediaFormat mediaFormat) {
         // mime
@@ -87,10 +237,11 @@ public class PFSeqClip {
             return false;
         }
 
-        // frame rate
+        // frame rate. converted to the engine's rate when loaded, see PFSeqResampler and PFSeq.getSampleRate()
         if (mediaFormat.containsKey(MediaFormat.KEY_SAMPLE_RATE)) {
-            if ((mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE) != 44100)) {
-                this.errorMsg = "file " + this.file.getName() + " sample rate is not 44100. only sample rates of 44100 are supported.";
+            int sampleRate = mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            if (sampleRate < PFSeqResampler.MIN_SAMPLE_RATE || sampleRate > PFSeqResampler.MAX_SAMPLE_RATE) {
+                this.errorMsg = "file " + this.file.getName() + " sample rate not supported. sample rates from " + PFSeqResampler.MIN_SAMPLE_RATE + " to " + PFSeqResampler.MAX_SAMPLE_RATE + " are supported. sample rate was: " + sampleRate;
                 return false;
             }
         } else {
@@ -98,20 +249,21 @@ public class PFSeqClip {
             return false;
         }
 
-        // bit depth
+        // bit depth. wider than 16 is converted to 16 when decoded, see PFSeqPcm.toShort()
         String mime = mediaFormat.getString(MediaFormat.KEY_MIME);
         // if flac or wav
         if (mediaFormat.containsKey(MediaFormat.KEY_MIME)
                 && ( mime.equalsIgnoreCase("audio/raw") || mime.equalsIgnoreCase("audio/flac") ) ) {
             if (mediaFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)) {
-                if ((mediaFormat.getInteger(MediaFormat.KEY_PCM_ENCODING) != AudioFormat.ENCODING_PCM_16BIT)) {
-                    this.errorMsg = "file " + this.file.getName() + " bit depth is not 16. only bit depths of 16 are supported";
+                if (PFSeqPcm.bytesPerSample(mediaFormat.getInteger(MediaFormat.KEY_PCM_ENCODING)) == 0) {
+                    this.errorMsg = "file " + this.file.getName() + " PCM encoding not supported. only 16, 24 and 32 bit and float are supported";
                     return false;
                 }
             } else {
                 if (mediaFormat.containsKey("bits-per-sample")) {
-                    if ((mediaFormat.getInteger("bits-per-sample") != 16)) {
-                        this.errorMsg = "file " + this.file.getName() + " bit depth is not 16. only bit depths of 16 are supported";
+                    int bitsPerSample = mediaFormat.getInteger("bits-per-sample");
+                    if (bitsPerSample != 16 && bitsPerSample != 24 && bitsPerSample != 32) {
+                        this.errorMsg = "file " + this.file.getName() + " bit depth not supported. only bit depths of 16, 24 and 32 are supported";
                         return false;
                     }
                 } else {
@@ -125,15 +277,16 @@ public class PFSeqClip {
         if (mediaFormat.containsKey(MediaFormat.KEY_DURATION)) {
             long durationMicro = mediaFormat.getLong(MediaFormat.KEY_DURATION);
 
-            int minLengthMicro = (int) (this.seq.getConfig().getInt(MIN_WRITABLE_CONTENT_NANO) / NANO_PER_MICROS);
-            int maxLengthMicro = (int) (this.seq.framesToNano(this.seq.getConfig().getInt(MAX_CLIP_FRAMES)) / NANO_PER_MICROS);
+            long minLengthMicro = (long) (this.seq.getConfig().getInt(MIN_WRITABLE_CONTENT_NANO) / NANO_PER_MICROS);
+            // longer than MAX_CLIP_FRAMES is streamed
+            long maxLengthMicro = this.seq.framesToNano(this.seq.getConfig().getInt(MAX_STREAMING_CLIP_FRAMES)) / (long) NANO_PER_MICROS;
 
             if (durationMicro > maxLengthMicro) {
-                this.errorMsg = "file " + this.file.getName() + " is greater than max length. length was: " + mediaFormat.getInteger(MediaFormat.KEY_DURATION) / MICROS_PER_SECOND + " s";
+                this.errorMsg = "file " + this.file.getName() + " is greater than max length. length was: " + durationMicro / MICROS_PER_SECOND + " s";
                 return false;
             }
             if (durationMicro < minLengthMicro) {
-                this.errorMsg = "file " + this.file.getName() + " is less than min length. length was: " + mediaFormat.getInteger(MediaFormat.KEY_DURATION) / MICROS_PER_SECOND + " s";
+                this.errorMsg = "file " + this.file.getName() + " is less than min length. length was: " + durationMicro / MICROS_PER_SECOND + " s";
                 return false;
             }
         } else {
@@ -145,16 +298,68 @@ public class PFSeqClip {
         return true;
     }
 
+    /*
+    while held, the clip's PCM stays in PFSeqClipCache. PFSeqPianoRollItem holds its clip while it's
+    enabled and on a track
+     */
+    synchronized void hold() {
+        holdCount++;
+        if (holdCount == 1 && cacheEntry != null) {
+            PFSeqClipCache.getInstance().hold(cacheEntry);
+        }
+    }
+    synchronized void unhold() {
+        holdCount--;
+        if (holdCount == 0 && cacheEntry != null) {
+            PFSeqClipCache.getInstance().unhold(cacheEntry);
+        }
+    }
+    private synchronized void setCacheEntry(PFSeqClipCache.Entry entry) {
+        if (holdCount > 0 && cacheEntry != null) {
+            PFSeqClipCache.getInstance().unhold(cacheEntry);
+        }
+        this.cacheEntry = entry;
+        this.pcm = entry.pcm;
+        this.lengthFrames = entry.pcm.length / 2;
+        if (holdCount > 0) {
+            PFSeqClipCache.getInstance().hold(entry);
+        }
+    }
+
     // accessors
     public MediaFormat getMediaFormat() {
         return mediaFormat;
     }
+    @Override
     public short[] getPcm() {
+        // empty if the clip is streamed
         return pcm;
     }
+    @Override
+    public int getLengthFrames() {
+        return lengthFrames;
+    }
+    public boolean isStreaming() {
+        return stream != null;
+    }
+    @Override
+    ShortBuffer getStream() {
+        // only read on the control thread. the position is moved by whoever reads
+        return stream;
+    }
+    @Override
     public boolean isLoadedSuccessfully() {
         return loadedSuccessfully;
     }
+    public boolean isLoading() {
+        return loading;
+    }
+    public Future<PFSeqClip> getLoadFuture() {
+        return loadFuture;
+    }
+    void setLoadFuture(Future<PFSeqClip> loadFuture) {
+        this.loadFuture = loadFuture;
+    }
     public String getErrorMsg() {
         return errorMsg;
     }
@@ -0,0 +1,142 @@
+package peoplesfeelingscode.com.pfseq;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static peoplesfeelingscode.com.pfseq.PFSeq.LOG_TAG;
+
+/*
+decoded clips, shared by every PFSeqClip in the process. a file is decoded once and every clip of it
+gets the same PCM array, which must not be modified.
+
+entries are keyed by path, size and last modified time, so a file that changes is decoded again, and by
+the sample rate the PCM was converted to (see PFSeqResampler).
+when the cache is over its budget (PFSeqConfig.CLIP_CACHE_BYTES), the least recently used entries
+are dropped, except those used by an enabled piano roll item on a track. dropping an entry doesn't
+take PCM away from clips that already have it.
+ */
+
+public class PFSeqClipCache {
+    private static final PFSeqClipCache INSTANCE = new PFSeqClipCache();
+
+    private LinkedHashMap<String, Entry> entries;
+    private long budgetBytes;
+    private long sizeBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    static class Entry {
+        final String key;
+        final short[] pcm;
+        final MediaFormat mediaFormat;
+        private int holdCount; // enabled items on tracks using it. guarded by the cache
+
+        Entry(String key, short[] pcm, MediaFormat mediaFormat) {
+            this.key = key;
+            this.pcm = pcm;
+            this.mediaFormat = mediaFormat;
+        }
+
+        long sizeBytes() {
+            return pcm.length * 2L;
+        }
+    }
+
+    private PFSeqClipCache() {
+        // access order, so iteration starts at the least recently used
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.budgetBytes = PFSeqConfig.INT_DEFAULTS.get(PFSeqConfig.CLIP_CACHE_BYTES);
+    }
+
+    public static PFSeqClipCache getInstance() {
+        return INSTANCE;
+    }
+
+    static String keyOf(File file, int sampleRate) {
+        return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|" + sampleRate;
+    }
+
+    synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+    /*
+    returns the entry that ends up in the cache, which is an existing one if the same file was put meanwhile
+     */
+    synchronized Entry put(String key, short[] pcm, MediaFormat mediaFormat) {
+        Entry existing = entries.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        Entry entry = new Entry(key, pcm, mediaFormat);
+        entries.put(key, entry);
+        sizeBytes += entry.sizeBytes();
+        trim();
+        return entry;
+    }
+    synchronized void hold(Entry entry) {
+        entry.holdCount++;
+    }
+    synchronized void unhold(Entry entry) {
+        if (entry.holdCount > 0) {
+            entry.holdCount--;
+        }
+        trim();
+    }
+    public synchronized void clear() {
+        // held entries stay
+        long budget = budgetBytes;
+        budgetBytes = 0;
+        trim();
+        budgetBytes = budget;
+    }
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (sizeBytes > budgetBytes && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.holdCount > 0) {
+                continue;
+            }
+            iterator.remove();
+            sizeBytes -= entry.sizeBytes();
+            evictions++;
+            Log.d(LOG_TAG, "clip cache evicted " + entry.key);
+        }
+    }
+
+    // accessors
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        trim();
+    }
+    public synchronized long getBudgetBytes() {
+        return budgetBytes;
+    }
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+    public synchronized long getHits() {
+        return hits;
+    }
+    public synchronized long getMisses() {
+        return misses;
+    }
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
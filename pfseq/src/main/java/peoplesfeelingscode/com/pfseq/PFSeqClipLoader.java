@@ -0,0 +1,127 @@
+package peoplesfeelingscode.com.pfseq;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+import static peoplesfeelingscode.com.pfseq.PFSeq.LOG_TAG;
+
+/*
+loads clips on worker threads, so decoding a kit doesn't block the caller (usually the UI thread in onConnect).
+one worker per core. the workers stop when idle.
+
+load() returns the clips straight away, still loading (see PFSeqClip.isLoading()). they can be given to
+piano roll items and tracks right away. those items aren't played until their clip has loaded, and are
+disabled if it fails, same as with a clip loaded in the PFSeqClip constructor.
+
+each clip resolves on the main thread: its items are updated, then the callback is called. a clip's
+getLoadFuture() is done just before that, on the worker.
+ */
+
+public class PFSeqClipLoader {
+    static final String THREAD_NAME = "clip loader";
+    static final long IDLE_SECONDS = 30;
+
+    private PFSeq seq;
+    private ThreadPoolExecutor executor;
+    private Handler mainHandler;
+
+    /*
+    called on the main thread
+     */
+    public interface Callback {
+        // check clip.isLoadedSuccessfully() and clip.getErrorMsg()
+        void onClipLoaded(PFSeqClip clip, int loadedCount, int totalCount);
+        void onAllLoaded(List<PFSeqClip> clips);
+    }
+
+    PFSeqClipLoader(PFSeq seq) {
+        this.seq = seq;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        android.os.Process.setThreadPriority(THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, THREAD_NAME);
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+    callback may be null. returns the clips in the order of files
+     */
+    public List<PFSeqClip> load(List<File> files, final Callback callback) {
+        final List<PFSeqClip> clips = new ArrayList<PFSeqClip>();
+        final int[] loadedCount = new int[1]; // only touched on the main thread
+
+        for (File file : files) {
+            final PFSeqClip clip = new PFSeqClip(seq, file, false);
+            clips.add(clip);
+
+            FutureTask<PFSeqClip> task = new FutureTask<PFSeqClip>(new Callable<PFSeqClip>() {
+                @Override
+                public PFSeqClip call() {
+                    clip.finishLoading(clip.load());
+                    return clip;
+                }
+            }) {
+                @Override
+                protected void done() {
+                    if (isCancelled()) {
+                        clip.finishLoading(false);
+                    }
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            clip.resolve();
+                            loadedCount[0]++;
+                            if (callback != null) {
+                                callback.onClipLoaded(clip, loadedCount[0], clips.size());
+                                if (loadedCount[0] == clips.size()) {
+                                    callback.onAllLoaded(clips);
+                                }
+                            }
+                        }
+                    });
+                }
+            };
+            clip.setLoadFuture(task);
+        }
+
+        Log.d(LOG_TAG, "loading " + clips.size() + " clips on up to " + executor.getMaximumPoolSize() + " threads");
+        for (PFSeqClip clip : clips) {
+            executor.execute((FutureTask<PFSeqClip>) clip.getLoadFuture());
+        }
+
+        return clips;
+    }
+
+    /*
+    clips still waiting to load fail with "loading cancelled"
+     */
+    void shutDown() {
+        for (Runnable runnable : executor.shutdownNow()) {
+            ((FutureTask<?>) runnable).cancel(false);
+        }
+    }
+}
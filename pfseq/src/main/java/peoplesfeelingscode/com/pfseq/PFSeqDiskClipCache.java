@@ -0,0 +1,218 @@
+package peoplesfeelingscode.com.pfseq;
+
+import android.media.AudioFormat;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+import static peoplesfeelingscode.com.pfseq.PFSeq.LOG_TAG;
+import static peoplesfeelingscode.com.pfseq.PFSeq.MICROS_PER_SECOND;
+
+/*
+decoded PCM kept on disk between launches, so a clip is only decoded by MediaCodec the first time.
+one file per source file and sample rate, named by a hash of the same key as PFSeqClipCache's (see PFSeqClipCache.keyOf).
+the PCM is at the engine's sample rate, so a clip that was resampled isn't resampled again.
+files are memory-mapped to load them. clips too long for the heap are streamed from the mapping (see PFSeqClip).
+
+file layout, little endian:
+
+    int magic, int version, long source size, long source last modified,
+    int sample rate, int channel count, int length in shorts, then the 16-bit PCM
+
+a file with another version or source is stale. it's deleted and the clip is decoded again.
+bump VERSION whenever the layout or the decoded PCM would change.
+ */
+
+class PFSeqDiskClipCache {
+    static final String DIR_NAME = "pfseq_pcm";
+    static final int MAGIC = 0x50465351; // "PFSQ"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+    private File dir;
+    private int sampleRate; // of the PCM in the files
+
+    /*
+    result of load(). the format is built from the header, as raw PCM.
+    pcm is a read-only view of the mapped file, positioned at the first sample
+     */
+    static class Loaded {
+        ShortBuffer pcm;
+        int lengthShorts;
+        MediaFormat mediaFormat;
+    }
+
+    PFSeqDiskClipCache(File cacheDir, int sampleRate) {
+        this.dir = new File(cacheDir, DIR_NAME);
+        this.sampleRate = sampleRate;
+    }
+
+    /*
+    returns null if there is no usable file for the source
+     */
+    Loaded load(File source) {
+        File file = fileFor(source);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new Exception("too short");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                throw new Exception("other version");
+            }
+            if (mapped.getLong() != source.length() || mapped.getLong() != source.lastModified()) {
+                throw new Exception("other source");
+            }
+            int sampleRate = mapped.getInt();
+            int channelCount = mapped.getInt();
+            int lengthShorts = mapped.getInt();
+            if (sampleRate != this.sampleRate || channelCount <= 0 || lengthShorts < 0 || size != HEADER_BYTES + lengthShorts * 2L) {
+                throw new Exception("bad header");
+            }
+
+            Loaded loaded = new Loaded();
+            loaded.pcm = mapped.asShortBuffer();
+            loaded.lengthShorts = lengthShorts;
+
+            loaded.mediaFormat = MediaFormat.createAudioFormat("audio/raw", sampleRate, channelCount);
+            loaded.mediaFormat.setInteger(MediaFormat.KEY_PCM_ENCODING, AudioFormat.ENCODING_PCM_16BIT);
+            long frames = lengthShorts / channelCount;
+            loaded.mediaFormat.setLong(MediaFormat.KEY_DURATION, (long) (frames * MICROS_PER_SECOND / sampleRate));
+
+            return loaded;
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "disk clip cache file for " + source.getName() + " not used: " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+    void store(File source, short[] pcm, int channelCount) {
+        File file = fileFor(source);
+        if (file == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            Log.d(LOG_TAG, "disk clip cache not available");
+            return;
+        }
+
+        // written under another name and renamed, so a half-written file is never loaded.
+        // a unique name, since clips are loaded in parallel (see PFSeqClipLoader)
+        File tempFile = createTempFile(source, file);
+        if (tempFile == null) {
+            return;
+        }
+        long size = HEADER_BYTES + pcm.length * 2L;
+
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(size);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            putHeader(mapped, source, sampleRate, channelCount, pcm.length);
+            mapped.asShortBuffer().put(pcm);
+            mapped.force();
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "failed to write disk clip cache file for " + source.getName() + ": " + e.getMessage());
+            tempFile.delete();
+            return;
+        }
+
+        rename(source, tempFile, file);
+    }
+    /*
+    decodes straight into the file, for clips that are too long to decode onto the heap.
+    the source must already be at the cache's sample rate. returns false if the file couldn't be written
+     */
+    boolean storeDecoded(File source, MediaExtractor extractor, MediaFormat sourceFormat) {
+        File file = fileFor(source);
+        if (file == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            Log.d(LOG_TAG, "disk clip cache not available");
+            return false;
+        }
+
+        File tempFile = createTempFile(source, file);
+        if (tempFile == null) {
+            return false;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(HEADER_BYTES);
+            long pcmBytes = PFSeqAudio.decodeTo(extractor, sourceFormat, channel);
+            if (pcmBytes / 2 > Integer.MAX_VALUE) {
+                throw new Exception("too long");
+            }
+
+            // length is only known now
+            putHeader(header, source, sampleRate, sourceFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT), (int) (pcmBytes / 2));
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(false);
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "failed to decode to disk clip cache file for " + source.getName() + ": " + e.getMessage());
+            tempFile.delete();
+            return false;
+        }
+
+        return rename(source, tempFile, file);
+    }
+
+    private static void putHeader(ByteBuffer buffer, File source, int sampleRate, int channelCount, int lengthShorts) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(source.length());
+        buffer.putLong(source.lastModified());
+        buffer.putInt(sampleRate);
+        buffer.putInt(channelCount);
+        buffer.putInt(lengthShorts);
+    }
+    private File createTempFile(File source, File file) {
+        try {
+            return File.createTempFile(file.getName(), ".tmp", dir);
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "failed to create disk clip cache file for " + source.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+    private static boolean rename(File source, File tempFile, File file) {
+        if (!tempFile.renameTo(file)) {
+            Log.d(LOG_TAG, "failed to rename disk clip cache file for " + source.getName());
+            tempFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private File fileFor(File source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(PFSeqClipCache.keyOf(source, sampleRate).getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(dir, name.append(".pcm").toString());
+        } catch (Exception e) {
+            Log.d(LOG_TAG, "failed to name disk clip cache file: " + e.getMessage());
+            return null;
+        }
+    }
+}
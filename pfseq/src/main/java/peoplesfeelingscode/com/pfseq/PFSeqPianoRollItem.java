@@ -1,18 +1,18 @@
 package peoplesfeelingscode.com.pfseq;
 
-import static peoplesfeelingscode.com.pfseq.PFSeqConfig.REPEATING;
-import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TIME_SIG_UPPER;
 import static peoplesfeelingscode.com.pfseq.PFSeqMessage.MESSAGE_TYPE_ALERT;
+import static peoplesfeelingscode.com.pfseq.PFSeqMessage.MESSAGE_TYPE_ERROR;
 
-public class PFSeqPianoRollItem {
+public class PFSeqPianoRollItem implements PFSeqScheduledItem {
     private boolean enabled;
     private PFSeq seq;
+    private PFSeqTrack track; // set when added to a track
     private PFSeqClip clip;
-    private short[] velocityPcm;
+    private boolean holdsClip; // see PFSeqClip.hold()
     private String name;
     private PFSeqTimeOffset timeOffset; // time position, relative to begginning of bar
     private PFSeqLength length; // length for clip to be abridged to, relative to
-    private double velocity;
+    private volatile double velocity; // applied when rendering, see PFSeqMixer
 
     public PFSeqPianoRollItem(PFSeq seq, PFSeqClip clip, String name, PFSeqTimeOffset timeOffset) {
         this.seq = seq;
@@ -24,48 +24,22 @@ public class PFSeqPianoRollItem {
     }
 
     public short[] getPcm() {
-        if (velocity == 1) {
-            return clip.getPcm();
-        } else {
-            return velocityPcm;
-        }
+        // the clip's own PCM. velocity isn't applied to it
+        return clip.getPcm();
     }
     public long soonestNanoAfter(long nano) {
         // may return a nanotime that is not actually after, but before, if pfseq config is set to non-repeating
 
-        double nanosPerBeat = seq.getNanosecondsPerBeat().doubleValue();
-        int timeSigBeatsPerBar = seq.getConfig().getInt(TIME_SIG_UPPER);
-        int beatsSinceTempoStart = seq.beatsSinceTempoStart(nano);
-        long currentBeatNanotime = seq.beatStartNanotime(beatsSinceTempoStart);
-        int itemBeatOfBar = timeOffset.getBeats();
-        long offsetFromBeatNano = (long) ( timeOffset.getPercent() * nanosPerBeat );
-
-        int currentBeatOfBar = -1;
-        boolean isRepeating = seq.getConfig().getBool(REPEATING);
-        if (isRepeating) {
-            currentBeatOfBar = beatsSinceTempoStart % timeSigBeatsPerBar;
-        } else {
-            currentBeatOfBar = beatsSinceTempoStart;
-        }
-
-        // how many beats in the future the item is
-        int beatsOut = -1;
-        if (isRepeating) {
-            // if itemBeatOfBar equals currentBeatOfBar then we need to see if the next nano is in this bar or the next bar
-            beatsOut = (timeSigBeatsPerBar + itemBeatOfBar - currentBeatOfBar) % timeSigBeatsPerBar;
-            if (currentBeatNanotime + (beatsOut * nanosPerBeat) + offsetFromBeatNano < nano) {
-                beatsOut += timeSigBeatsPerBar;
-            }
-        } else {
-            // may be negative
-            beatsOut = itemBeatOfBar - beatsSinceTempoStart;
+        if (!seq.getTempoClock().isStarted()) {
+            seq.sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ERROR, "tempoStartNanotime not set"));
+            return -1;
         }
 
-//        Log.d(LOG_TAG, name + "\nbeatsSinceTempoStart:" + beatsSinceTempoStart + "\ntimeOffset.getPercent(): " + timeOffset.getPercent() + "\nbeatsOut: " + beatsOut + "\noffsetFromBeatNano: " + offsetFromBeatNano);
-        return currentBeatNanotime + (long) (beatsOut * nanosPerBeat) + offsetFromBeatNano;
+        /* through the tempo map, so scheduled tempo changes and ramps are followed. see PFSeqTrackSchedule */
+        return seq.contentFrameToNano(PFSeqTrackSchedule.soonestFrameOf(seq, this, seq.nanoToContentFrame(nano)));
     }
     public int lengthInFrames() {
-        return getClip().getPcm().length / 2;
+        return getClip().getLengthFrames();
     }
     public void setVelocity(double velocity) {
         if (velocity > 1) {
@@ -74,38 +48,40 @@ public class PFSeqPianoRollItem {
         if (velocity < 0) {
             velocity = 0;
         }
-        if (velocity != 1)  {
-            boolean enabledToggled = false;
-            if (isEnabled()) {
-                setEnabled(false);
-                enabledToggled = true;
-            }
-
-            velocityPcm = PFSeqAudio.applyVelocity(clip.getPcm(), velocity);
-
-            if (enabledToggled) {
-                setEnabled(true);
-            }
-        }
+        // takes effect from the item's next start
         this.velocity = velocity;
     }
 
     // simple accessors
+    @Override
     public PFSeqClip getClip() {
         return clip;
     }
     public void setClip(PFSeqClip clip) {
+        if (holdsClip) {
+            this.clip.unhold();
+            holdsClip = false;
+        }
+        if (this.clip != null) {
+            this.clip.removeWaitingItem(this);
+        }
         this.clip = clip;
-        if (!clip.isLoadedSuccessfully()) {
+        if (clip.isLoading()) {
+            // left out of the schedule until the clip resolves, see clipResolved()
+            clip.addWaitingItem(this);
+        } else if (!clip.isLoadedSuccessfully()) {
             seq.sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "clip not loaded successfully. pr item disabled"));
             setEnabled(false);
         }
+        scheduleChanged();
     }
+    @Override
     public PFSeqTimeOffset getTimeOffset() {
         return timeOffset;
     }
     public void setTimeOffset(PFSeqTimeOffset timeOffset) {
         this.timeOffset = timeOffset;
+        scheduleChanged();
     }
     public String getName() {
         return name;
@@ -113,20 +89,60 @@ public class PFSeqPianoRollItem {
     public void setName(String name) {
         this.name = name;
     }
+    @Override
     public boolean isEnabled() {
         return enabled;
     }
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
+        scheduleChanged();
     }
+    @Override
     public PFSeqLength getLength() {
         return length;
     }
     public void setLength(PFSeqLength length) {
         this.length = length;
     }
+    @Override
     public double getVelocity() {
         return velocity;
     }
+    PFSeqTrack getTrack() {
+        return track;
+    }
+    void setTrack(PFSeqTrack track) {
+        this.track = track;
+        updateClipHold();
+    }
+    void clipResolved(PFSeqClip clip) {
+        if (clip != this.clip) {
+            return;
+        }
+        if (!clip.isLoadedSuccessfully()) {
+            seq.sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "clip not loaded successfully. pr item disabled. " + clip.getFile().getName() + " - " + clip.getErrorMsg()));
+            setEnabled(false);
+            return;
+        }
+        scheduleChanged();
+    }
+    private void scheduleChanged() {
+        if (track != null) {
+            track.getSchedule().update(this);
+        }
+        updateClipHold();
+    }
+    private void updateClipHold() {
+        boolean shouldHold = track != null && enabled;
+        if (shouldHold == holdsClip) {
+            return;
+        }
+        if (shouldHold) {
+            clip.hold();
+        } else {
+            clip.unhold();
+        }
+        holdsClip = shouldHold;
+    }
 }
 
@@ -1,7 +1,5 @@
 package peoplesfeelingscode.com.pfseq;
 
-import android.media.AudioTimestamp;
-import android.media.AudioTrack;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
@@ -10,50 +8,62 @@ import android.util.Log;
 import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static android.media.AudioFormat.CHANNEL_OUT_STEREO;
-import static android.media.AudioFormat.ENCODING_PCM_16BIT;
-import static android.media.AudioManager.STREAM_MUSIC;
 import static android.os.Process.THREAD_PRIORITY_URGENT_AUDIO;
 import static peoplesfeelingscode.com.pfseq.PFSeq.LOG_TAG;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.BLOCK_RING_SIZE;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.BUFFER_SIZE_BYTES;
-import static peoplesfeelingscode.com.pfseq.PFSeqConfig.FRAMES_TO_LEAVE_BEFORE_NEXT_ITEM;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.FLOAT_OUTPUT;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MAX_VOICES;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIN_MILLIS_AHEAD_TO_WRITE;
+import static peoplesfeelingscode.com.pfseq.PFSeqConfig.MIXED_OUTPUT;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.SAMPLE_RATE;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.SYNC_MARGIN_MILLIS;
 import static peoplesfeelingscode.com.pfseq.PFSeqConfig.TIMESTAMP_POLLING_DELAY_MILLIS;
 import static peoplesfeelingscode.com.pfseq.PFSeqMessage.MESSAGE_TYPE_ALERT;
 
-public class PFSeqTrack {
+public class PFSeqTrack extends PFSeqOutputTrack {
     static final String WORK_THREAD_NAME = "PFSeq work thread";
 
     private String TRACK_LOG_PREFIX;
     private PFSeq seq;
-    private AudioTrack at;
+    private PFSeqOutputSink sink; // an AudioTrack, unless another sink factory is set (see PFSeq.setOutputSinkFactory())
     private boolean initialized;
     private ArrayList<PFSeqPianoRollItem> pianoRoll;
-    private String name;
     private HandlerThread workThread;
     private Handler workThreadHandler;
     private int totalFramesWritten;
+    private int contentStartFrame; // frame of this track's output stream that content frame 0 is written to
     private int bufferSizeFrames;
     private int bufferSizeBytes;
     private long atStartNanotime;
     private long atStartMillisImprecise;
     private boolean nanoIsMapped;
     private AtomicBoolean isWriteLocked;
-    private long writeStart;
-    private long otherWriteStart;
     private AtomicBoolean isPlaying;
+    private PFSeqBlockRing blockRing; // only for tracks that have their own AudioTrack
+    // underrun recovery, see PFSeqScheduler.checkUnderruns(). only used by the control thread
+    private int underrunsSeen; // of the sink's count
+    private PFSeqOutputSink.Timestamp resyncTimestamp;
+    private PFSeqTrackSchedule.Event nextItemEvent; // only used by nextPianoRollItemAfter(), under its lock
 
     public PFSeqTrack(PFSeq seq, String name) {
-        this.seq = (PFSeq) seq;
-        this.name = name;
+        // in mixed output mode the track's items are written to the seq's shared mix track instead
+        this(seq, name, !seq.getConfig().getBool(MIXED_OUTPUT));
+    }
+    PFSeqTrack(PFSeq seq, String name, boolean hasOwnAudioTrack) {
+        super(seq, name);
+        this.seq = seq;
         this.TRACK_LOG_PREFIX = "track " + name + " - ";
         this.isWriteLocked = new AtomicBoolean(false);
         this.isPlaying = new AtomicBoolean(false);
+        this.resyncTimestamp = new PFSeqOutputSink.Timestamp();
+        this.nextItemEvent = new PFSeqTrackSchedule.Event();
 
         pianoRoll = new ArrayList<PFSeqPianoRollItem>();
-        initializeAT();
+        if (hasOwnAudioTrack) {
+            initializeAT();
+            initializeBlockRing();
+        }
     }
 
     // core sequencer stuff
@@ -62,17 +72,18 @@ public class PFSeqTrack {
         bufferSizeFrames = 0;
         bufferSizeBytes = 0;
 
-        int bufferSizeBytesRequested = seq.getConfig().getInt(BUFFER_SIZE_BYTES);
-        int sampleRate = seq.getConfig().getInt(SAMPLE_RATE);
+        int sampleRate = seq.getSampleRate();
+        // BUFFER_SIZE_BYTES is for SAMPLE_RATE. same duration at the native rate, in whole frames
+        long bufferFramesRequested = (long) seq.getConfig().getInt(BUFFER_SIZE_BYTES) / seq.bytesPerFrame() * sampleRate / seq.getConfig().getInt(SAMPLE_RATE);
 
-        at = new AudioTrack(STREAM_MUSIC, sampleRate, CHANNEL_OUT_STEREO, ENCODING_PCM_16BIT, bufferSizeBytesRequested, AudioTrack.MODE_STREAM);
+        sink = seq.getOutputSinkFactory().make(sampleRate, seq.getConfig().getBool(FLOAT_OUTPUT), (int) bufferFramesRequested);
 
-        if (at == null) {
+        if (sink == null) {
             return false;
         }
 
         initialized = true;
-        bufferSizeFrames = at.getBufferSizeInFrames();
+        bufferSizeFrames = sink.getBufferSizeFrames();
         bufferSizeBytes = bufferSizeFrames * seq.bytesPerFrame();
         Log.d(LOG_TAG, TRACK_LOG_PREFIX + "track initialized");
         Log.d(LOG_TAG, TRACK_LOG_PREFIX + "bufferSizeFrames: " + bufferSizeFrames);
@@ -80,6 +91,18 @@ public class PFSeqTrack {
 
         return true;
     }
+    private void initializeBlockRing() {
+        blockRing = new PFSeqBlockRing(seq.getConfig().getInt(BLOCK_RING_SIZE), seq.getMixBlockFrames(), seq.getConfig().getBool(FLOAT_OUTPUT));
+        for (int i = 0; i < blockRing.size(); i++) {
+            final PFSeqBlock block = blockRing.get(i);
+            block.writer = new Runnable() {
+                @Override
+                public void run() {
+                    writeBlockToAt(block);
+                }
+            };
+        }
+    }
     void startAT() {
         Log.d(LOG_TAG, TRACK_LOG_PREFIX + "hasUnderrun() is " + ( hasUnderrun() ? "true" : "false" ) );
         if (!isInitialized()) {
@@ -92,51 +115,52 @@ public class PFSeqTrack {
         }
 
         totalFramesWritten = 0;
+        contentStartFrame = 0;
+        underrunsSeen = 0;
+        getMetrics().reset();
+        resetRecovery();
+        blockRing.reset();
         nanoIsMapped = false;
         atStartMillisImprecise = -1;
         nanoIsMapped = false;
 
         /*
-           calculate start time after started from an AudioTimestamp
+           calculate start time after started from a timestamp of the output sink
            this is where we map the dimension of frames to the dimension of nanotime
-           the accuracy is only limited by the native accuracy returned in the audiotimestamp instance
+           the accuracy is only limited by the accuracy of the timestamp
         */
-        final AudioTimestamp timestamp = new AudioTimestamp();
-        at.setNotificationMarkerPosition(1);
-        at.setPlaybackPositionUpdateListener(new AudioTrack.OnPlaybackPositionUpdateListener() {
+        final PFSeqOutputSink.Timestamp timestamp = new PFSeqOutputSink.Timestamp();
+        sink.setStartListener(new Runnable() {
             @Override
-            public void onMarkerReached(AudioTrack audioTrack) {
-                Log.d(LOG_TAG, TRACK_LOG_PREFIX + "onMarkerReached");
+            public void run() {
+                Log.d(LOG_TAG, TRACK_LOG_PREFIX + "output started");
 
                 final Handler handler = new Handler(Looper.getMainLooper());
                 Runnable runnable = new Runnable() {
                     @Override
                     public void run() {
-                        boolean timestampSuccess = at.getTimestamp(timestamp);
+                        boolean timestampSuccess = sink.getTimestamp(timestamp);
                         if(!timestampSuccess) {
                             handler.postDelayed(this, seq.getConfig().getInt(TIMESTAMP_POLLING_DELAY_MILLIS));
                             return;
                         }
                         atStartNanotime = calculateStartNanotime(timestamp);
                         nanoIsMapped = true;
+                        seq.wakeControlThread();
                     }
                 };
                 handler.post(runnable);
             }
-
-            @Override
-            public void onPeriodicNotification(AudioTrack audioTrack) {
-
-            }
-        }, workThreadHandler);
+        });
 
         // write preliminary block of silence and start
-        final short[] preliminarySilence = seq.makeSilence(getSeq().nanoToFrames(getSeq().getConfig().getInt(MIN_MILLIS_AHEAD_TO_WRITE) * (int) PFSeq.NANO_PER_MILLIS));
+        final int preliminarySilenceFrames = getSeq().nanoToFrames(getSeq().getConfig().getInt(MIN_MILLIS_AHEAD_TO_WRITE) * (int) PFSeq.NANO_PER_MILLIS);
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                writeToAt(preliminarySilence, true);
-                at.play();
+                writeSilenceToAt(preliminarySilenceFrames, true);
+                isWriteLocked.set(false);
+                sink.play();
                 isPlaying.set(true);
                 atStartMillisImprecise = System.currentTimeMillis();
                 Log.d(LOG_TAG, TRACK_LOG_PREFIX + "preliminary silence written and audiotrack status is " + getPlaystateString());
@@ -144,7 +168,6 @@ public class PFSeqTrack {
             }
         };
         isWriteLocked.set(true);
-//        Log.d(LOG_TAG, TRACK_LOG_PREFIX + "setting write locked true");
         workThreadHandler.post(runnable);
     }
     boolean stopAT() {
@@ -154,9 +177,9 @@ public class PFSeqTrack {
         }
 
         isPlaying.set(false);
-        at.stop();
+        sink.stop();
         stopWorkThread();
-        at.release();
+        sink.release();
         initializeAT();
         nanoIsMapped = false;
         isWriteLocked.set(false);
@@ -171,97 +194,170 @@ public class PFSeqTrack {
             return false;
         }
 
-        int framesToLeaveBeforeNextItem = getSeq().getConfig().getInt(FRAMES_TO_LEAVE_BEFORE_NEXT_ITEM);
-        long silenceNeededBeforeStartNano = (long) (contentStartNanotime - soonestWritableNanotime());
-        int silenceNeededBeforeStartFrames = seq.nanoToFrames(silenceNeededBeforeStartNano) - framesToLeaveBeforeNextItem;
-        if (silenceNeededBeforeStartFrames >= 0) {
+        // the only place nanotime is mapped to this track's frames. from here on content is placed in frames
+        contentStartFrame = getSeq().nanoToFrames(contentStartNanotime - getAtStartNanotime());
+        int silenceNeededBeforeStartFrames = contentStartFrame - totalFramesWritten;
+        if (silenceNeededBeforeStartFrames < 0) {
+            Log.d(LOG_TAG, TRACK_LOG_PREFIX + "content start time already written. starting " + (-silenceNeededBeforeStartFrames) + " frames late");
+            contentStartFrame = totalFramesWritten;
+        } else if (silenceNeededBeforeStartFrames > 0) {
             // fill gap between last buffered data and content start time
-            postWrite(seq.makeSilence(silenceNeededBeforeStartFrames),true);
-            Log.d(LOG_TAG, TRACK_LOG_PREFIX + "posted write - silence written up to content start time. " + silenceNeededBeforeStartNano / seq.NANO_PER_SECOND + " s of silence");
+            if (!postSilence(silenceNeededBeforeStartFrames, true)) {
+                return false;
+            }
+            Log.d(LOG_TAG, TRACK_LOG_PREFIX + "posted write - silence written up to content start time. " + silenceNeededBeforeStartFrames + " frames of silence");
         }
 
         return true;
     }
-    boolean postWrite(final short[] pcm, final boolean blocking) {
-        // writes array of pcm arrays, in order
+    @Override
+    boolean postWrite(PFSeqBlock block, boolean blocking) {
+        // block must have been acquired from this track's block ring. it's released once written
 
         if (workThreadHandler == null || !workThreadIsRunning()) {
             Log.d(LOG_TAG, TRACK_LOG_PREFIX + "failed to post to work thread");
+            blockRing.release();
             return false;
         }
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-                otherWriteStart = System.currentTimeMillis();
-                writeToAt(pcm, blocking);
-//                Log.d(LOG_TAG, "wrote " + (pcm.length / 2)  + " frames - " + (blocking ? "blocking" : "not blocking") + " - frames written: " + framesWritten);
-//                Log.d(LOG_TAG, "time spent: " + (System.currentTimeMillis() - writeStart) + " ms" );
-//                Log.d(LOG_TAG, "other time spent: " + (System.currentTimeMillis() - otherWriteStart) + " ms" );
-            }
-        };
+        block.blocking = blocking;
+        block.postedNanotime = System.nanoTime();
+        seq.getTrace().record(PFSeqTrace.TYPE_WRITE_POSTED, getTraceId(), totalFramesWritten, block.lengthFrames, 0);
         isWriteLocked.set(true);
-        workThreadHandler.post(runnable);
-//        Log.d(LOG_TAG, "setting write locked true");
-        writeStart = System.currentTimeMillis();
+        workThreadHandler.post(block.writer);
 
         return true;
     }
-    private int writeToAt(short[] pcm, boolean blocking) {
-        // method not meant to be called directly. use postWrite()
+    boolean postSilence(int lengthFrames, boolean blocking) {
+        PFSeqBlock block = blockRing.acquire();
+        if (block == null) {
+            Log.d(LOG_TAG, TRACK_LOG_PREFIX + "no free block to write silence with");
+            seq.getTrace().record(PFSeqTrace.TYPE_NO_FREE_BLOCK, getTraceId(), totalFramesWritten, lengthFrames, 0);
+            return false;
+        }
+        block.isSilence = true;
+        block.lengthFrames = lengthFrames;
 
-        int transferCountShorts = -1;
-        if (blocking) {
-            transferCountShorts = at.write(pcm, 0, pcm.length);
+        return postWrite(block, blocking);
+    }
+    private void writeBlockToAt(PFSeqBlock block) {
+        // method not meant to be called directly. use postWrite() or postSilence()
+
+        if (block.isSilence) {
+            writeSilenceToAt(block.lengthFrames, block.blocking);
+        } else if (block.segmentCount > 0) {
+            for (int i = 0; i < block.segmentCount; i++) {
+                int transferCountShorts = writeToAt(block.segmentSources[i], block.segmentOffsets[i], block.segmentLengths[i], block.blocking);
+                if (transferCountShorts < block.segmentLengths[i]) {
+                    break;
+                }
+            }
+        } else if (block.floatPcm != null) {
+            writeToAt(block.floatPcm, 0, block.lengthFrames * 2, block.blocking);
         } else {
-            transferCountShorts = at.write(pcm, 0, pcm.length, AudioTrack.WRITE_NON_BLOCKING);
+            writeToAt(block.pcm, 0, block.lengthFrames * 2, block.blocking);
+        }
+        long latencyNanos = System.nanoTime() - block.postedNanotime;
+        getMetrics().writes.incrementAndGet();
+        getMetrics().writeLatency.record(latencyNanos);
+        seq.getTrace().record(PFSeqTrace.TYPE_WRITE_DONE, getTraceId(), totalFramesWritten, block.lengthFrames, latencyNanos);
+        blockRing.release();
+        isWriteLocked.set(false);
+        seq.writeFinished();
+    }
+    private void writeSilenceToAt(int lengthFrames, boolean blocking) {
+        short[] silence = blockRing.getSilence();
+        float[] floatSilence = blockRing.getFloatSilence();
+        int remainingShorts = lengthFrames * 2;
+        int transferCountShorts;
+        int chunkShorts;
+
+        while (remainingShorts > 0) {
+            chunkShorts = Math.min(remainingShorts, silence.length);
+            if (floatSilence != null) {
+                transferCountShorts = writeToAt(floatSilence, 0, chunkShorts, blocking);
+            } else {
+                transferCountShorts = writeToAt(silence, 0, chunkShorts, blocking);
+            }
+            if (transferCountShorts < chunkShorts) {
+                // error, or a non-blocking write that the buffer didn't have room for
+                break;
+            }
+            remainingShorts -= transferCountShorts;
         }
+    }
+    private int writeToAt(short[] pcm, int offsetShorts, int sizeShorts, boolean blocking) {
+        int transferCountShorts = sink.write(pcm, offsetShorts, sizeShorts, blocking);
 
         if (transferCountShorts > 0) {
             totalFramesWritten += transferCountShorts / 2;
+            getMetrics().framesWritten.addAndGet(transferCountShorts / 2);
         } else {
             if (transferCountShorts < 0) {
                 Log.d(LOG_TAG, "write error occurred: " + transferCountShorts);
+                seq.getTrace().record(PFSeqTrace.TYPE_WRITE_ERROR, getTraceId(), totalFramesWritten, 0, transferCountShorts);
             }
         }
 
-//        Log.d(LOG_TAG, "setting write locked false");
-        isWriteLocked.set(false);
-//        Log.d(LOG_TAG, "write locked: " + (isWriteLocked.get() ? "true" : "false"));
-
         return transferCountShorts;
     }
+    private int writeToAt(float[] pcm, int offsetSamples, int sizeSamples, boolean blocking) {
+        // same as for short[], for FLOAT_OUTPUT
+        int transferCountSamples = sink.write(pcm, offsetSamples, sizeSamples, blocking);
+
+        if (transferCountSamples > 0) {
+            totalFramesWritten += transferCountSamples / 2;
+            getMetrics().framesWritten.addAndGet(transferCountSamples / 2);
+        } else {
+            if (transferCountSamples < 0) {
+                Log.d(LOG_TAG, "write error occurred: " + transferCountSamples);
+                seq.getTrace().record(PFSeqTrace.TYPE_WRITE_ERROR, getTraceId(), totalFramesWritten, 0, transferCountSamples);
+            }
+        }
+
+        return transferCountSamples;
+    }
     public void addPianoRollItem (PFSeqPianoRollItem item) {
-        if (!item.getClip().isLoadedSuccessfully()) {
+        if (!item.getClip().isLoading() && !item.getClip().isLoadedSuccessfully()) {
             getSeq().sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "clip not loaded successfully. pr item disabled. " + item.getClip().getFile().getName() + " - " + item.getClip().getErrorMsg()));
         }
         pianoRoll.add(item);
+        item.setTrack(this);
+        getSchedule().update(item);
     }
-    public PFSeqPianoRollItem nextPianoRollItemAfter(long nano) {
+    /*
+    for the UI. doesn't allocate, and can be called from any thread but not the audio threads, which use
+    nextEventAfter() with their own event
+     */
+    public synchronized PFSeqPianoRollItem nextPianoRollItemAfter(long nano) {
         // may return null if pfseq no longer playing or in non-repeating mode and no more items
 
-        if (!getSeq().isPlaying()) {
-            Log.d(LOG_TAG, "can't get next piano roll item after. not playing");
+        if (!nextEventAfter(getSeq().nanoToContentFrame(nano), nextItemEvent)) {
             return null;
         }
 
-        long soonestNextNano = Long.MAX_VALUE;
-        PFSeqPianoRollItem soonestItem = null;
-        long thisItemNextNano;
-        for (PFSeqPianoRollItem item : pianoRoll) {
-            if (!item.isEnabled()) {
-                continue;
-            }
-            if (!item.getClip().isLoadedSuccessfully()) {
-                continue;
-            }
-            thisItemNextNano = item.soonestNanoAfter(nano);
-            if (thisItemNextNano < soonestNextNano && thisItemNextNano > nano) {
-                soonestNextNano = thisItemNextNano;
-                soonestItem = item;
-            }
-        }
+        // everything on a track's schedule is one of its piano roll items
+        PFSeqPianoRollItem item = (PFSeqPianoRollItem) nextItemEvent.item;
+        nextItemEvent.item = null;
+        return item;
+    }
 
-        return soonestItem;
+    /*
+    with more than one voice, items that overlap on this track play together instead of each being abridged
+    by the next. when they are all busy, the oldest is stolen and faded out over STEAL_FADE_FRAMES.
+    costs mixing time per voice, and a track with more than one voice is always mixed, not written as segments.
+    can't be changed while playing or rendering offline
+     */
+    public boolean setMaxVoices(int maxVoices) {
+        if (getSeq().isPlaying() || getSeq().isRenderingOffline()) {
+            getSeq().sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "can't change max voices while playing or rendering offline"));
+            return false;
+        }
+        if (maxVoices < 1 || maxVoices > getSeq().getConfig().getInt(MAX_VOICES)) {
+            getSeq().sendMessageToActivity(new PFSeqMessage(MESSAGE_TYPE_ALERT, "max voices should be from 1 to MAX_VOICES. max voices: " + maxVoices));
+            return false;
+        }
+        this.maxVoices = maxVoices;
+        return true;
     }
 
     public PFSeqPianoRollItem getPrItem(String name) {
@@ -275,6 +371,7 @@ public class PFSeqTrack {
     }
 
     // timing stuff
+    @Override
     public long soonestWritableNanotime() {
         // don't call if isPlaying(), nanoIsMapped(), or isWriteLocked() is true
 
@@ -311,7 +408,7 @@ public class PFSeqTrack {
         }
         return false;
     }
-    private long calculateStartNanotime(AudioTimestamp timestamp) {
+    private long calculateStartNanotime(PFSeqOutputSink.Timestamp timestamp) {
         long nanoSecondsFromFirstFrame = getSeq().framesToNano((int) timestamp.framePosition);
 
         long nowNano = timestamp.nanoTime;
@@ -347,6 +444,10 @@ public class PFSeqTrack {
         Log.d(LOG_TAG, TRACK_LOG_PREFIX + "work thread stopped");
         return true;
     }
+    @Override
+    boolean isOutputRunning() {
+        return workThreadHandler != null;
+    }
     public boolean workThreadIsRunning() {
         if (workThread == null) {
             return false;
@@ -360,21 +461,50 @@ public class PFSeqTrack {
             return "not initialized";
         }
 
-        int playstateConstant = at.getPlayState();
+        int playstateConstant = sink.getPlayState();
 
         switch (playstateConstant) {
-            case AudioTrack.PLAYSTATE_PLAYING:  return "playing";
-            case AudioTrack.PLAYSTATE_PAUSED:   return "paused";
-            case AudioTrack.PLAYSTATE_STOPPED:  return "stopped";
+            case PFSeqOutputSink.PLAYSTATE_PLAYING:  return "playing";
+            case PFSeqOutputSink.PLAYSTATE_PAUSED:   return "paused";
+            case PFSeqOutputSink.PLAYSTATE_STOPPED:  return "stopped";
             default:                            return "playstate not found";
         }
     }
+    @Override
+    int takeNewUnderruns() {
+        if (sink == null) {
+            return 0;
+        }
+        int underrunCount = sink.getUnderrunCount();
+        int newUnderruns = underrunCount - underrunsSeen;
+        underrunsSeen = underrunCount;
+        return newUnderruns;
+    }
+    @Override
+    long measureStallNanos(long notBeforeNanotime) {
+        if (sink == null || !sink.getTimestamp(resyncTimestamp) || resyncTimestamp.nanoTime <= notBeforeNanotime) {
+            return Long.MIN_VALUE;
+        }
+        return calculateStartNanotime(resyncTimestamp) - atStartNanotime;
+    }
+    @Override
+    void resync(long stallNanos) {
+        int stallFrames = getSeq().nanoToFrames(stallNanos);
+        atStartNanotime += getSeq().framesToNano(stallFrames);
+        // the content that would have been heard while stalled is skipped
+        contentStartFrame -= stallFrames;
+        seq.getTrace().record(PFSeqTrace.TYPE_RESYNC, getTraceId(), stallFrames, 0, stallNanos);
+    }
+    public int getUnderrunCount() {
+        // since play
+        return sink == null ? 0 : sink.getUnderrunCount();
+    }
     public boolean hasUnderrun() {
-        if (at == null) {
+        if (sink == null) {
             return false;
         }
-        if (at.getUnderrunCount() > 0) {
-            Log.d(LOG_TAG, TRACK_LOG_PREFIX + "underruns:" + at.getUnderrunCount());
+        if (sink.getUnderrunCount() > 0) {
+            Log.d(LOG_TAG, TRACK_LOG_PREFIX + "underruns:" + sink.getUnderrunCount());
             return true;
         }
         return false;
@@ -386,25 +516,36 @@ public class PFSeqTrack {
     }
     public ArrayList<PFSeqPianoRollItem> getPianoRoll() { return pianoRoll; }
     public boolean isInitialized() { return initialized; }
+    public PFSeqOutputSink getOutputSink() {
+        // null in mixed output mode, except for the mix track
+        return sink;
+    }
     public PFSeq getSeq() {
         return seq;
     }
     public Handler getWorkThreadHandler() {
         return workThreadHandler;
     }
-    public String getName() {
-        return name;
-    }
     public long getAtStartNanotime() {
         return atStartNanotime;
     }
     public boolean nanoIsMapped() {
         return nanoIsMapped;
     }
+    @Override
     public int getTotalFramesWritten() {
         return totalFramesWritten;
     }
+    @Override
+    int getContentStartFrame() {
+        return contentStartFrame;
+    }
+    @Override
     public boolean isWriteLocked() {
         return isWriteLocked.get();
     }
+    @Override
+    PFSeqBlockRing getBlockRing() {
+        return blockRing;
+    }
 }